@@ -26,13 +26,23 @@ public class ClassUtils {
 
     /**
      * Sum sizes of fixed sized variables to assist in faster computation of variables.
-     * Enums *are* also allowed on the condition that there's less than 255 enum ordinals.
      *
      * @param components component fields to be summed up
      * @return size of object fields
      */
     private static int sumFieldSizes(final RecordComponent[] components) {
-        return Arrays.stream(components).mapToInt(field -> field.getType().isEnum()
+        return Arrays.stream(components).mapToInt(ClassUtils::getComponentSize).sum();
+    }
+
+    /**
+     * Get the amount of bytes a single record component is encoded with.
+     * Enums *are* also allowed on the condition that there's less than 255 enum ordinals.
+     *
+     * @param field component to measure
+     * @return size of the component in bytes
+     */
+    public static int getComponentSize(final RecordComponent field) {
+        return field.getType().isEnum()
                 ? Byte.BYTES : switch (field.getType().getTypeName()) {
             case "long" -> {
                 if (field.isAnnotationPresent(UnsignedByte.class))
@@ -50,7 +60,7 @@ public class ClassUtils {
                     yield Short.BYTES;
                 yield Integer.BYTES;
             }
-            case "short" -> Short.BYTES;
+            case "short" -> field.isAnnotationPresent(UnsignedByte.class) ? Byte.BYTES : Short.BYTES;
             case "byte" -> Byte.BYTES;
 
             case "double" -> Double.BYTES;
@@ -60,6 +70,6 @@ public class ClassUtils {
 
             case "boolean" -> throw new IllegalStateException("Type 'Boolean' is not a permitted value");
             default -> throw new IllegalStateException("Unexpected value: " + field.getType().getTypeName());
-        }).sum();
+        };
     }
 }
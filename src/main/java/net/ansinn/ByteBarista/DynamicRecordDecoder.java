@@ -4,89 +4,163 @@ import net.ansinn.ByteBarista.annotations.UnsignedByte;
 import net.ansinn.ByteBarista.annotations.UnsignedInteger;
 import net.ansinn.ByteBarista.annotations.UnsignedShort;
 
-import java.lang.invoke.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.RecordComponent;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
-public class DynamicRecordDecoder {
+/**
+ * Decodes fixed sized records through a single composed method handle per record type. Every component is read
+ * straight from its offset within the record and handed to the canonical constructor, so decoding neither boxes nor
+ * goes through reflection once a decoder has been built.
+ */
+public final class DynamicRecordDecoder {
+
+    // Building a decoder is costly, decoding with one isn't
+    private static final Map<Class<? extends Record>, Function<ByteBuffer, ? extends Record>> DecoderCache = new ConcurrentHashMap<>();
+
+    private static final MethodHandle INT_SUM;
+    private static final MethodHandle UNSIGNED_BYTE;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            INT_SUM = lookup.findStatic(Integer.class, "sum", MethodType.methodType(int.class, int.class, int.class));
+            UNSIGNED_BYTE = lookup.findStatic(Byte.class, "toUnsignedInt", MethodType.methodType(int.class, byte.class));
+        } catch (NoSuchMethodException | IllegalAccessException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
 
-    public static <T extends Record> Function<ByteBuffer, T> createDecoder(Class<T> recordClazz) throws NoSuchMethodException, IllegalAccessException, LambdaConversionException {
-        var lookup = MethodHandles.privateLookupIn(recordClazz, MethodHandles.lookup());
-        var decoder = buildDecoder(recordClazz, lookup);
+    private DynamicRecordDecoder() {}
+
+    /**
+     * Get the decoder of a record type, building and caching it on first use. Decoders read in the byte order of the
+     * buffer they're given and advance its position past the record.
+     * @param recordClazz record type to decode to
+     * @return decoder shared by every caller
+     * @param <T> type of record
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Record> Function<ByteBuffer, T> getDecoder(final Class<T> recordClazz) {
+        return (Function<ByteBuffer, T>) DecoderCache.computeIfAbsent(recordClazz, clazz -> {
+            try {
+                return createDecoder(clazz);
+            } catch (NoSuchMethodException | IllegalAccessException exception) {
+                throw new IllegalStateException("Failed to build decoder for record: " + clazz.getTypeName(), exception);
+            }
+        });
+    }
 
+    /**
+     * Build a new decoder for a record type, bypassing the cache.
+     * @param recordClazz record type to decode to
+     * @return new decoder
+     * @param <T> type of record
+     * @throws IllegalAccessException thrown when class access isn't permitted
+     */
+    public static <T extends Record> Function<ByteBuffer, T> createDecoder(final Class<T> recordClazz) throws NoSuchMethodException, IllegalAccessException {
+        var lookup = MethodHandles.privateLookupIn(recordClazz, MethodHandles.lookup());
 
+        // Erasing the record type lets the decoder use invokeExact without knowing T
+        var handle = buildDecoder(recordClazz, lookup).asType(MethodType.methodType(Record.class, ByteBuffer.class, int.class));
 
-        return null;
+        return new HandleDecoder<>(recordClazz, handle, ClassUtils.getRecordSize(recordClazz));
     }
 
-    public static <T extends Record> MethodHandle buildDecoder(Class<T> recordClazz, MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
+    /**
+     * Compose a handle reading every component of a record at its offset and constructing the record from them.
+     * @param recordClazz record type to decode to
+     * @param lookup lookup with access to the canonical constructor
+     * @return handle of type (ByteBuffer, int)T, taking the index the record starts at
+     * @param <T> type of record
+     */
+    public static <T extends Record> MethodHandle buildDecoder(final Class<T> recordClazz, final MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
         var components = recordClazz.getRecordComponents();
-//        var constructor = getConstructor(recordClazz, lookup);
-        var tempConstructor = recordClazz.getDeclaredConstructors()[0];
-        var constructor = lookup.unreflectConstructor(tempConstructor);
+        var decoder = getConstructor(recordClazz, lookup);
+        var offsets = new int[components.length];
 
-        var deserializers = new MethodHandle[components.length];
+        for (var i = 1; i < components.length; i++)
+            offsets[i] = offsets[i - 1] + ClassUtils.getComponentSize(components[i - 1]);
 
-        for (var i = 0; i < components.length; i++) {
-            var deserializer = makeDeserializer(components[i], lookup);
-            System.out.println("deserializer = " + deserializer);
-            deserializers[i] = deserializer;
+        // Going backwards keeps the positions of the constructor parameters yet to be replaced intact
+        for (var i = components.length - 1; i >= 0; i--) {
+            var reader = MethodHandles.filterArguments(makeDeserializer(recordClazz, components[i], lookup), 1,
+                    MethodHandles.insertArguments(INT_SUM, 1, offsets[i]));
+
+            decoder = MethodHandles.collectArguments(decoder, i, reader);
         }
 
-        var bufferedReader = MethodHandles.zero(recordClazz);
+        // Every reader gets the same buffer and record index
+        var reorder = new int[components.length * 2];
 
-        for (var reader : deserializers) {
-            bufferedReader = MethodHandles.collectArguments(bufferedReader, 0, reader);
-        }
+        for (var i = 0; i < components.length; i++)
+            reorder[i * 2 + 1] = 1;
 
-        return MethodHandles.foldArguments(constructor, bufferedReader);
+        return MethodHandles.permuteArguments(decoder, MethodType.methodType(recordClazz, ByteBuffer.class, int.class), reorder);
     }
 
-    private static MethodHandle makeDeserializer(RecordComponent component, MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
+    /**
+     * Make a handle reading a single component at an absolute index.
+     * @return handle of type (ByteBuffer, int)X, X being the type of the component
+     */
+    private static MethodHandle makeDeserializer(Class<? extends Record> recordClazz, RecordComponent component, MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
         var type = component.getType();
 
         if (type.isEnum()) {
-            var valueHandle = lookup.findStatic(type, "values", MethodType.methodType(type.arrayType()));
-            var ordinal = lookup.findVirtual(ByteBuffer.class, "getInt", MethodType.methodType(int.class));
+            var ordinal = MethodHandles.filterReturnValue(absolute(lookup, "get", byte.class), UNSIGNED_BYTE);
+            var constant = MethodHandles.arrayElementGetter(type.arrayType()).bindTo(type.getEnumConstants());
 
-            return MethodHandles.filterReturnValue(ordinal, valueHandle);
+            return MethodHandles.filterReturnValue(ordinal, constant);
         }
 
-        return switch (type.getTypeName().toLowerCase()) {
+        return switch (type.getTypeName()) {
             case "long" -> {
                 if (component.isAnnotationPresent(UnsignedByte.class))
-                    yield lookup.findStatic(NumericHelpers.class, "getUnsignedByteAsLong", MethodType.methodType(long.class, ByteBuffer.class));
+                    yield helper(lookup, "getUnsignedByteAsLong", long.class);
                 else if (component.isAnnotationPresent(UnsignedShort.class))
-                    yield lookup.findStatic(NumericHelpers.class, "getUnsignedShortAsLong", MethodType.methodType(long.class, ByteBuffer.class));
+                    yield helper(lookup, "getUnsignedShortAsLong", long.class);
                 else if (component.isAnnotationPresent(UnsignedInteger.class))
-                    yield lookup.findStatic(NumericHelpers.class, "getUnsignedInt", MethodType.methodType(long.class, ByteBuffer.class));
-                yield lookup.findVirtual(ByteBuffer.class, "getLong", MethodType.methodType(long.class));
+                    yield helper(lookup, "getUnsignedInt", long.class);
+                yield absolute(lookup, "getLong", long.class);
             }
             case "int" -> {
                 if (component.isAnnotationPresent(UnsignedByte.class))
-                    yield lookup.findStatic(NumericHelpers.class, "getUnsignedByteAsInt", MethodType.methodType(int.class, ByteBuffer.class));
+                    yield helper(lookup, "getUnsignedByteAsInt", int.class);
                 else if (component.isAnnotationPresent(UnsignedShort.class))
-                    yield lookup.findStatic(NumericHelpers.class, "getUnsignedShortAsInt", MethodType.methodType(int.class, ByteBuffer.class));
-                yield lookup.findVirtual(ByteBuffer.class, "getInt", MethodType.methodType(int.class));
+                    yield helper(lookup, "getUnsignedShortAsInt", int.class);
+                else if (component.isAnnotationPresent(UnsignedInteger.class))
+                    throw new IllegalStateException("Invalid use of " + UnsignedInteger.class.getTypeName() + " annotation on int in: " + recordClazz.getTypeName() + ". If you mean to use an unsigned int change this type to long.");
+                yield absolute(lookup, "getInt", int.class);
+            }
+            case "short" -> {
+                if (component.isAnnotationPresent(UnsignedByte.class))
+                    yield helper(lookup, "getUnsignedByteAsShort", short.class);
+                yield absolute(lookup, "getShort", short.class);
             }
-            case "short" ->
-                    lookup.findVirtual(ByteBuffer.class, "getShort", MethodType.methodType(short.class));
-            case "byte" ->
-                    lookup.findVirtual(ByteBuffer.class, "get", MethodType.methodType(byte.class));
-
-            case "double" ->
-                    lookup.findVirtual(ByteBuffer.class, "getDouble", MethodType.methodType(double.class));
-            case "float" ->
-                    lookup.findVirtual(ByteBuffer.class, "getFloat", MethodType.methodType(float.class));
-
-            case "char" ->
-                    lookup.findVirtual(ByteBuffer.class, "getChar", MethodType.methodType(char.class));
+            case "byte" -> absolute(lookup, "get", byte.class);
+
+            case "double" -> absolute(lookup, "getDouble", double.class);
+            case "float" -> absolute(lookup, "getFloat", float.class);
+
+            case "char" -> absolute(lookup, "getChar", char.class);
             default -> throw new IllegalStateException("Unexpected type: " + type.getTypeName());
         };
     }
 
+    private static MethodHandle absolute(MethodHandles.Lookup lookup, String name, Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        return lookup.findVirtual(ByteBuffer.class, name, MethodType.methodType(type, int.class));
+    }
+
+    private static MethodHandle helper(MethodHandles.Lookup lookup, String name, Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        return lookup.findStatic(NumericHelpers.class, name, MethodType.methodType(type, ByteBuffer.class, int.class));
+    }
+
     private static <T extends Record> MethodHandle getConstructor(final Class<T> recordClazz, MethodHandles.Lookup lookup) throws NoSuchMethodException, IllegalAccessException {
         // Get record components
         var components = recordClazz.getRecordComponents();
@@ -106,4 +180,30 @@ public class DynamicRecordDecoder {
         return lookup.findConstructor(recordClazz, MethodType.methodType(void.class, paramTypes));
 
     }
+
+    /**
+     * Decoder around a composed handle. Record fields are trusted to be constant, so once a decoder is constant to
+     * the JIT its handle is as well and gets inlined into the caller.
+     */
+    private record HandleDecoder<T extends Record>(Class<T> type, MethodHandle handle, int size) implements Function<ByteBuffer, T> {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T apply(ByteBuffer buffer) {
+            if (size > buffer.remaining())
+                throw new IllegalStateException("Not enough room in byte buffer for following record: " + type.getTypeName());
+
+            var position = buffer.position();
+
+            try {
+                var record = (T) (Record) handle.invokeExact(buffer, position);
+                buffer.position(position + size);
+                return record;
+            } catch (RuntimeException | Error exception) {
+                throw exception;
+            } catch (Throwable throwable) {
+                throw new IllegalStateException("Failed to instantiate record: " + type.getTypeName(), throwable);
+            }
+        }
+    }
 }
@@ -31,4 +31,34 @@ public class NumericHelpers {
         var num = buffer.get();
         return Byte.toUnsignedInt(num);
     }
+
+    public static short getUnsignedByteAsShort(ByteBuffer buffer) {
+        return (short) Byte.toUnsignedInt(buffer.get());
+    }
+
+    // Absolute variants, reading at an index without moving the buffer's position
+
+    public static long getUnsignedInt(ByteBuffer buffer, int index) {
+        return Integer.toUnsignedLong(buffer.getInt(index));
+    }
+
+    public static long getUnsignedShortAsLong(ByteBuffer buffer, int index) {
+        return Short.toUnsignedLong(buffer.getShort(index));
+    }
+
+    public static long getUnsignedByteAsLong(ByteBuffer buffer, int index) {
+        return Byte.toUnsignedLong(buffer.get(index));
+    }
+
+    public static int getUnsignedShortAsInt(ByteBuffer buffer, int index) {
+        return Short.toUnsignedInt(buffer.getShort(index));
+    }
+
+    public static int getUnsignedByteAsInt(ByteBuffer buffer, int index) {
+        return Byte.toUnsignedInt(buffer.get(index));
+    }
+
+    public static short getUnsignedByteAsShort(ByteBuffer buffer, int index) {
+        return (short) Byte.toUnsignedInt(buffer.get(index));
+    }
 }
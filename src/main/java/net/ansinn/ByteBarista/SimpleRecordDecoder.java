@@ -92,7 +92,7 @@ public final class SimpleRecordDecoder {
             var componentType = recordComponent.getType();
 
             if (componentType.isEnum())
-                return (Function<ByteBuffer, Object>) buffer -> componentType.getEnumConstants()[buffer.get()];
+                return (Function<ByteBuffer, Object>) buffer -> componentType.getEnumConstants()[Byte.toUnsignedInt(buffer.get())];
             else return switch (componentType.getTypeName()) {
                 case "long" -> {
                     if(recordComponent.isAnnotationPresent(UnsignedByte.class))
@@ -112,7 +112,11 @@ public final class SimpleRecordDecoder {
                         throw buildSignException(UnsignedInteger.class, recordClazz, "int", "long");
                     yield (Function<ByteBuffer, Integer>)ByteBuffer::getInt;
                 }
-                case "short" -> (Function<ByteBuffer, Short>)ByteBuffer::getShort;
+                case "short" -> {
+                    if(recordComponent.isAnnotationPresent(UnsignedByte.class))
+                        yield (Function<ByteBuffer, Short>) NumericHelpers::getUnsignedByteAsShort;
+                    yield (Function<ByteBuffer, Short>)ByteBuffer::getShort;
+                }
                 case "byte" -> (Function<ByteBuffer, Byte>)ByteBuffer::get;
 
                 case "double" -> (Function<ByteBuffer, Double>)ByteBuffer::getDouble;
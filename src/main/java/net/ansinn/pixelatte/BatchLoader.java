@@ -1,11 +1,103 @@
 package net.ansinn.pixelatte;
 
+import net.ansinn.pixelatte.output.ImageInfo;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
- * Load Images in a batch from a file directory.
+ * Load Images in a batch from a file directory. Every file is probed first, decodes are then scheduled on an
+ * executor while a memory budget caps how many bytes of decoded pixel data are in flight at once. Results are
+ * delivered in completion order, not in directory order.
  */
 public class BatchLoader {
 
-    String fileDir;
+    // The memory budget is tracked in kibibytes, so budgets beyond 2 GB still fit into semaphore permits
+    private static final long PERMIT_BYTES = 1024;
+
+    private static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    /**
+     * Outcome of a single file.
+     * @param path path of the file
+     * @param info header of the image, null if probing failed
+     * @param resource decoded image, null if decoding failed
+     * @param error cause of the failure, null on success
+     */
+    public record Entry(Path path, ImageInfo info, PixelResource resource, Throwable error) {
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Throughput of a finished batch.
+     * @param files files decoded successfully
+     * @param failed files which failed to probe or decode
+     * @param skipped files no registered format could probe
+     * @param inputBytes size of all decoded files on disk
+     * @param decodedBytes size of all decoded pixel data
+     * @param elapsed wall clock time from walking the directory until the last result was delivered
+     */
+    public record Stats(int files, int failed, int skipped, long inputBytes, long decodedBytes, Duration elapsed) {
+
+        public double filesPerSecond() {
+            return files / seconds();
+        }
+
+        /**
+         * @return megabytes of encoded files read per second
+         */
+        public double megabytesPerSecond() {
+            return inputBytes / (1024.0 * 1024.0) / seconds();
+        }
+
+        /**
+         * @return megabytes of pixel data produced per second
+         */
+        public double decodedMegabytesPerSecond() {
+            return decodedBytes / (1024.0 * 1024.0) / seconds();
+        }
+
+        private double seconds() {
+            return Math.max(elapsed.toNanos(), 1) / 1_000_000_000.0;
+        }
+    }
+
+    Path fileDir;
+    boolean recursive = true;
+    Predicate<Path> filter = _ -> true;
+    long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // Either an executor owned by the caller, or a factory for one we create and shut down per batch
+    Executor executor;
+    Supplier<ExecutorService> ownedExecutor = Executors::newVirtualThreadPerTaskExecutor;
 
     private BatchLoader() {};
 
@@ -14,12 +106,269 @@ public class BatchLoader {
     }
 
     /**
-     * Create a batch loader and set
-     * @param fileDir
-     * @return
+     * Create a batch loader and set the directory it loads from.
+     * @param fileDir directory holding the images
+     * @return a new batch loader
      */
     public static BatchLoader of(String fileDir) {
-        return new BatchLoader();
+        return create().directory(Path.of(fileDir));
+    }
+
+    public BatchLoader directory(Path fileDir) {
+        this.fileDir = Objects.requireNonNull(fileDir, "Directory cannot be null");
+        return this;
     }
 
+    /**
+     * @param recursive whether subdirectories are walked as well, true by default
+     */
+    public BatchLoader recursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    /**
+     * @param filter files to consider, every regular file by default. Files no format can probe are skipped anyway.
+     */
+    public BatchLoader filter(Predicate<Path> filter) {
+        this.filter = Objects.requireNonNull(filter, "Filter cannot be null");
+        return this;
+    }
+
+    /**
+     * Caps the decoded pixel data in flight. A single image larger than the budget is still decoded, but alone.
+     * @param bytes maximum amount of decoded bytes in flight, 256 MB by default
+     */
+    public BatchLoader memoryBudget(long bytes) {
+        if (bytes < PERMIT_BYTES)
+            throw new IllegalArgumentException("Memory budget has to be at least " + PERMIT_BYTES + " bytes: " + bytes);
+
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /**
+     * Decodes every image on its own virtual thread. This is the default.
+     */
+    public BatchLoader useVirtualThreads() {
+        this.executor = null;
+        this.ownedExecutor = Executors::newVirtualThreadPerTaskExecutor;
+        return this;
+    }
+
+    /**
+     * Decodes on a dedicated fork join pool which is shut down once the batch is done.
+     * @param parallelism amount of decoding threads
+     */
+    public BatchLoader useForkJoin(int parallelism) {
+        this.executor = null;
+        this.ownedExecutor = () -> new ForkJoinPool(parallelism);
+        return this;
+    }
+
+    /**
+     * Decodes on an executor owned by the caller, which is left running once the batch is done.
+     * @param executor executor running the decodes
+     */
+    public BatchLoader executor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+        this.ownedExecutor = null;
+        return this;
+    }
+
+    /**
+     * Loads every image of the directory, blocking until all of them have been delivered. The consumer is called from
+     * the decoding threads in completion order, so it has to be thread safe.
+     * @param consumer receiver of every result
+     * @return throughput of the batch
+     */
+    public Stats load(Consumer<Entry> consumer) {
+        Objects.requireNonNull(consumer, "Consumer cannot be null");
+
+        return run((entry, release) -> {
+            try {
+                consumer.accept(entry);
+            } finally {
+                release.run();
+            }
+        }, new AtomicBoolean());
+    }
+
+    /**
+     * Loads every image of the directory in the background and streams the results in completion order. Pixel data
+     * counts against the memory budget until its entry has been taken from the stream, so a slow consumer throttles
+     * decoding. Close the stream when not consuming it entirely, which stops scheduling further decodes.
+     * @return stream of results
+     */
+    public Stream<Entry> stream() {
+        var queue = new LinkedBlockingQueue<Object>();
+        var cancelled = new AtomicBoolean();
+
+        var worker = Thread.ofVirtual().name("pixelatte-batch").start(() -> {
+            try {
+                run((entry, release) -> queue.add(new Pending(entry, release)), cancelled);
+                queue.add(End.INSTANCE);
+            } catch (Throwable t) {
+                queue.add(new Failure(t));
+            }
+        });
+
+        var iterator = new QueueIterator(queue);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    cancelled.set(true);
+                    worker.interrupt();
+
+                    // Decodes already running still deliver, closing only returns once they're done
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+    }
+
+    private Stats run(BiConsumer<Entry, Runnable> sink, AtomicBoolean cancelled) {
+        Objects.requireNonNull(fileDir, "No directory was set");
+
+        var start = System.nanoTime();
+
+        var totalPermits = (int) Math.min(Integer.MAX_VALUE, memoryBudget / PERMIT_BYTES);
+        var budget = new Semaphore(totalPermits);
+        var pending = new Phaser(1);
+
+        var files = new LongAdder();
+        var failed = new LongAdder();
+        var skipped = new LongAdder();
+        var inputBytes = new LongAdder();
+        var decodedBytes = new LongAdder();
+
+        var owned = executor == null ? ownedExecutor.get() : null;
+        var target = owned != null ? owned : executor;
+
+        try (var paths = Files.walk(fileDir, recursive ? Integer.MAX_VALUE : 1)) {
+            var iterator = paths.filter(Files::isRegularFile).filter(filter).iterator();
+
+            while (iterator.hasNext() && !cancelled.get()) {
+                var path = iterator.next();
+
+                ImageInfo info;
+                try {
+                    info = TextureLoader.probeFile(path.toFile());
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    sink.accept(new Entry(path, null, null, e), () -> {});
+                    continue;
+                }
+
+                if (info == null) {
+                    skipped.increment();
+                    continue;
+                }
+
+                var permits = (int) Math.min(totalPermits, Math.max(1, (info.decodedByteSize() + PERMIT_BYTES - 1) / PERMIT_BYTES));
+                budget.acquire(permits);
+
+                pending.register();
+                Runnable task = () -> {
+                    try {
+                        var entry = decode(path, info);
+
+                        if (entry.isSuccess()) {
+                            files.increment();
+                            inputBytes.add(path.toFile().length());
+                            decodedBytes.add(info.decodedByteSize());
+                        } else {
+                            failed.increment();
+                        }
+
+                        sink.accept(entry, () -> budget.release(permits));
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                };
+
+                try {
+                    target.execute(task);
+                } catch (RuntimeException e) {
+                    pending.arriveAndDeregister();
+                    budget.release(permits);
+                    throw e;
+                }
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to walk directory: " + fileDir, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Submitted decodes finish before the batch returns, even when interrupted and whoever owns the executor
+            pending.arriveAndAwaitAdvance();
+
+            if (owned != null)
+                owned.close();
+        }
+
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+        return new Stats(files.intValue(), failed.intValue(), skipped.intValue(), inputBytes.sum(), decodedBytes.sum(), elapsed);
+    }
+
+    private static Entry decode(Path path, ImageInfo info) {
+        try {
+            var resource = TextureLoader.readFile(path.toFile());
+
+            if (resource == null)
+                return new Entry(path, info, null, new IllegalStateException("Failed to decode: " + path));
+
+            return new Entry(path, info, resource, null);
+        } catch (RuntimeException e) {
+            return new Entry(path, info, null, e);
+        }
+    }
+
+    // Markers passed through the queue backing a stream
+    private record Pending(Entry entry, Runnable release) {}
+    private record Failure(Throwable cause) {}
+    private enum End { INSTANCE }
+
+    private static final class QueueIterator implements Iterator<Entry> {
+
+        private final BlockingQueue<Object> queue;
+        private Object next;
+
+        QueueIterator(BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the next image", e);
+                }
+            }
+
+            return switch (next) {
+                case Pending _ -> true;
+                case Failure(var cause) -> throw new IllegalStateException("Batch loading failed", cause);
+                default -> false;
+            };
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            var pending = (Pending) next;
+            next = null;
+
+            // Taking the entry hands its pixel data to the consumer
+            pending.release().run();
+            return pending.entry();
+        }
+    }
 }
@@ -0,0 +1,366 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage16;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent cache of decoded pixels. After the first decode of a file its pixels are written into a container
+ * holding a single header page followed by the raw pixel payload, which later reads map straight into memory instead
+ * of decoding again. Containers are tied to the size and modification time of their source file, and optionally to
+ * a CRC32C of its contents.
+ * <p>
+ * Only static images are cached, animated images are decoded every time. Chunks aren't persisted either, images read
+ * from a container come with an empty {@link ChunkMap}.
+ */
+public final class DiskTextureCache {
+
+    private static final Logger logger = Logger.getLogger(DiskTextureCache.class.getName());
+
+    // Written in native order, so containers from a machine of different endianness don't match either
+    private static final int MAGIC = 0x50584C43; // PXLC
+    // Bumped whenever the meaning of a header field changes, version 2 tags gray images by their RGBA layout
+    private static final int VERSION = 2;
+
+    // The payload starts on its own page, so it can be mapped without dragging the header along
+    private static final long HEADER_SIZE = 4096;
+
+    private static final long MAGIC_OFFSET = 0;
+    private static final long VERSION_OFFSET = 4;
+    private static final long SOURCE_SIZE_OFFSET = 8;
+    private static final long SOURCE_MODIFIED_OFFSET = 16;
+    private static final long SOURCE_HASH_OFFSET = 24;
+    private static final long WIDTH_OFFSET = 32;
+    private static final long HEIGHT_OFFSET = 36;
+    private static final long FORMAT_OFFSET = 40;
+    private static final long SAMPLE_SIZE_OFFSET = 44;
+    private static final long STRIDE_OFFSET = 48;
+    private static final long PAYLOAD_LENGTH_OFFSET = 56;
+    private static final long PATH_LENGTH_OFFSET = 64;
+    private static final long PATH_OFFSET = 68;
+
+    private static final int MAX_PATH_BYTES = (int) (HEADER_SIZE - PATH_OFFSET);
+
+    /**
+     * Snapshot of the cache counters.
+     * @param hits reads served from a container
+     * @param misses reads which had to decode
+     * @param writes containers written
+     */
+    public record Stats(long hits, long misses, long writes) {}
+
+    // Version of a source file, taken before it's decoded so edits made while decoding don't end up in the container
+    private record SourceVersion(long size, long modified, long hash) {}
+
+    // Everything a container header describes, read once per lookup
+    private record Header(long sourceSize, long sourceModified, long sourceHash, int width, int height,
+                          PixelResource.Format format, int sampleSize, long stride, long payloadLength) {}
+
+    private final Path directory;
+    private volatile boolean verifyContent;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * @param directory directory containers are kept in, created if missing
+     */
+    public DiskTextureCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory, "Directory cannot be null");
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create cache directory: " + directory, e);
+        }
+    }
+
+    /**
+     * Additionally compares a CRC32C of the source file against the container. This reads the whole source on every
+     * lookup, but catches edits which kept both size and modification time. Containers written while this is off
+     * carry no hash, so they're decoded once more after turning it on.
+     * @param verifyContent whether source contents are hashed, false by default
+     */
+    public DiskTextureCache verifyContent(boolean verifyContent) {
+        this.verifyContent = verifyContent;
+        return this;
+    }
+
+    /**
+     * Reads an image onto the heap, copying the pixels out of its container if there is a valid one. Images read from
+     * a container drop the metadata of the file, their chunk map is empty. Only an image that had to be decoded
+     * comes with chunks like gAMA, iCCP or tEXt.
+     * @param source file to read
+     * @return the image, or null if the file can't be decoded
+     */
+    public PixelResource readFile(Path source) {
+        var key = source.toAbsolutePath().normalize();
+        var container = containerOf(key);
+
+        try (var arena = Arena.ofConfined()) {
+            var payload = mapValid(key, container, arena);
+
+            if (payload != null) {
+                hits.increment();
+                return toHeapImage(payload.header(), payload.segment());
+            }
+        }
+
+        misses.increment();
+
+        var version = versionOf(key);
+        var image = TextureLoader.readFileUncached(key.toFile());
+
+        switch (image) {
+            case StaticImage8 image8 -> write(key, version, container, image8.width(), image8.height(), image8.format(), 1,
+                    MemorySegment.ofArray(image8.data()));
+            case StaticImage16 image16 -> write(key, version, container, image16.width(), image16.height(), image16.format(), Short.BYTES,
+                    MemorySegment.ofArray(image16.data()));
+            case null, default -> {}
+        }
+
+        return image;
+    }
+
+    /**
+     * Reads an image as an off-heap image. With a valid container the pixels are mapped straight from it, read only
+     * and without being copied. Like {@link #readFile(Path)}, images mapped from a container come with an empty chunk
+     * map.
+     * @param source file to read
+     * @param arena arena owning the mapping or the decoded pixel memory
+     * @return the image, or null if the file can't be decoded off-heap
+     */
+    public OffHeapImage readDirect(Path source, Arena arena) {
+        var key = source.toAbsolutePath().normalize();
+        var container = containerOf(key);
+
+        var payload = mapValid(key, container, arena);
+
+        if (payload != null) {
+            hits.increment();
+
+            var header = payload.header();
+            return header.sampleSize() == Short.BYTES
+                    ? new OffHeapImage16(header.width(), header.height(), header.stride(), payload.segment(), header.format(), new ChunkMap())
+                    : new OffHeapImage8(header.width(), header.height(), header.stride(), payload.segment(), header.format(), new ChunkMap());
+        }
+
+        misses.increment();
+
+        var version = versionOf(key);
+        var image = TextureLoader.readDirectUncached(key.toFile(), arena);
+
+        // Animations are decoded off-heap as their default image alone, which mustn't stand in for them on the heap
+        if (image != null && isStatic(key))
+            write(key, version, container, image.width(), image.height(), image.format(), image.sampleSize(), image.segment());
+
+        return image;
+    }
+
+    /**
+     * @return snapshot of the cache counters
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), writes.sum());
+    }
+
+    private Path containerOf(Path source) {
+        var crc = new CRC32C();
+        crc.update(source.toString().getBytes(StandardCharsets.UTF_8));
+
+        var name = source.getFileName() + "." + HexFormat.of().toHexDigits((int) crc.getValue()) + ".pxc";
+        return directory.resolve(name);
+    }
+
+    private record Payload(Header header, MemorySegment segment) {}
+
+    /**
+     * Maps the payload of a container if it still matches its source.
+     * @return the mapped payload, or null if the container is missing or stale
+     */
+    private Payload mapValid(Path source, Path container, Arena arena) {
+        if (!Files.isRegularFile(container))
+            return null;
+
+        try (var channel = FileChannel.open(container, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+
+            Header header;
+            try (var headerArena = Arena.ofConfined()) {
+                var segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE, headerArena);
+                header = readHeader(segment, source);
+            }
+
+            if (header == null || channel.size() < HEADER_SIZE + header.payloadLength())
+                return null;
+
+            var attributes = Files.readAttributes(source, BasicFileAttributes.class);
+
+            if (attributes.size() != header.sourceSize() || attributes.lastModifiedTime().toMillis() != header.sourceModified())
+                return null;
+
+            if (verifyContent && hash(source) != header.sourceHash())
+                return null;
+
+            return new Payload(header, channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, header.payloadLength(), arena));
+
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read texture container: " + container, e);
+            return null;
+        }
+    }
+
+    private static Header readHeader(MemorySegment segment, Path source) {
+        if (segment.get(ValueLayout.JAVA_INT, MAGIC_OFFSET) != MAGIC || segment.get(ValueLayout.JAVA_INT, VERSION_OFFSET) != VERSION)
+            return null;
+
+        // Container names are hashed, so make sure this one really belongs to our source
+        var pathLength = segment.get(ValueLayout.JAVA_INT, PATH_LENGTH_OFFSET);
+        if (pathLength < 0 || pathLength > MAX_PATH_BYTES)
+            return null;
+
+        var path = new byte[pathLength];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, PATH_OFFSET, path, 0, pathLength);
+
+        if (!new String(path, StandardCharsets.UTF_8).equals(source.toString()))
+            return null;
+
+        var formats = PixelResource.Format.values();
+        var format = segment.get(ValueLayout.JAVA_INT, FORMAT_OFFSET);
+        if (format < 0 || format >= formats.length)
+            return null;
+
+        return new Header(
+                segment.get(ValueLayout.JAVA_LONG, SOURCE_SIZE_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG, SOURCE_MODIFIED_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG, SOURCE_HASH_OFFSET),
+                segment.get(ValueLayout.JAVA_INT, WIDTH_OFFSET),
+                segment.get(ValueLayout.JAVA_INT, HEIGHT_OFFSET),
+                formats[format],
+                segment.get(ValueLayout.JAVA_INT, SAMPLE_SIZE_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG, STRIDE_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG, PAYLOAD_LENGTH_OFFSET)
+        );
+    }
+
+    private static StaticImage toHeapImage(Header header, MemorySegment payload) {
+        if (header.sampleSize() == Short.BYTES)
+            return new StaticImage16(header.width(), header.height(), payload.toArray(ValueLayout.JAVA_SHORT_UNALIGNED),
+                    header.format(), new ChunkMap());
+
+        return new StaticImage8(header.width(), header.height(), payload.toArray(ValueLayout.JAVA_BYTE),
+                header.format(), new ChunkMap());
+    }
+
+    // Anything that can't be probed might be an animation as well
+    private static boolean isStatic(Path source) {
+        var info = TextureLoader.probeFile(source.toFile());
+        return info != null && !info.isAnimated();
+    }
+
+    /**
+     * @return version of the source file, null if it can't be read
+     */
+    private SourceVersion versionOf(Path source) {
+        try {
+            var attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            // Without verification the hash is never compared, so the source isn't read a second time for it
+            var hash = verifyContent ? hash(source) : 0;
+            return new SourceVersion(attributes.size(), attributes.lastModifiedTime().toMillis(), hash);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a container next to its final location and moves it into place, so readers never see half a container.
+     * Failing to write is logged and otherwise ignored, the cache is best effort.
+     * @param version version of the source taken before it was decoded, nothing is written if it's null
+     */
+    private void write(Path source, SourceVersion version, Path container, int width, int height, PixelResource.Format format, int sampleSize, MemorySegment pixels) {
+        var path = source.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (version == null || path.length > MAX_PATH_BYTES)
+            return;
+
+        Path temp = null;
+
+        try {
+            temp = Files.createTempFile(directory, container.getFileName().toString(), ".tmp");
+
+            try (var channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 var arena = Arena.ofConfined()) {
+
+                var payloadLength = pixels.byteSize();
+                var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + payloadLength, arena);
+
+                segment.set(ValueLayout.JAVA_INT, MAGIC_OFFSET, MAGIC);
+                segment.set(ValueLayout.JAVA_INT, VERSION_OFFSET, VERSION);
+                segment.set(ValueLayout.JAVA_LONG, SOURCE_SIZE_OFFSET, version.size());
+                segment.set(ValueLayout.JAVA_LONG, SOURCE_MODIFIED_OFFSET, version.modified());
+                segment.set(ValueLayout.JAVA_LONG, SOURCE_HASH_OFFSET, version.hash());
+                segment.set(ValueLayout.JAVA_INT, WIDTH_OFFSET, width);
+                segment.set(ValueLayout.JAVA_INT, HEIGHT_OFFSET, height);
+                segment.set(ValueLayout.JAVA_INT, FORMAT_OFFSET, format.ordinal());
+                segment.set(ValueLayout.JAVA_INT, SAMPLE_SIZE_OFFSET, sampleSize);
+                segment.set(ValueLayout.JAVA_LONG, STRIDE_OFFSET, (long) width * format.channels() * sampleSize);
+                segment.set(ValueLayout.JAVA_LONG, PAYLOAD_LENGTH_OFFSET, payloadLength);
+                segment.set(ValueLayout.JAVA_INT, PATH_LENGTH_OFFSET, path.length);
+                MemorySegment.copy(path, 0, segment, ValueLayout.JAVA_BYTE, PATH_OFFSET, path.length);
+
+                MemorySegment.copy(pixels, 0, segment, HEADER_SIZE, payloadLength);
+            }
+
+            Files.move(temp, container, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writes.increment();
+
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write texture container: " + container, e);
+
+            if (temp != null)
+                deleteQuietly(temp);
+        }
+    }
+
+    private static void deleteQuietly(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to delete partial texture container: " + temp, e);
+        }
+    }
+
+    private static long hash(Path source) throws IOException {
+        try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            var crc = new CRC32C();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+}
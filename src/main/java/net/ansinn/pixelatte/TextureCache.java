@@ -0,0 +1,185 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.output.safe.AnimatedImage;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional cache in front of {@link TextureLoader#readFile(java.io.File)}. Entries are keyed by path and only served
+ * while the size and modification time of the file still match, so edited files are decoded again. The cache is
+ * bounded by the total size of the decoded pixel data and evicts the least recently used images first.
+ * <p>
+ * Images are mutable (see {@link StaticImage#flipVertical()}), so every hit hands out a copy of the cached image.
+ * Copying pixel data is still far cheaper than inflating and unfiltering it again. Animations aren't cached, they decode
+ * their frames on demand from the file they were read from, so copying one would decode every frame.
+ */
+public final class TextureCache {
+
+    /**
+     * Snapshot of the cache counters.
+     * @param hits reads served from the cache
+     * @param misses reads which had to decode, including stale entries
+     * @param evictions entries dropped to stay within the byte budget
+     * @param byteSize decoded bytes currently cached
+     * @param entries images currently cached
+     */
+    public record Stats(long hits, long misses, long evictions, long byteSize, int entries) {}
+
+    // Size and modification time identify the version of the file an image was decoded from
+    private record Entry(long fileSize, FileTime modified, StaticImage image, long byteSize) {}
+
+    private final long maxBytes;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long byteSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes maximum amount of decoded pixel data kept around
+     */
+    public TextureCache(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Cache size has to be positive: " + maxBytes);
+
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reads an image through the cache. Decoding happens outside the cache lock, so threads missing on the same file
+     * at once may both decode it.
+     * @param path file to read
+     * @return a copy of the cached image, or null if the file can't be read or decoded
+     */
+    public PixelResource readFile(Path path) {
+        var key = path.toAbsolutePath().normalize();
+        var attributes = readAttributes(key);
+
+        if (attributes == null)
+            return null;
+
+        lock.lock();
+        try {
+            var entry = entries.get(key);
+
+            if (entry != null && entry.fileSize() == attributes.size() && entry.modified().equals(attributes.lastModifiedTime())) {
+                hits.increment();
+                return entry.image().copy();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+
+        var image = TextureLoader.readFile(key.toFile());
+
+        return switch (image) {
+            case null -> null;
+            case AnimatedImage<?> animated -> animated;
+            case StaticImage staticImage -> {
+                put(key, new Entry(attributes.size(), attributes.lastModifiedTime(), staticImage, byteSize(staticImage)));
+                yield staticImage.copy();
+            }
+        };
+    }
+
+    private void put(Path key, Entry entry) {
+        // Images larger than the whole cache would only flush everything else out
+        if (entry.byteSize() > maxBytes)
+            return;
+
+        lock.lock();
+        try {
+            var previous = entries.put(key, entry);
+
+            if (previous != null)
+                byteSize -= previous.byteSize();
+
+            byteSize += entry.byteSize();
+
+            var iterator = entries.values().iterator();
+            while (byteSize > maxBytes && iterator.hasNext()) {
+                var eldest = iterator.next();
+                iterator.remove();
+
+                byteSize -= eldest.byteSize();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the cached image of a file, if there is one.
+     * @param path file whose image is dropped
+     */
+    public void invalidate(Path path) {
+        lock.lock();
+        try {
+            var removed = entries.remove(path.toAbsolutePath().normalize());
+
+            if (removed != null)
+                byteSize -= removed.byteSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every cached image. Counters are kept.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            byteSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return snapshot of the cache counters
+     */
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), byteSize, entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Files which can't be read count as ones that can't be decoded, just like they do for TextureLoader
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long byteSize(StaticImage image) {
+        return switch (image) {
+            case StaticImage8 image8 -> image8.data().length;
+            case StaticImage16 image16 -> (long) image16.data().length * Short.BYTES;
+        };
+    }
+}
@@ -1,18 +1,35 @@
 package net.ansinn.pixelatte;
 
+import net.ansinn.pixelatte.formats.DecodeCancellation;
 import net.ansinn.pixelatte.formats.png.PNGParser;
+import net.ansinn.pixelatte.formats.png.ParserResources;
+import net.ansinn.pixelatte.output.Downscale;
+import net.ansinn.pixelatte.output.ImageInfo;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.IndexedImage8;
 import net.ansinn.pixelatte.output.safe.PixelResource;
 import net.ansinn.pixelatte.output.safe.StaticImage;
 import net.ansinn.pixelatte.output.unsafe.OffHeapImage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A utility class designed to handle image parsing for files of unknown types.
@@ -37,23 +54,124 @@ public final class TextureLoader {
 
     private static final HexFormat format = HexFormat.of();
 
+    private static final Logger logger = Logger.getLogger(TextureLoader.class.getName());
+
+    // Amount of bytes mapped when probing, comfortably covers the header chunks of most files
+    private static final long PROBE_WINDOW = 4096;
+
     // Replaces the Map with a specialized Trie root
-    private static final ByteTrieNode ROOT = new ByteTrieNode();
+    private static final ByteTrieNode<ImageFormat> ROOT = new ByteTrieNode<>();
+
+    // Consulted by readFile and readDirect when set
+    private static volatile DiskTextureCache diskCache;
 
     private TextureLoader() {}
 
+    /**
+     * Decodes an image into memory owned by the caller, using resources owned by the caller.
+     */
+    @FunctionalInterface
+    public interface DestinationParser {
+
+        /**
+         * @param buffer the encoded image
+         * @param destination memory receiving the pixels
+         * @param resources resources exclusive to this decode
+         * @return description of the image written to the destination
+         * @throws IllegalArgumentException if the destination is too small to hold the image
+         */
+        ImageInfo parse(ByteBuffer buffer, MemorySegment destination, ParserResources resources);
+    }
+
+    /**
+     * Everything a format is able to decode, registered once under its magic number. Only the parser is required,
+     * reading a file through a capability its format leaves out returns null.
+     *
+     * @param parser      decodes an image onto the heap
+     * @param probe       reads the header of an image, returning null if it needs more of the file than it was given
+     * @param direct      decodes an image into memory of the given arena
+     * @param region      decodes a region of an image without unpacking the rest of it
+     * @param scaled      scales an image down while decoding it
+     * @param indexed     decodes a palette image without expanding its indices
+     * @param compact     decodes an image into the channel layout it's stored with
+     * @param destination decodes an image into memory owned by the caller
+     */
+    public record ImageFormat(Function<ByteBuffer, PixelResource> parser,
+                              Function<ByteBuffer, ImageInfo> probe,
+                              BiFunction<ByteBuffer, Arena, OffHeapImage> direct,
+                              BiFunction<ByteBuffer, Region, StaticImage> region,
+                              BiFunction<ByteBuffer, Downscale, StaticImage> scaled,
+                              Function<ByteBuffer, IndexedImage8> indexed,
+                              Function<ByteBuffer, StaticImage> compact,
+                              DestinationParser destination) {
+
+        public ImageFormat {
+            Objects.requireNonNull(parser, "Parser cannot be null");
+        }
+
+        /**
+         * @param parser decodes an image onto the heap
+         * @return a format able to do nothing but parse
+         */
+        public static ImageFormat of(Function<ByteBuffer, PixelResource> parser) {
+            return new ImageFormat(parser, null, null, null, null, null, null, null);
+        }
+
+        public ImageFormat withProbe(Function<ByteBuffer, ImageInfo> probe) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withDirect(BiFunction<ByteBuffer, Arena, OffHeapImage> direct) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withRegion(BiFunction<ByteBuffer, Region, StaticImage> region) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withScaled(BiFunction<ByteBuffer, Downscale, StaticImage> scaled) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withIndexed(Function<ByteBuffer, IndexedImage8> indexed) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withCompact(Function<ByteBuffer, StaticImage> compact) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+
+        public ImageFormat withDestination(DestinationParser destination) {
+            return new ImageFormat(parser, probe, direct, region, scaled, indexed, compact, destination);
+        }
+    }
+
+    /**
+     * Reads from an open file channel, failing only by I/O.
+     */
+    @FunctionalInterface
+    private interface ChannelRead<R> {
+        R apply(FileChannel channel) throws IOException;
+    }
+
     /**
      * Specialized Trie Node for byte-based lookups.
      * Uses simple arrays (SoA - Structure of Arrays style) instead of Maps to keep nodes lightweight and cache-friendly.
      * Since magic number branching is low (usually < 5 branches per byte), a linear scan over 
      * a tiny array is faster than a HashMap lookup.
+     * @param <P> type of format stored at the end of a signature
      */
-    private static class ByteTrieNode {
+    private static class ByteTrieNode<P> {
         byte[] keys = new byte[0];
-        ByteTrieNode[] children = new ByteTrieNode[0];
-        Function<ByteBuffer, PixelResource> parser;
+        ByteTrieNode<P>[] children = newChildren(0);
+        P parser;
 
-        void add(byte[] signature, int index, Function<ByteBuffer, PixelResource> parser, CollisionRule rule) {
+        @SuppressWarnings("unchecked")
+        private static <P> ByteTrieNode<P>[] newChildren(int length) {
+            return (ByteTrieNode<P>[]) new ByteTrieNode[length];
+        }
+
+        void add(byte[] signature, int index, P parser, CollisionRule rule) {
             // Base case: We've consumed the entire signature
             if (index == signature.length) {
                 if (this.parser != null && rule == CollisionRule.IGNORE) {
@@ -81,16 +199,16 @@ public final class TextureLoader {
                 children = Arrays.copyOf(children, children.length + 1);
                 
                 keys[childIndex] = currentByte;
-                children[childIndex] = new ByteTrieNode();
+                children[childIndex] = new ByteTrieNode<>();
             }
 
             // Recurse down
             children[childIndex].add(signature, index + 1, parser, rule);
         }
 
-        Function<ByteBuffer, PixelResource> find(ByteBuffer buffer) {
-            ByteTrieNode currentNode = this;
-            Function<ByteBuffer, PixelResource> lastValidParser = null;
+        P find(ByteBuffer buffer) {
+            ByteTrieNode<P> currentNode = this;
+            P lastValidParser = null;
             
             // We walk the buffer without modifying its position
             for (int i = 0; i < buffer.remaining(); i++) {
@@ -133,8 +251,30 @@ public final class TextureLoader {
      * @param imageProcessor the function in charge of processing an image.
      */
     public static void registerFormat(String magicNumber, Function<ByteBuffer, PixelResource> imageProcessor, CollisionRule collisionRule) {
+        registerFormat(magicNumber, ImageFormat.of(imageProcessor), collisionRule);
+    }
+
+    /**
+     * Register a parsable image format along with everything else it's able to decode. Explicit collision rules must
+     * be specified as a way of opting into intentional replacement of a format, a replaced format is replaced as a
+     * whole.
+     * @param magicNumber the identifying magic number of an image format.
+     * @param imageFormat the functions in charge of processing an image.
+     */
+    public static void registerFormat(String magicNumber, ImageFormat imageFormat, CollisionRule collisionRule) {
+        Objects.requireNonNull(imageFormat, "Image format cannot be null");
+
         var magicNumberKey = toHex(magicNumber);
-        ROOT.add(magicNumberKey, 0, imageProcessor, collisionRule);
+        ROOT.add(magicNumberKey, 0, imageFormat, collisionRule);
+    }
+
+    /**
+     * Routes {@link #readFile(File)} and {@link #readDirect(File, Arena)} through a persistent cache of decoded
+     * pixels, so files decoded once are mapped from the cache on later reads.
+     * @param cache cache to use, or null to always decode
+     */
+    public static void useDiskCache(DiskTextureCache cache) {
+        diskCache = cache;
     }
 
     /**
@@ -152,29 +292,233 @@ public final class TextureLoader {
      * @return intermediary representation of an image
      */
     public static PixelResource readFile(File file) {
+        var cache = diskCache;
+        return cache != null ? cache.readFile(file.toPath()) : readFileUncached(file);
+    }
+
+    static PixelResource readFileUncached(File file) {
+        return withMappedFile(file, ImageFormat::parser, Function::apply);
+    }
+
+    /**
+     * Reads an image from a memory mapped file into memory owned by the caller. Reusing the same destination and
+     * resources for a stream of same sized images keeps steady state decoding free of pixel and scanline
+     * allocations. Check {@link #probeFile(File)} for the amount of memory an image needs.
+     *
+     * @param file file to memory map and quickly read
+     * @param destination memory receiving the pixels, rows back to back at four samples per pixel
+     * @param resources resources exclusive to this decode, free to be reused once it returns
+     * @return description of the image written to the destination, or null if the format can't decode into it
+     * @throws IllegalArgumentException if the destination is too small to hold the image
+     */
+    public static ImageInfo readFile(File file, MemorySegment destination, ParserResources resources) {
+        return withMappedFile(file, ImageFormat::destination, (parser, buffer) -> parser.parse(buffer, destination, resources));
+    }
+
+    /**
+     * Reads an image from a memory mapped file into an array owned by the caller, see
+     * {@link #readFile(File, MemorySegment, ParserResources)}. 16 bit samples are stored in native byte order.
+     *
+     * @param file file to memory map and quickly read
+     * @param destination array receiving the pixels
+     * @param resources resources exclusive to this decode, free to be reused once it returns
+     * @return description of the image written to the destination, or null if the format can't decode into it
+     * @throws IllegalArgumentException if the destination is too small to hold the image
+     */
+    public static ImageInfo readFile(File file, byte[] destination, ParserResources resources) {
+        Objects.requireNonNull(destination, "Destination cannot be null");
+        return readFile(file, MemorySegment.ofArray(destination), resources);
+    }
+
+    /**
+     * Reads an image from a memory mapped file and decodes it straight into memory allocated from the given arena,
+     * without ever copying the pixel data onto the Java heap. The returned image is only valid while the arena is
+     * alive. Pixel memory is addressed by longs, so images too large for a heap array are decoded this way, use
+     * {@link OffHeapImage#tile(int, int, int)} to work through them piece by piece.
+     *
+     * @param file file to memory map and quickly read
+     * @param arena arena owning the pixel memory of the image
+     * @return off-heap representation of an image, or null if the format can't be decoded off-heap
+     */
+    public static OffHeapImage readDirect(File file, Arena arena) {
+        var cache = diskCache;
+        return cache != null ? cache.readDirect(file.toPath(), arena) : readDirectUncached(file, arena);
+    }
 
-        try(var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+    static OffHeapImage readDirectUncached(File file, Arena arena) {
+        return withMappedFile(file, ImageFormat::direct, (parser, buffer) -> parser.apply(buffer, arena));
+    }
+
+    /**
+     * Reads a region of an image from a memory mapped file. Only as much of the file as the region needs is decoded,
+     * the returned image is sized to the region.
+     *
+     * @param file file to memory map and quickly read
+     * @param region region of the image to decode
+     * @return image covering the region, or null if the format can't decode regions
+     */
+    public static StaticImage readRegion(File file, Region region) {
+        return withMappedFile(file, ImageFormat::region, (parser, buffer) -> parser.apply(buffer, region));
+    }
+
+    /**
+     * Reads an image from a memory mapped file, scaling it down while it's being decoded. The full resolution image
+     * is never held in memory, which makes this the way to go for thumbnails and previews.
+     *
+     * @param file file to memory map and quickly read
+     * @param scale how the image is scaled down
+     * @return the scaled image, or null if the format can't be scaled while decoding
+     */
+    public static StaticImage readScaled(File file, Downscale scale) {
+        return withMappedFile(file, ImageFormat::scaled, (parser, buffer) -> parser.apply(buffer, scale));
+    }
+
+    /**
+     * Reads a palette image from a memory mapped file, keeping its palette indices rather than expanding every pixel
+     * to RGBA. Use {@link IndexedImage8#expand()} once the colors are actually needed.
+     *
+     * @param file file to memory map and quickly read
+     * @return the indexed image, or null if the format can't keep images indexed
+     */
+    public static IndexedImage8 readIndexed(File file) {
+        return withMappedFile(file, ImageFormat::indexed, Function::apply);
+    }
+
+    /**
+     * Reads an image from a memory mapped file, keeping the channels it's stored with instead of expanding every pixel
+     * to RGBA. Gray heightmaps and masks take up one sample per pixel this way, check {@link StaticImage#format()}
+     * for the layout of the result.
+     *
+     * @param file file to memory map and quickly read
+     * @return the decoded image, or null if the format can't keep its channels
+     */
+    public static StaticImage readCompact(File file) {
+        return withMappedFile(file, ImageFormat::compact, Function::apply);
+    }
+
+    /**
+     * Reads only the header of an image, returning its dimensions and format without decoding any pixel data. Just
+     * the first few kilobytes of the file are mapped, the whole file is only mapped if its header chunks don't fit.
+     *
+     * @param file file to probe
+     * @return description of the image, or null if the format can't be probed
+     */
+    public static ImageInfo probeFile(File file) {
+        return withChannel(file, channel -> {
+            var size = channel.size();
+            var window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, PROBE_WINDOW));
+
+            var format = ROOT.find(window);
+
+            if (format == null || format.probe() == null)
+                return null;
+
+            var info = format.probe().apply(window);
+
+            if (info == null && size > PROBE_WINDOW)
+                info = format.probe().apply(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+
+            return info;
+        });
+    }
+
+    /**
+     * Maps a whole file and hands it to the part of its format picked by the capability. Files that can't be opened
+     * or mapped are logged and read as null, the same as files of an unknown format or a format lacking the
+     * capability. Exceptions thrown while decoding are passed on as they are.
+     */
+    private static <P, R> R withMappedFile(File file, Function<ImageFormat, P> capability, BiFunction<P, ByteBuffer, R> read) {
+        return withChannel(file, channel -> {
             var mbb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 
             // 0 Allocations just walk.
-            var parser = ROOT.find(mbb);
-            
-            if (parser != null) {
-                return parser.apply(mbb);
-            }
+            var format = ROOT.find(mbb);
+            var parser = format != null ? capability.apply(format) : null;
+
+            return parser != null ? read.apply(parser, mbb) : null;
+        });
+    }
 
-        } catch (IOException exception) {
-            System.out.println("Error loading file: " + file.toPath() + " into channel.");
-            exception.printStackTrace();
-        } catch (Exception e) {
-            throw new RuntimeException("uhh", e);
+    private static <R> R withChannel(File file, ChannelRead<R> read) {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read.apply(channel);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error loading file: " + file.toPath(), e);
+            return null;
         }
+    }
 
-        return null;
+    /**
+     * Reads an image without blocking the calling thread, using a single executor for both reading and decoding.
+     * @param path file to read
+     * @param executor executor running the read and the decode
+     * @return future completed with the decoded image
+     * @see #readFileAsync(Path, Executor, Executor)
+     */
+    public static CompletableFuture<PixelResource> readFileAsync(Path path, Executor executor) {
+        return readFileAsync(path, executor, executor);
     }
 
-    public static OffHeapImage readDirect(File file, Arena arena) {
-        throw new RuntimeException("Not yet implemented");
+    /**
+     * Reads an image without blocking the calling thread. The file is mapped and paged in on the I/O executor, the
+     * CPU heavy inflating, unfiltering and unpacking runs on the compute executor. Cancelling the returned future
+     * aborts a decode that is already running at its next chunk of image data.
+     * @param path file to read
+     * @param ioExecutor executor mapping the file
+     * @param computeExecutor executor decoding the image
+     * @return future completed with the decoded image, or exceptionally if the file can't be read or decoded
+     */
+    public static CompletableFuture<PixelResource> readFileAsync(Path path, Executor ioExecutor, Executor computeExecutor) {
+        Objects.requireNonNull(path, "Path cannot be null");
+
+        var result = new CompletableFuture<PixelResource>();
+
+        CompletableFuture.supplyAsync(() -> mapFile(path), ioExecutor)
+                .thenApplyAsync(buffer -> DecodeCancellation.callCancellable(result::isDone, () -> decode(path, buffer)), computeExecutor)
+                .whenComplete((image, error) -> {
+                    if (error == null)
+                        result.complete(image);
+                    else
+                        result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                });
+
+        return result;
+    }
+
+    /**
+     * Reads many images without blocking the calling thread. Every subscriber gets its own run over the files,
+     * decodes are only started as demand is signalled and images are published in completion order. The first file
+     * failing to load terminates the subscription with its error, cancelling the subscription aborts running decodes.
+     * @param paths files to read
+     * @param ioExecutor executor mapping the files
+     * @param computeExecutor executor decoding the images
+     * @return publisher of the decoded images
+     */
+    public static Flow.Publisher<PixelResource> readFilesAsync(List<Path> paths, Executor ioExecutor, Executor computeExecutor) {
+        return new TexturePublisher(List.copyOf(paths), ioExecutor, computeExecutor);
+    }
+
+    private static MappedByteBuffer mapFile(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping outlives the channel, loading it is what actually hits the disk
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error loading file: " + path, e);
+        }
+    }
+
+    private static PixelResource decode(Path path, ByteBuffer buffer) {
+        var format = ROOT.find(buffer);
+
+        if (format == null)
+            throw new IllegalStateException("Unsupported image format: " + path);
+
+        var image = format.parser().apply(buffer);
+
+        if (image == null)
+            throw new IllegalStateException("Failed to decode: " + path);
+
+        return image;
     }
 
     static StaticImage empty(ByteBuffer stream) {
@@ -183,7 +527,14 @@ public final class TextureLoader {
     }
 
     static {
-        registerFormat("89 50 4E 47 0D 0A 1A 0A", PNGParser::parse, CollisionRule.IGNORE); //PNG
+        registerFormat("89 50 4E 47 0D 0A 1A 0A", ImageFormat.of(PNGParser::parse)
+                .withProbe(PNGParser::probe)
+                .withDirect(PNGParser::parseDirect)
+                .withRegion(PNGParser::parseRegion)
+                .withScaled(PNGParser::parseScaled)
+                .withIndexed(PNGParser::parseIndexed)
+                .withCompact(PNGParser::parseCompact)
+                .withDestination(PNGParser::parseInto), CollisionRule.IGNORE); //PNG
         registerFormat("FF D8 FF", TextureLoader::empty, CollisionRule.IGNORE); //JPEG
 
         registerFormat("47 49 46 38 37 61", TextureLoader::empty, CollisionRule.IGNORE); // GIF variant 1
@@ -0,0 +1,134 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.output.safe.PixelResource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes decoded images of a fixed list of files. Every requested image starts exactly one decode, so the amount
+ * of images published can never exceed demand. Decodes complete on many threads at once, their results are
+ * serialized through a queue drained by whichever thread gets there first.
+ */
+final class TexturePublisher implements Flow.Publisher<PixelResource> {
+
+    private final List<Path> paths;
+    private final Executor ioExecutor;
+    private final Executor computeExecutor;
+
+    TexturePublisher(List<Path> paths, Executor ioExecutor, Executor computeExecutor) {
+        this.paths = paths;
+        this.ioExecutor = ioExecutor;
+        this.computeExecutor = computeExecutor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PixelResource> subscriber) {
+        var subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        if (paths.isEmpty())
+            subscription.finish(null);
+    }
+
+    // Result of a single decode, waiting to be handed to the subscriber
+    private record Completed(PixelResource image, Throwable error) {}
+
+    private final class Subscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super PixelResource> subscriber;
+
+        private final AtomicInteger nextPath = new AtomicInteger();
+        private final AtomicInteger drainers = new AtomicInteger();
+        private final Queue<Completed> completed = new ConcurrentLinkedQueue<>();
+        private final Set<CompletableFuture<PixelResource>> running = ConcurrentHashMap.newKeySet();
+
+        private volatile boolean terminated;
+        private int delivered; // Only touched while draining
+
+        Subscription(Flow.Subscriber<? super PixelResource> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (terminated)
+                return;
+
+            if (n <= 0) {
+                // Goes through the queue, so the error can't overlap an image being published
+                completed.add(new Completed(null, new IllegalArgumentException("Requested a non-positive amount of images: " + n)));
+                drain();
+                return;
+            }
+
+            for (long i = 0; i < n && !terminated; i++) {
+                var index = nextPath.getAndIncrement();
+
+                if (index >= paths.size()) {
+                    nextPath.set(paths.size()); // Keep huge requests from overflowing the counter
+                    return;
+                }
+
+                var future = TextureLoader.readFileAsync(paths.get(index), ioExecutor, computeExecutor);
+                running.add(future);
+
+                future.whenComplete((image, error) -> {
+                    running.remove(future);
+                    completed.add(new Completed(image, error));
+                    drain();
+                });
+            }
+        }
+
+        @Override
+        public void cancel() {
+            terminated = true;
+            running.forEach(future -> future.cancel(false));
+        }
+
+        private void drain() {
+            if (drainers.getAndIncrement() != 0)
+                return;
+
+            do {
+                Completed next;
+
+                while (!terminated && (next = completed.poll()) != null) {
+                    if (next.error() != null) {
+                        finish(next.error());
+                        return;
+                    }
+
+                    subscriber.onNext(next.image());
+
+                    if (++delivered == paths.size())
+                        finish(null);
+                }
+            } while (drainers.decrementAndGet() != 0);
+        }
+
+        /**
+         * Terminates the subscription, with an error or as completed if the error is null.
+         */
+        void finish(Throwable error) {
+            if (terminated)
+                return;
+
+            cancel();
+
+            if (error == null)
+                subscriber.onComplete();
+            else
+                subscriber.onError(error);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package net.ansinn.pixelatte.formats;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Lets a running decode be aborted from another thread. The cancellation check is bound to the decoding thread
+ * through a scoped value, so parsers stay plain functions and only check in on their hot loops.
+ */
+public final class DecodeCancellation {
+
+    private static final ScopedValue<BooleanSupplier> CANCELLED = ScopedValue.newInstance();
+
+    private DecodeCancellation() {}
+
+    /**
+     * Runs a decode which aborts with a {@link CancellationException} once the given check returns true.
+     * @param cancelled polled by the decode whenever it checks in
+     * @param decode the decode to run
+     * @return result of the decode
+     */
+    public static <T> T callCancellable(BooleanSupplier cancelled, Supplier<T> decode) {
+        try {
+            return ScopedValue.where(CANCELLED, cancelled).call(decode::get);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            // The decode can't throw checked exceptions, this only satisfies older signatures of call
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Aborts the current decode if it has been cancelled. Does nothing outside of
+     * {@link #callCancellable(BooleanSupplier, Supplier)}.
+     */
+    public static void throwIfCancelled() {
+        if (CANCELLED.isBound() && CANCELLED.get().getAsBoolean())
+            throw new CancellationException("Decode was cancelled");
+    }
+}
@@ -0,0 +1,243 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL;
+import net.ansinn.pixelatte.output.safe.Frame;
+import net.ansinn.pixelatte.output.safe.FrameInfo;
+import net.ansinn.pixelatte.output.safe.FrameSource;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.Timeline;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Frames of an animated PNG, decoded from the file on demand. The frame index holds the placement of every frame and
+ * where its image data lies within the file, found by a single pass over the chunks that doesn't inflate anything.
+ * Decoded frames are kept for as long as they fit {@link #DECODED_BUDGET}, which holds short animations in full.
+ * <p>
+ * The file buffer is read from whenever a frame is decoded, it has to stay unchanged while the animation is in use.
+ */
+final class APNGFrameSource<T extends StaticImage> implements FrameSource<T> {
+
+    static final long DECODED_BUDGET = 32L * 1024 * 1024;
+
+    private final ByteBuffer file;
+    private final IHDR header;
+    private final ChunkMap chunks;
+    private final FrameInfo[] infos;
+    private final Timeline timeline;
+
+    // Image data chunks of frame i are firstChunk[i] until firstChunk[i + 1]
+    private final int[] firstChunk;
+    private final int[] dataOffsets;
+    private final int[] dataLengths;
+
+    private final AtomicReferenceArray<T> decoded;
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    private APNGFrameSource(ByteBuffer file, IHDR header, ChunkMap chunks, Builder index) {
+        this.file = file.asReadOnlyBuffer();
+        this.header = header;
+        this.chunks = chunks;
+        this.infos = index.infos.toArray(FrameInfo[]::new);
+        this.timeline = Timeline.of(infos);
+        this.firstChunk = Arrays.copyOf(index.firstChunk, infos.length + 1);
+        this.firstChunk[infos.length] = index.chunkCount;
+        this.dataOffsets = Arrays.copyOf(index.dataOffsets, index.chunkCount);
+        this.dataLengths = Arrays.copyOf(index.dataLengths, index.chunkCount);
+        this.decoded = new AtomicReferenceArray<>(infos.length);
+    }
+
+    // Shares the index, which never changes, but none of the decoded frames
+    private APNGFrameSource(APNGFrameSource<T> source) {
+        this.file = source.file;
+        this.header = source.header;
+        this.chunks = source.chunks;
+        this.infos = source.infos;
+        this.timeline = source.timeline;
+        this.firstChunk = source.firstChunk;
+        this.dataOffsets = source.dataOffsets;
+        this.dataLengths = source.dataLengths;
+        this.decoded = new AtomicReferenceArray<>(infos.length);
+    }
+
+    @Override
+    public int size() {
+        return infos.length;
+    }
+
+    @Override
+    public FrameInfo info(int index) {
+        return infos[index];
+    }
+
+    @Override
+    public Timeline timeline() {
+        return timeline;
+    }
+
+    @Override
+    public T image(int index) {
+        var image = decoded.get(index);
+
+        if (image != null)
+            return image;
+
+        image = decode(index);
+        var bytes = byteSize(infos[index]);
+
+        // Frames past the budget are decoded again whenever they're needed
+        if (decodedBytes.addAndGet(bytes) > DECODED_BUDGET || !decoded.compareAndSet(index, null, image))
+            decodedBytes.addAndGet(-bytes);
+
+        return image;
+    }
+
+    /**
+     * Decodes every frame at once. Each frame is a zlib stream of its own, so frames are inflated, unfiltered and
+     * unpacked in parallel, each decode checking out its own inflater from the pool. Frames held already are reused.
+     */
+    @Override
+    public FrameSource<T> decodeAll() {
+        var frames = IntStream.range(0, infos.length).parallel()
+                .mapToObj(index -> {
+                    var info = infos[index];
+
+                    return new Frame<>(decodeUnheld(index), info.delay(), info.xOffset(), info.yOffset(),
+                            info.disposeOp(), info.blendOp());
+                })
+                .toList();
+
+        return FrameSource.of(frames);
+    }
+
+    /**
+     * Every frame is decoded from the file again, so copying doesn't decode anything up front.
+     */
+    @Override
+    public FrameSource<T> copy() {
+        return new APNGFrameSource<>(this);
+    }
+
+    /**
+     * Gets a frame without holding on to it, it's only decoded if it isn't held already.
+     * @param index index of the frame
+     * @return pixels of the frame
+     */
+    T decodeUnheld(int index) {
+        var image = decoded.get(index);
+        return image != null ? image : decode(index);
+    }
+
+    /**
+     * @return amount of frames currently held decoded
+     */
+    int decodedFrames() {
+        var count = 0;
+
+        for (var i = 0; i < decoded.length(); i++)
+            if (decoded.get(i) != null)
+                count++;
+
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(int index) {
+        var info = infos[index];
+        var frameHeader = header.withDimensions(info.width(), info.height());
+        var pool = PNGParser.resourcePool();
+        var resources = pool.checkout();
+
+        try {
+            var decoder = PNGParser.heapDecoder(frameHeader, chunks, resources);
+            var data = file.duplicate();
+
+            for (var chunk = firstChunk[index]; chunk < firstChunk[index + 1]; chunk++) {
+                data.position(dataOffsets[chunk]);
+                decoder.inflate(data, dataLengths[chunk]);
+            }
+
+            return (T) PNGParser.finishHeapImage(decoder, frameHeader, chunks);
+        } finally {
+            pool.release(resources);
+        }
+    }
+
+    private long byteSize(FrameInfo info) {
+        return (long) info.width() * info.height() * 4 * (header.bitDepth() == 16 ? 2 : 1);
+    }
+
+    /**
+     * Collects the frame index while the chunks of an animated PNG are walked.
+     */
+    static final class Builder {
+
+        private final List<FrameInfo> infos = new ArrayList<>();
+        private int[] firstChunk = new int[16];
+        private int[] dataOffsets = new int[16];
+        private int[] dataLengths = new int[16];
+        private int chunkCount;
+
+        /**
+         * Starts a new frame, every data chunk noted from here on belongs to it.
+         * @param control control chunk of the frame
+         */
+        void frame(fcTL control) {
+            if (infos.size() == firstChunk.length)
+                firstChunk = Arrays.copyOf(firstChunk, firstChunk.length * 2);
+
+            firstChunk[infos.size()] = chunkCount;
+            infos.add(FrameInfo.of(control));
+        }
+
+        /**
+         * Notes where compressed image data of the current frame lies.
+         * @param offset index of the first data byte within the file buffer
+         * @param length amount of data bytes
+         */
+        void data(int offset, int length) {
+            if (infos.isEmpty())
+                throw new IllegalStateException("Malformed APNG, frame data precedes the first frame control chunk.");
+
+            if (chunkCount == dataOffsets.length) {
+                dataOffsets = Arrays.copyOf(dataOffsets, chunkCount * 2);
+                dataLengths = Arrays.copyOf(dataLengths, chunkCount * 2);
+            }
+
+            dataOffsets[chunkCount] = offset;
+            dataLengths[chunkCount++] = length;
+        }
+
+        /**
+         * @return amount of frames started so far
+         */
+        int frames() {
+            return infos.size();
+        }
+
+        /**
+         * @param file buffer the offsets point into
+         * @param header header of the animation
+         * @param chunks chunks of the animation
+         * @param first first frame if it was decoded already, otherwise null
+         * @return source of the indexed frames
+         */
+        <T extends StaticImage> APNGFrameSource<T> build(ByteBuffer file, IHDR header, ChunkMap chunks, T first) {
+            var source = new APNGFrameSource<T>(file, header, chunks, this);
+
+            // The first frame lives on as the thumbnail anyway, so it doesn't count against the budget
+            if (first != null)
+                source.decoded.set(0, first);
+
+            return source;
+        }
+    }
+}
@@ -7,68 +7,58 @@ import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL;
 import net.ansinn.pixelatte.output.safe.*;
 
 import java.nio.ByteBuffer;
-import java.time.Duration;
-import java.util.ArrayList;
-import java.util.List;
 
 import static net.ansinn.pixelatte.formats.png.ChunkRegistry.*;
-import static net.ansinn.pixelatte.formats.png.PNGParser.calculateDecompressedSize;
 
+/**
+ * Reads animated PNGs. Only the default image is decoded while parsing, it's the thumbnail of the animation. Frames
+ * are indexed by a single pass over their chunks and decoded once they're asked for, see {@link APNGFrameSource}.
+ */
 public final class APNGParser {
 
-    public static PixelResource parse(ByteBuffer buffer, IHDR header, ChunkMap globalChunks, final ParserResources resources) throws IllegalAccessException, NoSuchMethodException {
+    /**
+     * Parses the rest of an animated PNG, starting right behind its acTL chunk.
+     * @param buffer buffer holding the file, frames are decoded from it later on so it must stay unchanged
+     * @param header header of the image
+     * @param globalChunks chunks read so far, holding the acTL chunk
+     * @param resources resources decoding the default image
+     * @return the animation
+     */
+    public static PixelResource parse(ByteBuffer buffer, IHDR header, ChunkMap globalChunks, final ParserResources resources) {
 
         // Parse actl chunk
         var acTL = globalChunks.getFirst(acTL.class).orElseThrow(
                 () -> new IllegalStateException("No acTL class exists within animated PNG type"));
 
-        // Loop State
-        fcTL currentControl = null;
-        IHDR currentFrameHeader = null;
-        byte[] currentFiltered = null;
-        int currentOffset = 0;
-
-        // Create our list of frames
-        List<Frame<StaticImage>> frames = new ArrayList<>();
+        var index = new APNGFrameSource.Builder();
+        ImageDataDecoder defaultDecoder = null;
+        var defaultIsFrame = false;
 
         while (buffer.hasRemaining()) {
             int len = buffer.getInt();
             int type = buffer.getInt();
 
             if (type == fcTL_TAG) {
-                // Finish Previous Frame
-                if (currentControl != null) {
-                    frames.add(finishFrame(currentControl, currentFrameHeader, currentFiltered, globalChunks));
-                }
-
-                // Parse New Control Chunk
-                byte[] data = new byte[len];
-                buffer.get(data);
-                // We decode fcTL manually here using registry logic or specialized decoder if needed
-                // Assuming ChunkRegistry.decodeChunk handles fcTL correctly
-                currentControl = (fcTL) ChunkRegistry.decodeChunk(type, data, 0, header);
+                index.frame((fcTL) ChunkRegistry.decodeChunk(type, buffer, len, header));
                 buffer.getInt(); // Skip CRC
 
-                // Setup New State
-                currentFrameHeader = header.withDimensions((int)currentControl.width(), (int)currentControl.height());
-                currentFiltered = new byte[calculateDecompressedSize(currentFrameHeader)];
-                currentOffset = 0;
-                resources.inflater.reset();
-
             } else if (type == fdAT_TAG) {
-                // Animation Data
-                buffer.getInt(); // Skip Sequence Number
-                currentOffset = PNGParser.parseIDAT(buffer, len - 4, resources, currentFiltered, currentOffset);
+                // Animation Data, noted behind its sequence number and skipped
+                index.data(buffer.position() + 4, len - 4);
+                buffer.position(buffer.position() + len + 4);
 
             } else if (type == IDAT_TAG) {
-                // Default Image Data (Frame 0 usually)
-                if (currentControl != null) {
-                    currentOffset = PNGParser.parseIDAT(buffer, len, resources, currentFiltered, currentOffset);
-                } else {
-                    // Skip IDAT if it's the default image and not part of animation (no fcTL yet)
-                    buffer.position(buffer.position() + len + 4);
+                // Default Image Data, which is the first frame if a control chunk preceded it
+                if (defaultDecoder == null) {
+                    defaultDecoder = PNGParser.heapDecoder(header, globalChunks, resources);
+                    defaultIsFrame = index.frames() > 0;
                 }
 
+                if (defaultIsFrame)
+                    index.data(buffer.position(), len);
+
+                PNGParser.parseIDAT(buffer, len, defaultDecoder);
+
             } else if (type == IEND_TAG) {
                 break;
             } else {
@@ -77,50 +67,37 @@ public final class APNGParser {
             }
         }
 
-        // Finish Final Frame
-        if (currentControl != null) {
-            frames.add(finishFrame(currentControl, currentFrameHeader, currentFiltered, globalChunks));
-        }
+        var thumbnail = PNGParser.finishHeapImage(defaultDecoder, header, globalChunks);
+
+        if (index.frames() == 0)
+            throw new IllegalStateException("Animated PNG holds no frames");
 
         // Return Result
         // We construct an AnimatedImage based on bit depth
         if (header.bitDepth() == 16) {
+            var thumbnail16 = (StaticImage16) thumbnail;
+
             return new AnimatedImage16(
-                    (int) acTL.frameCount(),
                     (int) acTL.playCount(),
                     header.width(),
                     header.height(),
-                    StaticImage.Format.RGBA16, // Assuming RGBA for now, or derive from ColorType
+                    StaticImage.Format.RGBA16,
                     globalChunks,
-                    (StaticImage16) frames.getFirst().image() // Use first frame as thumbnail for now
+                    thumbnail16,
+                    index.build(buffer, header, globalChunks, defaultIsFrame ? thumbnail16 : null)
             );
         } else {
+            var thumbnail8 = (StaticImage8) thumbnail;
+
             return new AnimatedImage8(
-                    (int) acTL.frameCount(),
                     (int) acTL.playCount(),
                     header.width(),
                     header.height(),
-                    StaticImage.Format.RGBA8, // Assuming RGBA for now
+                    StaticImage.Format.RGBA8,
                     globalChunks,
-                    (StaticImage8) frames.getFirst().image()
+                    thumbnail8,
+                    index.build(buffer, header, globalChunks, defaultIsFrame ? thumbnail8 : null)
             );
         }
     }
-
-    private static Frame<StaticImage> finishFrame(fcTL control, IHDR header, byte[] filtered, ChunkMap globalChunks) {
-        // 1. Unfilter
-        byte[] pixels = PNGFilter.process(filtered, header);
-
-        // 2. Unpack
-        StaticImage image = PNGUnpacker.unpack(pixels, header, globalChunks);
-
-        // 3. Duration
-        long num = control.delayNumerator();
-        long den = control.delayDenominator();
-        if (den == 0) den = 100; // Spec says 0 means 1/100 sec
-        Duration d = Duration.ofMillis((long) ((num * 1000.0) / den));
-
-        // 4. Wrap
-        return new Frame<>(image, d, (int)control.xOffset(), (int)control.yOffset(), control.disposeOp(), control.blendOp());
-    }
 }
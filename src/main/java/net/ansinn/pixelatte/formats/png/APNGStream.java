@@ -0,0 +1,293 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.output.safe.AnimatedImage;
+import net.ansinn.pixelatte.output.safe.AnimatedImage16;
+import net.ansinn.pixelatte.output.safe.AnimatedImage8;
+import net.ansinn.pixelatte.output.safe.FrameCompositor;
+import net.ansinn.pixelatte.output.safe.FrameCompositor16;
+import net.ansinn.pixelatte.output.safe.FrameCompositor8;
+import net.ansinn.pixelatte.output.safe.FrameInfo;
+import net.ansinn.pixelatte.output.safe.FrameSource;
+import net.ansinn.pixelatte.output.safe.KeyframeCache;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import net.ansinn.pixelatte.output.safe.Timeline;
+
+import java.lang.ref.Cleaner;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Plays an animation one frame after another while holding a constant amount of memory, no matter how many frames
+ * it has. Frames of an animated PNG are decoded from the file buffer just in time and dropped once they're composed,
+ * all that's kept is the canvas, the snapshot for frames disposing to previous and a single frame decoded ahead.
+ * <p>
+ * The frame ahead is decoded on a background thread while the current one is shown, so decoding stays ahead of
+ * presentation as long as a frame decodes faster than it's shown. Restarting the loop only resets the canvas, the
+ * file stays mapped and the index built while parsing is reused.
+ * <p>
+ * A stream isn't thread safe, every player should use its own. Close it once done, preferably through
+ * try-with-resources, to stop the background thread. A stream that's dropped without being closed stops its thread
+ * once it's garbage collected, until then the thread keeps the frames reachable.
+ *
+ * @param <T> type of the frames and the canvas
+ */
+public final class APNGStream<T extends StaticImage> implements AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final AnimatedImage<T> animation;
+    private final FrameSource<T> frames;
+    private final FrameCompositor<T> compositor;
+
+    // The background thread only sees the decode stage, so it doesn't keep the stream itself reachable
+    private final DecodeStage<T> stage;
+    private final Cleaner.Cleanable cleanable;
+
+    private APNGStream(AnimatedImage<T> animation) {
+        this.animation = animation;
+        this.frames = animation.source();
+        this.compositor = compositor(animation, new Lookahead());
+        this.stage = new DecodeStage<>(frames);
+        this.cleanable = CLEANER.register(this, stage::close);
+
+        Thread.ofVirtual().name("pixelatte-apng-stream").start(stage);
+    }
+
+    /**
+     * Starts streaming an animation. Frames the animation holds decoded already are used as they are, any other
+     * frame of an animated PNG is decoded without being held by the animation.
+     * @param animation the animation, as returned by {@link PNGParser#parse(java.nio.ByteBuffer)}
+     * @return a stream positioned before the first frame, to be closed once done
+     * @param <T> type of the frames
+     */
+    public static <T extends StaticImage> APNGStream<T> of(AnimatedImage<T> animation) {
+        return new APNGStream<>(Objects.requireNonNull(animation, "Animation cannot be null"));
+    }
+
+    /**
+     * @return the animation being streamed
+     */
+    public AnimatedImage<T> animation() {
+        return animation;
+    }
+
+    /**
+     * @return index of the frame on the canvas, -1 if no frame was composed yet
+     */
+    public int index() {
+        return compositor.index();
+    }
+
+    /**
+     * @return placement and timing of the frame on the canvas, of the first frame before any was composed
+     */
+    public FrameInfo info() {
+        return frames.info(Math.max(0, compositor.index()));
+    }
+
+    /**
+     * Composes the next frame, starting over at the first one after the last. Blocks if the background thread
+     * hasn't finished decoding the frame yet.
+     * @return view of the canvas, changing with the next call
+     */
+    public T next() {
+        return compositor.advance();
+    }
+
+    /**
+     * Starts the loop over, the next call to {@link #next()} composes the first frame onto a blank canvas.
+     */
+    public void restart() {
+        stage.restart();
+        compositor.reset();
+    }
+
+    /**
+     * Stops the background thread. A frame it's decoding right now is finished and dropped.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    /**
+     * Builds a compositor pulling its frames from the stream. The stream never seeks, so no keyframes are cached.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends StaticImage> FrameCompositor<T> compositor(AnimatedImage<T> animation, FrameSource<T> frames) {
+        return (FrameCompositor<T>) switch (animation) {
+            case AnimatedImage8 image -> new FrameCompositor8((FrameSource<StaticImage8>) frames, image.width(),
+                    image.height(), image.chunkMap(), new KeyframeCache<>(0, byte[]::new));
+            case AnimatedImage16 image -> new FrameCompositor16((FrameSource<StaticImage16>) frames, image.width(),
+                    image.height(), image.chunkMap(), new KeyframeCache<>(0, short[]::new));
+        };
+    }
+
+    /**
+     * Frames as the compositor sees them. Placement and timing come from the animation, pixels from the slot ahead.
+     */
+    private final class Lookahead implements FrameSource<T> {
+
+        @Override
+        public int size() {
+            return frames.size();
+        }
+
+        @Override
+        public FrameInfo info(int index) {
+            return frames.info(index);
+        }
+
+        @Override
+        public Timeline timeline() {
+            return frames.timeline();
+        }
+
+        @Override
+        public T image(int index) {
+            return stage.take(index);
+        }
+    }
+
+    /**
+     * Decodes frames in playback order into the slot ahead, running on the background thread.
+     */
+    private static final class DecodeStage<T extends StaticImage> implements Runnable {
+
+        private final FrameSource<T> frames;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        // Everything below is guarded by the lock. Restarting bumps the generation, so frames decoded before are dropped
+        private int generation;
+        private int nextDecode;
+        private T ahead;
+        private int aheadIndex;
+        private RuntimeException failure;
+        private boolean closed;
+
+        DecodeStage(FrameSource<T> frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int index;
+                int decodeGeneration;
+
+                lock.lock();
+
+                try {
+                    while (ahead != null && !closed)
+                        changed.awaitUninterruptibly();
+
+                    if (closed)
+                        return;
+
+                    index = nextDecode;
+                    decodeGeneration = generation;
+                    nextDecode = (index + 1) % frames.size();
+                } finally {
+                    lock.unlock();
+                }
+
+                T image = null;
+                RuntimeException error = null;
+
+                try {
+                    image = frames instanceof APNGFrameSource<T> apng ? apng.decodeUnheld(index) : frames.image(index);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+
+                lock.lock();
+
+                try {
+                    if (decodeGeneration != generation)
+                        continue;
+
+                    if (error != null) {
+                        failure = error;
+                        changed.signalAll();
+                        return;
+                    }
+
+                    ahead = image;
+                    aheadIndex = index;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        void restart() {
+            lock.lock();
+
+            try {
+                checkOpen();
+
+                generation++;
+                nextDecode = 0;
+                ahead = null;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Hands the frame ahead to the compositor, waiting for it to be decoded if needed
+        T take(int index) {
+            lock.lock();
+
+            try {
+                while (ahead == null || aheadIndex != index) {
+                    checkOpen();
+
+                    if (failure != null)
+                        throw new IllegalStateException("Failed to decode frame of the stream", failure);
+
+                    // Frames are asked for in order, should the one ahead be another anyway it's decoded from scratch
+                    if (ahead != null) {
+                        generation++;
+                        nextDecode = index;
+                        ahead = null;
+                        changed.signalAll();
+                    }
+
+                    changed.awaitUninterruptibly();
+                }
+
+                var image = ahead;
+                ahead = null;
+                changed.signalAll();
+                return image;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Runs when the stream is closed or once it's unreachable, whichever comes first
+        void close() {
+            lock.lock();
+
+            try {
+                closed = true;
+                ahead = null;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void checkOpen() {
+            if (closed)
+                throw new IllegalStateException("Stream is closed");
+        }
+    }
+}
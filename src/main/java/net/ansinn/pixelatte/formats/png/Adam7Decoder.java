@@ -0,0 +1,263 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.DecodeCancellation;
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes Adam7 interlaced image data. The stream holds seven reduced sub-images one after another, so everything
+ * is inflated first. Afterwards the passes don't depend on each other, they're unfiltered in parallel and scattered
+ * into the final image with strided writes.
+ */
+final class Adam7Decoder implements ImageDataDecoder {
+
+    static final int PASSES = 7;
+
+    private static final int[] START_X = {0, 4, 0, 2, 0, 1, 0};
+    private static final int[] START_Y = {0, 0, 4, 0, 2, 0, 1};
+    private static final int[] STEP_X = {8, 8, 4, 4, 2, 2, 1};
+    private static final int[] STEP_Y = {8, 8, 8, 4, 4, 2, 2};
+
+    private final IHDR header;
+    private final Inflater inflater;
+    private final byte[] inflated;
+    private final int size;
+    private int filled;
+
+    /**
+     * Creates a decoder borrowing its inflater and image data buffer from pooled resources, which have to stay
+     * exclusive to this decoder until the image has been reconstructed.
+     * @param header header of the interlaced image
+     * @param resources resources of the current decode
+     */
+    Adam7Decoder(IHDR header, ParserResources resources) {
+        this.header = header;
+        this.inflater = resources.inflater;
+        this.size = calculateDecompressedSize(header);
+        this.inflated = resources.imageData(size);
+
+        inflater.reset();
+    }
+
+    static int passWidth(int width, int pass) {
+        return width <= START_X[pass] ? 0 : (width - START_X[pass] + STEP_X[pass] - 1) / STEP_X[pass];
+    }
+
+    static int passHeight(int height, int pass) {
+        return height <= START_Y[pass] ? 0 : (height - START_Y[pass] + STEP_Y[pass] - 1) / STEP_Y[pass];
+    }
+
+    /**
+     * Sums up the filtered scanlines of all non-empty passes.
+     * @param header header of the interlaced image
+     * @return size of the inflated image data
+     * @throws IllegalArgumentException if the passes don't fit an array, which they all have to share
+     */
+    static int calculateDecompressedSize(IHDR header) {
+        var size = 0L;
+
+        for (var pass = 0; pass < PASSES; pass++) {
+            var passWidth = passWidth(header.width(), pass);
+            var passHeight = passHeight(header.height(), pass);
+
+            if (passWidth == 0 || passHeight == 0)
+                continue;
+
+            var bytesPerRow = ((long) passWidth * header.getBitsPerPixel() + 7) / 8;
+            size += passHeight * (bytesPerRow + 1);
+        }
+
+        if (size > PixelResource.Format.MAX_ARRAY_LENGTH)
+            throw new IllegalArgumentException("Interlaced image data of " + size + " bytes exceeds what can be deinterlaced");
+
+        return (int) size;
+    }
+
+    @Override
+    public void inflate(final ByteBuffer inputBuffer, final int length) {
+        var position = inputBuffer.position();
+
+        if (!isComplete()) {
+            inflater.setInput(inputBuffer.slice(position, length));
+
+            try {
+                while (!inflater.needsInput() && !isComplete()) {
+                    DecodeCancellation.throwIfCancelled();
+
+                    var inflatedBytes = inflater.inflate(inflated, filled, size - filled);
+
+                    if (inflatedBytes == 0)
+                        break;
+
+                    filled += inflatedBytes;
+                }
+            } catch (DataFormatException e) {
+                throw new RuntimeException("Corrupt PNG data", e);
+            }
+        }
+
+        inputBuffer.position(position + length);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return filled == size;
+    }
+
+    /**
+     * Unfilters every pass and assembles them into the final image. Must only be called once all data was inflated.
+     * @param chunkMap chunks of the image
+     * @return the deinterlaced image
+     */
+    StaticImage reconstruct(final ChunkMap chunkMap) {
+        return reconstruct(chunkMap, passHeader -> PNGUnpacker.rowUnpacker(passHeader, chunkMap));
+    }
+
+    /**
+     * Unfilters every pass and assembles them into the final image, unpacking through the given unpackers rather
+     * than the regular ones of the image. Must only be called once all data was inflated.
+     * @param chunkMap chunks of the image
+     * @param unpackers creates the unpacker of a pass from the header of that pass
+     * @return the deinterlaced image
+     */
+    StaticImage reconstruct(final ChunkMap chunkMap, final Function<IHDR, RowUnpacker> unpackers) {
+        return reconstruct(chunkMap, unpackers, PNGUnpacker.formatOf(header));
+    }
+
+    /**
+     * Unfilters every pass and assembles them into the final image, unpacking through the given unpackers into
+     * pixels of the given format. Must only be called once all data was inflated.
+     * @param chunkMap chunks of the image
+     * @param unpackers creates the unpacker of a pass from the header of that pass
+     * @param format layout of the pixels written by the unpackers
+     * @return the deinterlaced image
+     */
+    StaticImage reconstruct(final ChunkMap chunkMap, final Function<IHDR, RowUnpacker> unpackers, final PixelResource.Format format) {
+        var width = header.width();
+        var height = header.height();
+        var wide = header.bitDepth() == 16;
+        var channels = format.channels();
+
+        var bytes = wide ? null : new byte[format.arrayLength(width, height)];
+        var shorts = wide ? new short[format.arrayLength(width, height)] : null;
+
+        var passOffsets = passOffsets();
+
+        IntStream.range(0, PASSES).parallel().forEach(pass ->
+                reconstructPass(pass, passOffsets[pass], unpackers, channels, bytes, shorts, null, 0));
+
+        return wide
+                ? new StaticImage16(width, height, shorts, format, chunkMap)
+                : new StaticImage8(width, height, bytes, format, chunkMap);
+    }
+
+    /**
+     * Unfilters every pass and assembles them straight within a memory segment, so the deinterlaced pixels never
+     * have to fit an array. Must only be called once all data was inflated.
+     * @param chunkMap chunks of the image
+     * @param segment segment receiving four samples per pixel, 16 bit samples in native byte order
+     * @param stride amount of bytes between the start of two consecutive rows within the segment
+     */
+    void reconstructInto(final ChunkMap chunkMap, final MemorySegment segment, final long stride) {
+        var passOffsets = passOffsets();
+        var channels = PNGUnpacker.formatOf(header).channels();
+
+        // Segments of confined arenas can only be written by the calling thread, so the passes run one after another
+        for (var pass = 0; pass < PASSES; pass++)
+            reconstructPass(pass, passOffsets[pass], passHeader -> PNGUnpacker.rowUnpacker(passHeader, chunkMap),
+                    channels, null, null, segment, stride);
+    }
+
+    // Each pass starts right behind the previous one
+    private int[] passOffsets() {
+        var passOffsets = new int[PASSES];
+
+        for (int pass = 0, offset = 0; pass < PASSES; pass++) {
+            passOffsets[pass] = offset;
+
+            var passWidth = passWidth(header.width(), pass);
+            var passHeight = passHeight(header.height(), pass);
+
+            if (passWidth != 0 && passHeight != 0)
+                offset += passHeight * (header.withDimensions(passWidth, passHeight).getScanlineByteLength() + 1);
+        }
+
+        return passOffsets;
+    }
+
+    // Pixels go to either the arrays or the segment, whichever isn't null
+    private void reconstructPass(int pass, int offset, Function<IHDR, RowUnpacker> unpackers, int channels,
+                                 byte[] bytes, short[] shorts, MemorySegment segment, long stride) {
+        var passWidth = passWidth(header.width(), pass);
+        var passHeight = passHeight(header.height(), pass);
+
+        if (passWidth == 0 || passHeight == 0)
+            return;
+
+        var passHeader = header.withDimensions(passWidth, passHeight);
+        var unpacker = unpackers.apply(passHeader);
+
+        var rowLength = passHeader.getScanlineByteLength();
+        var scanlineSize = rowLength + 1;
+        var bpp = header.getFilteringBpp();
+        var simd = passHeader.preferSIMD();
+
+        // Stand-in for the row above the first scanline of the pass
+        var zeroRow = new byte[scanlineSize];
+
+        var rowBytes = unpacker instanceof RowUnpacker.Bit8 ? new byte[passWidth * channels] : null;
+        var rowShorts = unpacker instanceof RowUnpacker.Bit16 ? new short[passWidth * channels] : null;
+
+        for (var row = 0; row < passHeight; row++) {
+            var scanlineOffset = offset + row * scanlineSize;
+
+            if (row == 0)
+                PNGFilter.unfilterScanline(inflated, scanlineOffset, zeroRow, 0, rowLength, bpp, simd);
+            else
+                PNGFilter.unfilterScanline(inflated, scanlineOffset, inflated, scanlineOffset - scanlineSize, rowLength, bpp, simd);
+
+            var y = START_Y[pass] + row * STEP_Y[pass];
+
+            switch (unpacker) {
+                case RowUnpacker.Bit8 bit8 -> bit8.unpack(inflated, scanlineOffset + 1, rowBytes, 0);
+                case RowUnpacker.Bit16 bit16 -> bit16.unpack(inflated, scanlineOffset + 1, rowShorts, 0);
+            }
+
+            if (segment != null) {
+                var pixelSize = (long) channels * (rowShorts != null ? Short.BYTES : Byte.BYTES);
+                var out = y * stride + START_X[pass] * pixelSize;
+                var outStep = STEP_X[pass] * pixelSize;
+
+                for (var x = 0; x < passWidth; x++, out += outStep) {
+                    if (rowShorts != null)
+                        MemorySegment.copy(rowShorts, x * channels, segment, ValueLayout.JAVA_SHORT_UNALIGNED, out, channels);
+                    else
+                        MemorySegment.copy(rowBytes, x * channels, segment, ValueLayout.JAVA_BYTE, out, channels);
+                }
+                continue;
+            }
+
+            var outStart = (y * header.width() + START_X[pass]) * channels;
+            var outStep = STEP_X[pass] * channels;
+
+            for (int x = 0, out = outStart; x < passWidth; x++, out += outStep) {
+                if (rowShorts != null)
+                    System.arraycopy(rowShorts, x * channels, shorts, out, channels);
+                else
+                    System.arraycopy(rowBytes, x * channels, bytes, out, channels);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package net.ansinn.pixelatte.formats.png;
 
-import net.ansinn.ByteBarista.SimpleRecordDecoder;
+import net.ansinn.ByteBarista.ClassUtils;
+import net.ansinn.ByteBarista.DynamicRecordDecoder;
 import net.ansinn.pixelatte.formats.png.layout.Chunk;
 import net.ansinn.pixelatte.formats.png.layout.RawChunk;
 import net.ansinn.pixelatte.formats.png.layout.chunks.*;
@@ -8,9 +9,8 @@ import net.ansinn.pixelatte.formats.png.layout.chunks.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 
 // Stops IntelliJ from telling me chunk names are mispronounced.
 @SuppressWarnings("SpellCheckingInspection")
@@ -26,7 +26,8 @@ public class ChunkRegistry {
     public static final int fcTL_TAG = toTag("fcTL");
     public static final int fdAT_TAG = toTag("fdAT");
 
-    private static final Map<Integer, Registry> Decoders = new HashMap<>();
+    // Replaced on every registration, so lookups never have to synchronize with it
+    private static volatile DispatchTable Decoders = DispatchTable.EMPTY;
 
     static {
         register("gAMA", gAMA::provider);
@@ -52,13 +53,16 @@ public class ChunkRegistry {
     }
 
     public static <T extends Record & Chunk> void register(String chunkName, Class<T> chunkClazz) {
-        var key = toTag(chunkName);
-        Decoders.put(key, new Registry.Automatic(chunkClazz));
+        register(toTag(chunkName), new Registry.Automatic(chunkClazz, DynamicRecordDecoder.getDecoder(chunkClazz),
+                ClassUtils.getRecordSize(chunkClazz)));
     }
 
     public static <T extends Record & Chunk> void register(String chunkName, BiFunction<ByteBuffer, IHDR, Chunk> parsingFunction) {
-        var key = toTag(chunkName);
-        Decoders.put(key, new Registry.Deferred(parsingFunction));
+        register(toTag(chunkName), new Registry.Deferred(parsingFunction));
+    }
+
+    private static synchronized void register(int key, Registry registry) {
+        Decoders = Decoders.with(key, registry);
     }
 
     public static boolean isRegistered(String name) {
@@ -66,23 +70,49 @@ public class ChunkRegistry {
     }
 
     public static boolean isRegistered(int tag) {
-        return Decoders.containsKey(tag);
+        return !(getDecoder(tag) instanceof Registry.None);
     }
 
-    @SuppressWarnings("unchecked")
-    public static Chunk decodeChunk(int key, byte[] data, long crc, IHDR header) throws IllegalAccessException, NoSuchMethodException {
-        var decoder = getDecoder(key);
-
-        return switch (decoder) {
-            case Registry.Automatic(var clazz) ->
-                    (Chunk) SimpleRecordDecoder.decodeRecord(ByteBuffer.wrap(data), (Class<? extends Record>)clazz);
-            case Registry.Deferred(var decodeFunc) ->
-                    decodeFunc.apply(ByteBuffer.wrap(data), header);
-            case Registry.None ignored -> {
-                System.err.println("Unregistered chunk type with id: " + key);
-                yield new RawChunk(key, data, 0);
+    public static Chunk decodeChunk(int key, byte[] data, long crc, IHDR header) {
+        var chunk = decodeChunk(key, ByteBuffer.wrap(data), data.length, header);
+
+        if (chunk == null) {
+            System.err.println("Unregistered chunk type with id: " + key);
+            return new RawChunk(key, data, 0);
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Decodes the data of a chunk straight from the buffer it's read from, looking its decoder up only once. Records
+     * are read in place, only deferred parsers are handed a copy of the data, as they may hold on to it.
+     * @param key tag of the chunk
+     * @param input buffer positioned at the data of the chunk, it's left positioned right behind the data
+     * @param length length of the chunk data in bytes
+     * @param header header of the image
+     * @return the decoded chunk, or null if no decoder is registered for the tag
+     */
+    public static Chunk decodeChunk(int key, ByteBuffer input, int length, IHDR header) {
+        var start = input.position();
+
+        var chunk = switch (getDecoder(key)) {
+            case Registry.Automatic(var clazz, var decodeFunc, var size) -> {
+                if (size > length)
+                    throw new IllegalStateException("Chunk too short for record: " + clazz.getTypeName() + ", expected " + size + " bytes, found: " + length);
+
+                yield decodeFunc.apply(input);
+            }
+            case Registry.Deferred(var decodeFunc) -> {
+                var data = new byte[length];
+                input.get(data);
+                yield decodeFunc.apply(ByteBuffer.wrap(data), header);
             }
+            case Registry.None _ -> null;
         };
+
+        input.position(start + length);
+        return chunk;
     }
 
     public static Registry getDecoder(String chunkName) {
@@ -90,17 +120,90 @@ public class ChunkRegistry {
     }
 
     public static Registry getDecoder(int key) {
-        return Decoders.getOrDefault(key, new Registry.None());
+        return Decoders.get(key);
     }
 
-    public static Integer toTag(String name) {
+    public static int toTag(String name) {
         return ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)).order(ByteOrder.BIG_ENDIAN).getInt();
     }
 
     public sealed interface Registry {
         record Deferred(BiFunction<ByteBuffer, IHDR, Chunk> parser) implements Registry {}
-        record Automatic(Class<? extends Chunk> clazz) implements Registry {}
-        record None() implements Registry {}
+        record Automatic(Class<? extends Chunk> clazz, Function<ByteBuffer, ? extends Chunk> decoder, int size) implements Registry {}
+        record None() implements Registry {
+            public static final None INSTANCE = new None();
+        }
+    }
+
+    /**
+     * Open addressing table from chunk tags to their decoders, probing linearly. Tags are looked up as they are read,
+     * without boxing them, and the table is never modified once it's built.
+     */
+    private static final class DispatchTable {
+
+        static final DispatchTable EMPTY = new DispatchTable(16);
+
+        private final int[] keys;
+        private final Registry[] values;
+        private final int mask;
+        private int size;
+
+        private DispatchTable(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Registry[capacity];
+            this.mask = capacity - 1;
+        }
+
+        Registry get(int key) {
+            for (var slot = slot(key); ; slot = (slot + 1) & mask) {
+                var value = values[slot];
+
+                if (value == null)
+                    return Registry.None.INSTANCE;
+
+                if (keys[slot] == key)
+                    return value;
+            }
+        }
+
+        /**
+         * @return a copy of this table holding the given entry on top, replacing any earlier entry of the key
+         */
+        DispatchTable with(int key, Registry registry) {
+            // At most half full, so a miss terminates within a couple of slots
+            var capacity = keys.length;
+
+            while ((size + 1) * 2 > capacity)
+                capacity <<= 1;
+
+            var table = new DispatchTable(capacity);
+
+            for (var i = 0; i < keys.length; i++)
+                if (values[i] != null)
+                    table.put(keys[i], values[i]);
+
+            table.put(key, registry);
+            return table;
+        }
+
+        private void put(int key, Registry registry) {
+            var slot = slot(key);
+
+            while (values[slot] != null && keys[slot] != key)
+                slot = (slot + 1) & mask;
+
+            if (values[slot] == null)
+                size++;
+
+            keys[slot] = key;
+            values[slot] = registry;
+        }
+
+        // Tags are four ASCII letters, so their low bits barely differ. Fibonacci hashing spreads them out
+        private int slot(int key) {
+            var hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
     }
 
 }
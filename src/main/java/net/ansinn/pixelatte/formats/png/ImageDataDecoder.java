@@ -0,0 +1,22 @@
+package net.ansinn.pixelatte.formats.png;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes the compressed image data of a PNG, whether it's spread over IDAT or fdAT chunks.
+ */
+sealed interface ImageDataDecoder permits ScanlineDecoder, Adam7Decoder, PipelinedDecoder {
+
+    /**
+     * Feeds compressed bytes from the input buffer into the decoder. The bytes are handed to the inflater as a slice
+     * of the buffer, without being staged in an intermediate array.
+     * @param inputBuffer buffer positioned at the compressed data, advanced past it afterwards
+     * @param length amount of compressed bytes to consume
+     */
+    void inflate(ByteBuffer inputBuffer, int length);
+
+    /**
+     * @return true once all image data has been decoded
+     */
+    boolean isComplete();
+}
@@ -0,0 +1,61 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+/**
+ * Unpacks reconstructed scanlines directly into the pixel array of the final heap image.
+ */
+final class ImageRowSink implements ScanlineDecoder.RowSink {
+
+    private final RowUnpacker unpacker;
+    private final PixelResource.Format format;
+    private final int rowStride;
+
+    private final byte[] bytes;
+    private final short[] shorts;
+
+    ImageRowSink(IHDR header, RowUnpacker unpacker) {
+        this(header, unpacker, PNGUnpacker.formatOf(header));
+    }
+
+    /**
+     * @param header header of the image
+     * @param unpacker unpacker writing pixels of the given format
+     * @param format layout of the unpacked pixels
+     */
+    ImageRowSink(IHDR header, RowUnpacker unpacker, PixelResource.Format format) {
+        this.unpacker = unpacker;
+        this.format = format;
+        this.rowStride = header.width() * format.channels();
+
+        var size = format.arrayLength(header.width(), header.height());
+        this.bytes = unpacker instanceof RowUnpacker.Bit8 ? new byte[size] : null;
+        this.shorts = unpacker instanceof RowUnpacker.Bit16 ? new short[size] : null;
+    }
+
+    @Override
+    public void accept(int y, byte[] scanline) {
+        switch (unpacker) {
+            case RowUnpacker.Bit8 bit8 -> bit8.unpack(scanline, 1, bytes, y * rowStride);
+            case RowUnpacker.Bit16 bit16 -> bit16.unpack(scanline, 1, shorts, y * rowStride);
+        }
+    }
+
+    /**
+     * Wraps the unpacked pixels into an image. Must only be called once every row has been received.
+     * @param header header the sink was created for
+     * @param chunkMap chunks of the image
+     * @return the decoded image
+     */
+    StaticImage toImage(IHDR header, ChunkMap chunkMap) {
+        return switch (unpacker) {
+            case RowUnpacker.Bit8 _ -> new StaticImage8(header.width(), header.height(), bytes, format, chunkMap);
+            case RowUnpacker.Bit16 _ -> new StaticImage16(header.width(), header.height(), shorts, format, chunkMap);
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.formats.png.unpackers.IndexedUnpacker;
+import net.ansinn.pixelatte.output.safe.IndexedImage8;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+/**
+ * Keeps the palette indices of an indexed image as they are. Reconstructed scanlines already hold the indices packed
+ * exactly like {@link IndexedImage8} stores them, so every row is a single copy.
+ */
+final class IndexedRowSink implements ScanlineDecoder.RowSink {
+
+    private final int rowStride;
+    private final byte[] indices;
+
+    IndexedRowSink(IHDR header) {
+        this.rowStride = header.getScanlineByteLength();
+        this.indices = new byte[indexBytes(header)];
+    }
+
+    @Override
+    public void accept(int y, byte[] scanline) {
+        System.arraycopy(scanline, 1, indices, y * rowStride, rowStride);
+    }
+
+    /**
+     * Wraps the indices into an image. Must only be called once every row has been received.
+     * @param header header of the image
+     * @param chunkMap chunks of the image, holding its palette
+     * @return the indexed image
+     */
+    IndexedImage8 toImage(IHDR header, ChunkMap chunkMap) {
+        return new IndexedImage8(header.width(), header.height(), header.bitDepth(), indices,
+                IndexedUnpacker.buildPaletteLut(chunkMap), chunkMap);
+    }
+
+    /**
+     * Packs the indices of a deinterlaced image back into rows, used where the image data can't be copied as is.
+     * @param spread image unpacked through {@link IndexedUnpacker#identityPalette()}, holding an index per pixel
+     * @param header header of the image
+     * @param chunkMap chunks of the image, holding its palette
+     * @return the indexed image
+     */
+    static IndexedImage8 pack(StaticImage8 spread, IHDR header, ChunkMap chunkMap) {
+        var width = header.width();
+        var bitDepth = header.bitDepth();
+        var rowStride = header.getScanlineByteLength();
+        var indices = new byte[indexBytes(header)];
+        var pixels = spread.data();
+
+        for (var y = 0; y < header.height(); y++) {
+            for (var x = 0; x < width; x++) {
+                var bit = x * bitDepth;
+                var index = pixels[(y * width + x) * 4] & 0xFF;
+
+                indices[y * rowStride + (bit >> 3)] |= (byte) (index << (8 - bitDepth - (bit & 7)));
+            }
+        }
+
+        return new IndexedImage8(width, header.height(), bitDepth, indices, IndexedUnpacker.buildPaletteLut(chunkMap), chunkMap);
+    }
+
+    private static int indexBytes(IHDR header) {
+        var size = header.getImageDataByteLength() - header.height();
+
+        if (size > PixelResource.Format.MAX_ARRAY_LENGTH)
+            throw new IllegalArgumentException("Indices of a " + header.width() + "x" + header.height() + " image don't fit an array");
+
+        return (int) size;
+    }
+}
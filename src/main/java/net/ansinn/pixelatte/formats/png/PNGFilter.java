@@ -1,6 +1,9 @@
 package net.ansinn.pixelatte.formats.png;
 
 import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
 
@@ -10,6 +13,41 @@ public class PNGFilter {
 
     private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
 
+    // One pixel per vector for the left-dependent filters, each channel of the pixel gets its own lane
+    private static final VectorSpecies<Byte> PIXEL_SPECIES = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Short> WIDE_PIXEL_SPECIES = ShortVector.SPECIES_128;
+
+    // Masks covering the channels of a pixel, indexed by bytes per pixel
+    private static final VectorMask<Byte>[] PIXEL_MASKS = createPixelMasks();
+
+    @SuppressWarnings("unchecked")
+    private static VectorMask<Byte>[] createPixelMasks() {
+        var masks = (VectorMask<Byte>[]) new VectorMask[PIXEL_SPECIES.length() + 1];
+
+        for (var bpp = 0; bpp < masks.length; bpp++)
+            masks[bpp] = PIXEL_SPECIES.indexInRange(0, bpp);
+
+        return masks;
+    }
+
+    /**
+     * Whether the left-dependent filters have a vectorized variant for the given pixel size. Those cover 8 and 16 bit
+     * truecolor images with and without alpha.
+     * @param bpp bytes per pixel
+     * @return true for 3, 4, 6 and 8 bytes per pixel
+     */
+    public static boolean hasVectorPath(int bpp) {
+        return bpp == 3 || bpp == 4 || bpp == 6 || bpp == 8;
+    }
+
+    /**
+     * Sub and average only do an add or two per byte. Below 6 bytes per pixel their vector variants lose to the
+     * scalar loops, as every in-place store overlaps the load of the next pixel, while paeth wins at every size.
+     */
+    private static boolean preferVectorSubAverage(int bpp) {
+        return bpp >= 6;
+    }
+
 
     public static byte[] process(byte[] data, IHDR header) {
         var rowBits = header.width() * header.getBitsPerPixel();
@@ -20,6 +58,11 @@ public class PNGFilter {
         var result = new byte[height * rowLength];
 
         var scanlineSize = rowLength + 1; // +1 for filter byte
+        var bpp = header.getFilteringBpp();
+        var simd = header.preferSIMD() && hasVectorPath(bpp);
+
+        // Vectorized filters read the previous row explicitly, which is all zero above the first row
+        var zeroRow = simd ? new byte[rowLength] : null;
 
         for (int y = 0; y < height; y++) {
             int rawOffset = y * scanlineSize; // Data compression start
@@ -27,7 +70,32 @@ public class PNGFilter {
             int filterType = data[rawOffset] & 0xFF;
 
             int rawDataStart = rawOffset + 1;      // Skip the filter byte
-            var bpp = header.getFilteringBpp();
+
+            if (simd) {
+                var previous = y == 0 ? zeroRow : result;
+                var previousOffset = y == 0 ? 0 : resultOffset - rowLength;
+
+                switch (filterType) {
+                    case 0 -> System.arraycopy(data, rawDataStart, result, resultOffset, rowLength);
+                    case 1 -> {
+                        if (preferVectorSubAverage(bpp))
+                            filterSubVector(data, rawDataStart, result, resultOffset, rowLength, bpp);
+                        else
+                            filterSub(data, rawDataStart, result, resultOffset, rowLength, bpp);
+                    }
+                    case 2 -> filterUp(data, rawDataStart, previous, previousOffset, result, resultOffset, rowLength);
+                    case 3 -> {
+                        if (preferVectorSubAverage(bpp))
+                            filterAverageVector(data, rawDataStart, previous, previousOffset, result, resultOffset, rowLength, bpp);
+                        else
+                            filterAverage(data, rawDataStart, previous, previousOffset, result, resultOffset, rowLength, bpp);
+                    }
+                    case 4 -> filterPaethVector(data, rawDataStart, previous, previousOffset, result, resultOffset, rowLength, bpp);
+                    default -> throw new IllegalStateException("Invalid filter type: " + filterType);
+                }
+
+                continue;
+            }
 
             switch (filterType) {
                 case 0 -> System.arraycopy(data, rawDataStart, result, resultOffset, rowLength);
@@ -42,6 +110,66 @@ public class PNGFilter {
         return result;
     }
 
+    /**
+     * Reconstructs a single scanline in place. The scanline starts with its filter type byte, followed by the
+     * filtered row bytes, and is overwritten with the reconstructed row.
+     * @param scanline filter byte followed by the filtered row
+     * @param previous previous reconstructed scanline in the same layout, all zero for the first row
+     * @param length length of the row without the filter byte
+     * @param bpp bytes per pixel
+     */
+    public static void unfilterScanline(byte[] scanline, byte[] previous, int length, int bpp) {
+        unfilterScanline(scanline, 0, previous, 0, length, bpp, false);
+    }
+
+    /**
+     * Reconstructs a single scanline in place, located anywhere within a larger buffer.
+     * @param data buffer holding the filter byte followed by the filtered row
+     * @param offset offset of the filter byte
+     * @param previous buffer holding the previous reconstructed scanline, all zero for the first row
+     * @param previousOffset offset of the filter byte of the previous scanline
+     * @param length length of the row without the filter byte
+     * @param bpp bytes per pixel
+     * @param simd whether to use the vectorized filters, usually decided by {@link IHDR#preferSIMD()}. Ignored for
+     *             pixel sizes without a vectorized variant.
+     */
+    public static void unfilterScanline(byte[] data, int offset, byte[] previous, int previousOffset, int length, int bpp, boolean simd) {
+        int filterType = data[offset] & 0xFF;
+        int rowStart = offset + 1;
+        int previousStart = previousOffset + 1;
+
+        if (simd && hasVectorPath(bpp)) {
+            switch (filterType) {
+                case 0 -> {}
+                case 1 -> {
+                    if (preferVectorSubAverage(bpp))
+                        filterSubVector(data, rowStart, data, rowStart, length, bpp);
+                    else
+                        filterSub(data, rowStart, data, rowStart, length, bpp);
+                }
+                case 2 -> filterUp(data, rowStart, previous, previousStart, data, rowStart, length);
+                case 3 -> {
+                    if (preferVectorSubAverage(bpp))
+                        filterAverageVector(data, rowStart, previous, previousStart, data, rowStart, length, bpp);
+                    else
+                        filterAverage(data, rowStart, previous, previousStart, data, rowStart, length, bpp);
+                }
+                case 4 -> filterPaethVector(data, rowStart, previous, previousStart, data, rowStart, length, bpp);
+                default -> throw new IllegalStateException("Invalid filter type: " + filterType);
+            }
+            return;
+        }
+
+        switch (filterType) {
+            case 0 -> {}
+            case 1 -> filterSub(data, rowStart, data, rowStart, length, bpp);
+            case 2 -> filterUp(data, rowStart, previous, previousStart, data, rowStart, length);
+            case 3 -> filterAverage(data, rowStart, previous, previousStart, data, rowStart, length, bpp);
+            case 4 -> filterPaethScalar(data, rowStart, previous, previousStart, data, rowStart, length, bpp);
+            default -> throw new IllegalStateException("Invalid filter type: " + filterType);
+        }
+    }
+
     /**
      * Applies a sub filter operation to an incoming stream of png bytes and modifies the given result array.
      * @param raw array of unfiltered bytes
@@ -70,9 +198,21 @@ public class PNGFilter {
             return;
         }
 
-        // Define our previous location
-        int previousOffset = resultOffset - length;
+        filterUp(raw, rawOffset, result, resultOffset - length, result, resultOffset, length);
+    }
 
+    /**
+     * Applies an up filter where the previous scanline lives in its own array rather than directly above the
+     * result row. Raw and result may be the same array to reconstruct a scanline in place.
+     * @param raw array of filtered bytes
+     * @param rawOffset offset of the first filtered byte
+     * @param previous array holding the previous reconstructed scanline, all zero for the first row
+     * @param previousOffset offset of the first byte of the previous scanline
+     * @param result where filter bytes will be written to
+     * @param resultOffset offset of where to begin writing to the result array
+     * @param length length of row
+     */
+    public static void filterUp(byte[] raw, int rawOffset, byte[] previous, int previousOffset, byte[] result, int resultOffset, int length) {
         final var stride = BYTE_SPECIES.length();
         final var loopBound = length - stride;
         var byteIndex = 0;
@@ -82,7 +222,7 @@ public class PNGFilter {
             var currentVec = ByteVector.fromArray(BYTE_SPECIES, raw, rawOffset + byteIndex);
 
             // Load in previous row
-            var previousVec = ByteVector.fromArray(BYTE_SPECIES, result, previousOffset + byteIndex);
+            var previousVec = ByteVector.fromArray(BYTE_SPECIES, previous, previousOffset + byteIndex);
 
             // Add up vectors and store result
             var resultVec = currentVec.add(previousVec);
@@ -91,7 +231,7 @@ public class PNGFilter {
 
         // Clean up trailing bytes scalarly
         for (; byteIndex < length; byteIndex++) {
-            int above = result[previousOffset + byteIndex] & 0xFF;
+            int above = previous[previousOffset + byteIndex] & 0xFF;
             int current = raw[rawOffset + byteIndex] & 0xFF;
 
             result[resultOffset + byteIndex] = (byte) (current + above);
@@ -99,13 +239,24 @@ public class PNGFilter {
     }
 
     public static void filterAverage(byte[] raw, int rawOffset, byte[] result, int resultOffset, int length, int bpp) {
+        if (resultOffset != 0) {
+            filterAverage(raw, rawOffset, result, resultOffset - length, result, resultOffset, length, bpp);
+            return;
+        }
+
+        // Above is just zero bytes if on first row, so only the left neighbour contributes
+        for (int byteIndex = 0; byteIndex < length; byteIndex++) {
+            var left = byteIndex < bpp ? 0 : (result[resultOffset + byteIndex - bpp] & 0xFF);
+            var current = raw[rawOffset + byteIndex] & 0xFF;
 
-        final int previousOffset = resultOffset - length;
-        final boolean firstRow = (resultOffset == 0); // Above is just zero bytes if on first row
+            result[resultOffset + byteIndex] = (byte) (current + (left >>> 1));
+        }
+    }
 
+    public static void filterAverage(byte[] raw, int rawOffset, byte[] previous, int previousOffset, byte[] result, int resultOffset, int length, int bpp) {
         // First BPP
         for (int byteIndex = 0; byteIndex < bpp; byteIndex++) {
-            var above = firstRow ? 0 : (result[previousOffset + byteIndex] & 0xFF);
+            var above = previous[previousOffset + byteIndex] & 0xFF;
             var current = raw[rawOffset + byteIndex] & 0xFF;
 
             result[resultOffset + byteIndex] = (byte) (current + (above >>> 1));
@@ -114,7 +265,7 @@ public class PNGFilter {
         // Rest of row
         for (var byteIndex = bpp; byteIndex < length; byteIndex++) {
             var left = result[resultOffset + byteIndex - bpp] & 0xFF;
-            var above = firstRow ? 0 : (result[previousOffset + byteIndex] & 0xFF);
+            var above = previous[previousOffset + byteIndex] & 0xFF;
             var current = raw[rawOffset + byteIndex] & 0xFF;
 
             var average = (left + above) >>> 1;
@@ -123,12 +274,17 @@ public class PNGFilter {
     }
 
     public static void filterPaethScalar(byte[] raw, int rawOffset, byte[] result, int resultOffset, int length, int bpp) {
-        final var previousOffset = resultOffset - length;
-        final boolean firstRow = (resultOffset == 0); // Above is just zero bytes if on first row
+        // Above is just zero bytes if on first row, where the predictor always picks the left neighbour
+        if (resultOffset == 0)
+            filterSub(raw, rawOffset, result, resultOffset, length, bpp);
+        else
+            filterPaethScalar(raw, rawOffset, result, resultOffset - length, result, resultOffset, length, bpp);
+    }
 
+    public static void filterPaethScalar(byte[] raw, int rawOffset, byte[] previous, int previousOffset, byte[] result, int resultOffset, int length, int bpp) {
         // First bpp
         for (int byteIndex = 0; byteIndex < bpp; byteIndex++) {
-            int above = firstRow ? 0 : (result[previousOffset + byteIndex] & 0xFF);
+            int above = previous[previousOffset + byteIndex] & 0xFF;
             int current = raw[rawOffset + byteIndex] & 0xFF;
 
             result[resultOffset + byteIndex] = (byte) (current + above);
@@ -137,8 +293,8 @@ public class PNGFilter {
         // Rest of row
         for (int byteIndex = bpp; byteIndex < length; byteIndex++) {
             int left = result[resultOffset + byteIndex - bpp] & 0xFF;
-            int above = firstRow ? 0 : (result[previousOffset + byteIndex] & 0xFF);
-            int upperLeft = firstRow ? 0 : (result[previousOffset + byteIndex - bpp] & 0xFF);
+            int above = previous[previousOffset + byteIndex] & 0xFF;
+            int upperLeft = previous[previousOffset + byteIndex - bpp] & 0xFF;
 
             int current = raw[rawOffset + byteIndex] & 0xFF;
 
@@ -146,6 +302,140 @@ public class PNGFilter {
         }
     }
 
+    /**
+     * Vectorized sub filter. Pixels depend on their left neighbour so they're still reconstructed one after another,
+     * but all channels of a pixel are added at once. Raw and result may be the same array.
+     * @param raw array of filtered bytes
+     * @param rawOffset offset of the first filtered byte
+     * @param result where filter bytes will be written to
+     * @param resultOffset offset of where to begin writing to the result array
+     * @param length length of row, a multiple of bpp
+     * @param bpp bytes per pixel, see {@link #hasVectorPath(int)}
+     */
+    public static void filterSubVector(byte[] raw, int rawOffset, byte[] result, int resultOffset, int length, int bpp) {
+        var mask = PIXEL_MASKS[bpp];
+        var left = ByteVector.zero(PIXEL_SPECIES);
+        var fullBound = length - PIXEL_SPECIES.length();
+        var byteIndex = 0;
+
+        // Whole vectors fit within the row, lanes past the pixel keep their raw bytes when stored back
+        for (; byteIndex <= fullBound; byteIndex += bpp) {
+            var current = ByteVector.fromArray(PIXEL_SPECIES, raw, rawOffset + byteIndex);
+
+            left = current.add(left);
+            current.blend(left, mask).intoArray(result, resultOffset + byteIndex);
+        }
+
+        for (; byteIndex < length; byteIndex += bpp) {
+            var current = ByteVector.fromArray(PIXEL_SPECIES, raw, rawOffset + byteIndex, mask);
+
+            left = current.add(left);
+            left.intoArray(result, resultOffset + byteIndex, mask);
+        }
+    }
+
+    /**
+     * Vectorized average filter working on one pixel per vector, with every channel widened to 16 bits so the sum
+     * of left and above can't overflow. Raw and result may be the same array.
+     * @param raw array of filtered bytes
+     * @param rawOffset offset of the first filtered byte
+     * @param previous array holding the previous reconstructed scanline, all zero for the first row
+     * @param previousOffset offset of the first byte of the previous scanline
+     * @param result where filter bytes will be written to
+     * @param resultOffset offset of where to begin writing to the result array
+     * @param length length of row, a multiple of bpp
+     * @param bpp bytes per pixel, see {@link #hasVectorPath(int)}
+     */
+    public static void filterAverageVector(byte[] raw, int rawOffset, byte[] previous, int previousOffset, byte[] result, int resultOffset, int length, int bpp) {
+        var mask = PIXEL_MASKS[bpp];
+        var left = ShortVector.zero(WIDE_PIXEL_SPECIES);
+        var fullBound = length - PIXEL_SPECIES.length();
+        var byteIndex = 0;
+
+        for (; byteIndex < length; byteIndex += bpp) {
+            var full = byteIndex <= fullBound;
+
+            var currentBytes = loadPixel(raw, rawOffset + byteIndex, mask, full);
+            var current = widen(currentBytes);
+            var above = widen(loadPixel(previous, previousOffset + byteIndex, mask, full));
+
+            var average = left.add(above).lanewise(VectorOperators.LSHR, 1);
+            left = current.add(average).and((short) 0xFF);
+
+            storePixel(currentBytes, left, result, resultOffset + byteIndex, mask, full);
+        }
+    }
+
+    /**
+     * Vectorized paeth filter working on one pixel per vector, the approach of libpng's SSE filters. Channels are
+     * widened to 16 bits and the predictor is evaluated branch free for all of them at once through lane blends.
+     * Raw and result may be the same array.
+     * @param raw array of filtered bytes
+     * @param rawOffset offset of the first filtered byte
+     * @param previous array holding the previous reconstructed scanline, all zero for the first row
+     * @param previousOffset offset of the first byte of the previous scanline
+     * @param result where filter bytes will be written to
+     * @param resultOffset offset of where to begin writing to the result array
+     * @param length length of row, a multiple of bpp
+     * @param bpp bytes per pixel, see {@link #hasVectorPath(int)}
+     */
+    public static void filterPaethVector(byte[] raw, int rawOffset, byte[] previous, int previousOffset, byte[] result, int resultOffset, int length, int bpp) {
+        var mask = PIXEL_MASKS[bpp];
+        var left = ShortVector.zero(WIDE_PIXEL_SPECIES);
+        var upperLeft = ShortVector.zero(WIDE_PIXEL_SPECIES);
+        var fullBound = length - PIXEL_SPECIES.length();
+
+        for (var byteIndex = 0; byteIndex < length; byteIndex += bpp) {
+            var full = byteIndex <= fullBound;
+
+            var currentBytes = loadPixel(raw, rawOffset + byteIndex, mask, full);
+            var current = widen(currentBytes);
+            var above = widen(loadPixel(previous, previousOffset + byteIndex, mask, full));
+
+            // Distances of p = left + above - upperLeft to each of the three neighbours
+            var pa = above.sub(upperLeft).abs();
+            var pb = left.sub(upperLeft).abs();
+            var pc = left.add(above).sub(upperLeft).sub(upperLeft).abs();
+
+            var predictor = upperLeft
+                    .blend(above, pb.compare(VectorOperators.LE, pc))
+                    .blend(left, pa.compare(VectorOperators.LE, pb).and(pa.compare(VectorOperators.LE, pc)));
+
+            left = current.add(predictor).and((short) 0xFF);
+            upperLeft = above;
+
+            storePixel(currentBytes, left, result, resultOffset + byteIndex, mask, full);
+        }
+    }
+
+    /**
+     * Loads a pixel into the low lanes of a vector. Unless the vector reaches past the end of the row the load is
+     * unmasked, which is a lot cheaper, and the lanes past the pixel simply hold whatever follows it.
+     */
+    private static ByteVector loadPixel(byte[] array, int offset, VectorMask<Byte> mask, boolean full) {
+        return full
+                ? ByteVector.fromArray(PIXEL_SPECIES, array, offset)
+                : ByteVector.fromArray(PIXEL_SPECIES, array, offset, mask);
+    }
+
+    /**
+     * Stores a reconstructed pixel. Full width stores write the raw bytes loaded alongside the pixel back unchanged,
+     * so reconstructing in place never clobbers filtered bytes of the following pixels.
+     */
+    private static void storePixel(ByteVector raw, ShortVector pixel, byte[] array, int offset, VectorMask<Byte> mask, boolean full) {
+        var narrow = (ByteVector) pixel.castShape(PIXEL_SPECIES, 0);
+
+        if (full)
+            raw.blend(narrow, mask).intoArray(array, offset);
+        else
+            narrow.intoArray(array, offset, mask);
+    }
+
+    private static ShortVector widen(ByteVector pixel) {
+        // Widening sign extends, so the upper byte of every lane is cleared again
+        return ((ShortVector) pixel.castShape(WIDE_PIXEL_SPECIES, 0)).and((short) 0xFF);
+    }
+
     public static int paethPredictor(int a, int b, int c) {
         int p = a + b - c;
         int pa = Math.abs(p - a);
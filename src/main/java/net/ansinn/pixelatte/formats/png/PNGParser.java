@@ -1,17 +1,28 @@
 package net.ansinn.pixelatte.formats.png;
 
-import net.ansinn.ByteBarista.SimpleRecordDecoder;
+import net.ansinn.ByteBarista.DynamicRecordDecoder;
 import net.ansinn.pixelatte.formats.png.layout.chunks.acTL;
+import net.ansinn.pixelatte.output.Downscale;
+import net.ansinn.pixelatte.output.ImageInfo;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.IndexedImage8;
 import net.ansinn.pixelatte.output.safe.PixelResource;
 import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage16;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage8;
+import net.ansinn.pixelatte.formats.png.layout.Chunk;
 import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
 import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.formats.png.unpackers.IndexedUnpacker;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
 import java.util.Objects;
+import java.util.function.Function;
 import java.util.logging.Logger;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
 import static net.ansinn.pixelatte.formats.png.ChunkRegistry.*;
 
@@ -19,58 +30,96 @@ public final class PNGParser {
 
     private static final int IHDR_BYTE_SIZE = 13;
 
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+    private static final Function<ByteBuffer, IHDR> IHDR_DECODER = DynamicRecordDecoder.getDecoder(IHDR.class);
+
+    // Cache line alignment for off-heap pixel memory
+    private static final long SEGMENT_ALIGNMENT = 64;
+
     private static final Logger logger = Logger.getLogger(PNGParser.class.getName());
 
-    // We want to pre-allocate "heavy hitters" to be a thread local object
-    private static final ThreadLocal<ParserResources> ThreadLocalResources = ThreadLocal.withInitial(ParserResources::new);
+    // Below this much image data, setting up the pipelined stages costs more than running them in parallel saves
+    private static final long PIPELINE_THRESHOLD = 8L * 1024 * 1024;
+
+    // "Heavy hitters" are pooled rather than thread local, so virtual threads don't each keep an inflater alive
+    private static final ParserResourcePool RESOURCES = new ParserResourcePool(ParserResourcePool.carrierParallelism());
 
     private PNGParser() {}
 
     /**
-     * Parses a PNG from an already proven input bytebuffer
+     * @return pool of the decode resources, for decodes happening after parsing, like animation frames
+     */
+    static ParserResourcePool resourcePool() {
+        return RESOURCES;
+    }
+
+    /**
+     * @return hit and miss counters of the pooled decode resources
+     */
+    public static ParserResourcePool.Stats resourceStats() {
+        return RESOURCES.stats();
+    }
+
+    /**
+     * Parses a PNG from an already proven input bytebuffer. Image data is decoded one scanline at a time, each row
+     * is inflated, unfiltered and unpacked straight into the final pixel array, so no intermediate full-size buffers
+     * are allocated. Interlaced images are the exception, their passes are only unfiltered once all data arrived.
+     * Large images are decoded by a {@link PipelinedDecoder}, which inflates, unfilters and unpacks on separate
+     * threads at once.
      * @param inputBuffer the input buffer data
-     * @return
+     * @return the decoded image
      */
     public static PixelResource parse(ByteBuffer inputBuffer) {
-        var resources = ThreadLocalResources.get();
+        return parse(inputBuffer, PIPELINE_THRESHOLD);
+    }
+
+    /**
+     * Parses a PNG like {@link #parse(ByteBuffer)}, but pipelines the decode of any non-interlaced image regardless
+     * of its size, as long as there's more than one processor.
+     * @param inputBuffer the input buffer data
+     * @return the decoded image
+     */
+    static PixelResource parsePipelined(ByteBuffer inputBuffer) {
+        return parse(inputBuffer, 0);
+    }
 
+    private static PixelResource parse(ByteBuffer inputBuffer, long pipelineThreshold) {
         //Make sure input stream isn't null
         Objects.requireNonNull(inputBuffer, "The input buffer is null");
-        inputBuffer.get(resources.headerSkip); // we simply skip ahead eight bytes regardless of where its being read from.
 
-        if (!inputBuffer.hasRemaining())
-            throw new IllegalStateException("Malformed PNG, no more data within buffer.");
+        var resources = RESOURCES.checkout();
+        ImageDataDecoder decoder = null;
 
         try {
+            inputBuffer.get(resources.headerSkip); // we simply skip ahead eight bytes regardless of where its being read from.
+
+            if (!inputBuffer.hasRemaining())
+                throw new IllegalStateException("Malformed PNG, no more data within buffer.");
 
             var headerChunk = parseHeader(inputBuffer);
             var chunks = new ChunkMap(); // Store generic chunks
 
-            var inflater = resources.inflater;
-            inflater.reset();
-
-            var filteredResult = new byte[calculateDecompressedSize(headerChunk)];
-            var decompressionOffset = 0;
-
-
             while (inputBuffer.hasRemaining()) {
                 var chunkLength = inputBuffer.getInt();
                 var chunkTag = inputBuffer.getInt();
 
                 if (chunkTag == IDAT_TAG) {
-                    decompressionOffset = parseIDAT(inputBuffer, chunkLength, resources, filteredResult, decompressionOffset);
+                    // Every chunk the unpacker depends on precedes the first IDAT chunk
+                    if (decoder == null)
+                        decoder = heapDecoder(headerChunk, chunks, resources, pipelineThreshold);
+
+                    parseIDAT(inputBuffer, chunkLength, decoder);
                     continue;
                 }
 
-                // Load our chunk data into memory
-                var chunkData = new byte[chunkLength];
-                inputBuffer.get(chunkData);
+                var chunk = ChunkRegistry.decodeChunk(chunkTag, inputBuffer, chunkLength, headerChunk);
 
-                @SuppressWarnings("unused")
-                var chunkCRC = inputBuffer.getInt();
+                // Skip CRC value
+                inputBuffer.getInt();
 
-                if (ChunkRegistry.isRegistered(chunkTag))
-                    chunks.addChunk(ChunkRegistry.decodeChunk(chunkTag, chunkData, chunkCRC, headerChunk));
+                if (chunk != null)
+                    chunks.addChunk(chunk);
 
                 // Abort current parsing and hand everything off to the. APNG parser.
                 if (chunkTag == acTL_TAG)
@@ -81,62 +130,520 @@ public final class PNGParser {
 
             }
 
-            var finalPixels = PNGFilter.process(filteredResult, headerChunk);
+            return finishHeapImage(decoder, headerChunk, chunks);
+
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            // Don't leave the stages of a pipelined decode waiting for data that will never arrive
+            if (decoder instanceof PipelinedDecoder pipelined)
+                pipelined.abort(e);
+
+            throw e;
+        } finally {
+            RESOURCES.release(resources);
+        }
+    }
+
+    /**
+     * Parses a PNG from an already proven input bytebuffer straight into memory allocated from the given arena.
+     * Scanlines are inflated, unfiltered and unpacked one at a time, so the only heap memory touched by pixel data
+     * are two scanlines and a single unpacked row. Sizes are tracked as longs throughout, so this is also the way to
+     * decode images holding more than 2 GB of pixels. Animated PNGs are decoded as their default image. Interlaced
+     * images are inflated onto the heap in one go, their image data has to fit an array, and deinterlaced straight
+     * into the arena.
+     * @param inputBuffer the input buffer data
+     * @param arena arena owning the pixel memory of the returned image
+     * @return image backed by a segment of the arena
+     */
+    public static OffHeapImage parseDirect(ByteBuffer inputBuffer, Arena arena) {
+        Objects.requireNonNull(inputBuffer, "The input buffer is null");
+        Objects.requireNonNull(arena, "The arena is null");
+
+        var resources = RESOURCES.checkout();
+
+        try {
+            inputBuffer.get(resources.headerSkip);
+
+            if (!inputBuffer.hasRemaining())
+                throw new IllegalStateException("Malformed PNG, no more data within buffer.");
+
+            var headerChunk = parseHeader(inputBuffer);
+            var chunks = new ChunkMap();
+
+            ImageDataDecoder decoder = null;
+            OffHeapImage image = null;
+
+            while (inputBuffer.hasRemaining()) {
+                var chunkLength = inputBuffer.getInt();
+                var chunkTag = inputBuffer.getInt();
+
+                if (chunkTag == IDAT_TAG) {
+                    // Every chunk the unpacker depends on precedes the first IDAT chunk
+                    if (decoder == null && headerChunk.interlacedMethod() == 1) {
+                        decoder = new Adam7Decoder(headerChunk, resources);
+                    } else if (decoder == null) {
+                        var unpacker = PNGUnpacker.rowUnpacker(headerChunk, chunks);
+                        image = allocateDirect(headerChunk, chunks, arena);
+
+                        var sink = new SegmentRowSink(image.segment(), image.stride(), headerChunk.width(), unpacker, resources);
+                        decoder = new ScanlineDecoder(headerChunk, resources, sink);
+                    }
+
+                    parseIDAT(inputBuffer, chunkLength, decoder);
+                    continue;
+                }
+
+                var chunk = ChunkRegistry.decodeChunk(chunkTag, inputBuffer, chunkLength, headerChunk);
+
+                // Skip CRC value
+                inputBuffer.getInt();
+
+                if (chunk != null)
+                    chunks.addChunk(chunk);
+
+                if (chunkTag == IEND_TAG)
+                    break;
+            }
+
+            requireComplete(decoder, headerChunk);
+
+            if (decoder instanceof Adam7Decoder adam7) {
+                image = allocateDirect(headerChunk, chunks, arena);
+                adam7.reconstructInto(chunks, image.segment(), image.stride());
+            }
 
-            return PNGUnpacker.unpack(finalPixels, headerChunk, chunks);
+            return image;
 
         } catch (IllegalAccessException | NoSuchMethodException e) {
             throw new RuntimeException(e);
+        } finally {
+            RESOURCES.release(resources);
         }
     }
 
     /**
-     * Parses IDAT chunks into usable data to be deflated into the bufferOutput array.
-     * @param inputBuffer buffer being inflated
-     * @param chunkLength length of IDAT chunk
-     * @param resources the ParserResources where the inflater and scratch buffer are stored
-     * @param bufferOutput where the inflated bytes are written
-     * @param offset offset of the inflated pixel data
-     * @return current offset
+     * Parses only a region of a PNG onto the heap. Rows above the region are still inflated and unfiltered, since
+     * every row is predicted from the one above it, but only the columns of the region are unpacked and decoding
+     * stops right after its bottom row. Chunks following that row are never read. Animated PNGs are decoded as their
+     * default image, interlaced images are decoded entirely and cropped afterwards.
+     * @param inputBuffer the input buffer data
+     * @param region region of the image to decode
+     * @return image covering just the region
      */
-    static int parseIDAT(final ByteBuffer inputBuffer, final int chunkLength, final ParserResources resources, final byte[] bufferOutput, final int offset) {
-        var decompressionOffset = offset;
-        var inflater = resources.inflater;
+    public static StaticImage parseRegion(ByteBuffer inputBuffer, Region region) {
+        Objects.requireNonNull(region, "The region is null");
+
+        return parsePartial(inputBuffer, (header, chunks, resources) -> {
+            if (!region.fitsWithin(header.width(), header.height()))
+                throw new IllegalArgumentException("Region " + region + " exceeds the image bounds of " + header.width() + "x" + header.height());
+
+            if (header.interlacedMethod() == 1)
+                return new Adam7Decoder(header, resources);
+
+            var sink = new RegionRowSink(header, chunks, region);
+            return new ScanlineDecoder(header, resources, sink.rowsNeeded(), sink);
+        }, (decoder, header, chunks) -> switch (decoder) {
+            case Adam7Decoder adam7 -> RegionRowSink.crop(adam7.reconstruct(chunks), region);
+            case ScanlineDecoder scanline when scanline.sink() instanceof RegionRowSink sink -> sink.toImage(header, chunks);
+            default -> throw new IllegalStateException("Unexpected decoder for a region: " + decoder);
+        });
+    }
 
-        // Prepare a chunk data view to avoid allocation of new byte[] arrays
-        var oldLimit = inputBuffer.limit();
-        inputBuffer.limit(inputBuffer.position() + chunkLength);
+    /**
+     * Parses a PNG onto the heap while scaling it down. Rows are scaled as they're decoded, only a single full
+     * resolution row is ever held in memory. Point sampling stops decoding after the last sampled row. Animated PNGs
+     * are decoded as their default image, interlaced images are decoded entirely and scaled afterwards.
+     * @param inputBuffer the input buffer data
+     * @param scale how the image is scaled down
+     * @return the scaled image
+     */
+    public static StaticImage parseScaled(ByteBuffer inputBuffer, Downscale scale) {
+        Objects.requireNonNull(scale, "The scale is null");
+
+        return parsePartial(inputBuffer, (header, chunks, resources) -> {
+            if (header.interlacedMethod() == 1)
+                return new Adam7Decoder(header, resources);
+
+            var sink = new ScaledRowSink(header, chunks, scale);
+            return new ScanlineDecoder(header, resources, sink.rowsNeeded(), sink);
+        }, (decoder, header, chunks) -> switch (decoder) {
+            case Adam7Decoder adam7 -> new ScaledRowSink(header, chunks, scale).scale(adam7.reconstruct(chunks), header);
+            case ScanlineDecoder scanline when scanline.sink() instanceof ScaledRowSink sink -> sink.toImage(header, chunks);
+            default -> throw new IllegalStateException("Unexpected decoder for a scaled image: " + decoder);
+        });
+    }
 
-        // Allocate a reusable byte array
-        byte[] chunkScratch = resources.scratch;
-        var bytesProcessed = 0;
+    /**
+     * Parses an indexed PNG onto the heap without resolving its palette. Indices are kept at their original bit
+     * depth, so the image takes up a quarter to a thirty-second of its expanded size. Animated PNGs are decoded as
+     * their default image.
+     * @param inputBuffer the input buffer data
+     * @return the indexed image
+     */
+    public static IndexedImage8 parseIndexed(ByteBuffer inputBuffer) {
+        return parsePartial(inputBuffer, (header, chunks, resources) -> {
+            if (header.colorType() != Chunk.ColorType.Indexed)
+                throw new IllegalArgumentException("Image isn't indexed: " + header.colorType());
+
+            if (header.interlacedMethod() == 1)
+                return new Adam7Decoder(header, resources);
+
+            return new ScanlineDecoder(header, resources, new IndexedRowSink(header));
+        }, (decoder, header, chunks) -> switch (decoder) {
+            case Adam7Decoder adam7 -> {
+                // Unpack every pass through a palette mapping indices onto themselves, then pack them back up
+                var identity = IndexedUnpacker.identityPalette();
+                var spread = adam7.reconstruct(chunks, passHeader -> (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        IndexedUnpacker.unpackRow(row, rowOffset, out, outOffset, passHeader.width(), passHeader.bitDepth(), identity));
+
+                yield IndexedRowSink.pack((StaticImage8) spread, header, chunks);
+            }
+            case ScanlineDecoder scanline when scanline.sink() instanceof IndexedRowSink sink -> sink.toImage(header, chunks);
+            default -> throw new IllegalStateException("Unexpected decoder for an indexed image: " + decoder);
+        });
+    }
+
+    /**
+     * Parses a PNG onto the heap keeping the channels it's stored with, so gray images take up a single sample per
+     * pixel and truecolor images three rather than four. Transparency chunks add an alpha channel, palette images
+     * are expanded to RGBA. Animated PNGs are decoded as their default image.
+     * @param inputBuffer the input buffer data
+     * @return the decoded image, tagged with its compact format
+     */
+    public static StaticImage parseCompact(ByteBuffer inputBuffer) {
+        return parsePartial(inputBuffer, (header, chunks, resources) -> {
+            if (header.interlacedMethod() == 1)
+                return new Adam7Decoder(header, resources);
+
+            var sink = new ImageRowSink(header, PNGUnpacker.compactRowUnpacker(header, chunks), PNGUnpacker.compactFormatOf(header, chunks));
+            return new ScanlineDecoder(header, resources, sink);
+        }, (decoder, header, chunks) -> switch (decoder) {
+            case Adam7Decoder adam7 -> adam7.reconstruct(chunks,
+                    passHeader -> PNGUnpacker.compactRowUnpacker(passHeader, chunks), PNGUnpacker.compactFormatOf(header, chunks));
+            case ScanlineDecoder scanline when scanline.sink() instanceof ImageRowSink sink -> sink.toImage(header, chunks);
+            default -> throw new IllegalStateException("Unexpected decoder for a compact image: " + decoder);
+        });
+    }
 
-        while (bytesProcessed < chunkLength) {
-            var toRead = Math.min(chunkScratch.length, chunkLength - bytesProcessed);
-            inputBuffer.get(chunkScratch, 0, toRead);
+    /**
+     * Parses a PNG into memory owned by the caller, borrowing the caller's resources rather than pooled ones. Nothing
+     * sized by the image is allocated for non-interlaced images, so decoding a stream of same sized images into the
+     * same destination with the same resources allocates no pixel or scanline memory at all. Pixels are laid out like
+     * {@link #parseDirect(ByteBuffer, Arena)} does, rows back to back at four samples per pixel and 16 bit samples in
+     * native byte order. Interlaced images are inflated onto the heap in one go and deinterlaced into the destination.
+     * Animated PNGs are decoded as their default image.
+     * @param inputBuffer the input buffer data
+     * @param destination memory receiving the pixels, at least {@link ImageInfo#decodedByteSize()} bytes
+     * @param resources resources exclusive to this decode, free to be reused once it returns
+     * @return description of the image written to the destination
+     * @throws IllegalArgumentException if the destination is too small, thrown before any image data is inflated
+     */
+    public static ImageInfo parseInto(ByteBuffer inputBuffer, MemorySegment destination, ParserResources resources) {
+        Objects.requireNonNull(destination, "The destination is null");
+        Objects.requireNonNull(resources, "The resources are null");
+
+        if (destination.isReadOnly())
+            throw new IllegalArgumentException("The destination is read only");
+
+        return parsePartial(inputBuffer, resources, (header, chunks, decodeResources) -> {
+            var format = PNGUnpacker.formatOf(header);
+            var stride = (long) header.width() * format.channels() * format.sampleSize();
+
+            if (destination.byteSize() < stride * header.height())
+                throw new IllegalArgumentException("Destination of " + destination.byteSize() + " bytes can't hold a "
+                        + header.width() + "x" + header.height() + " " + format + " image of " + stride * header.height() + " bytes");
+
+            if (header.interlacedMethod() == 1)
+                return new Adam7Decoder(header, decodeResources);
+
+            var sink = new SegmentRowSink(destination, stride, header.width(), PNGUnpacker.rowUnpacker(header, chunks), decodeResources);
+            return new ScanlineDecoder(header, decodeResources, sink);
+        }, (decoder, header, chunks) -> {
+            if (decoder instanceof Adam7Decoder adam7) {
+                var format = PNGUnpacker.formatOf(header);
+                adam7.reconstructInto(chunks, destination, (long) header.width() * format.channels() * format.sampleSize());
+            }
 
-            inflater.setInput(chunkScratch, 0, toRead);
+            var animation = chunks.getFirst(acTL.class).orElse(null);
+
+            return new ImageInfo(
+                    header.width(),
+                    header.height(),
+                    header.bitDepth(),
+                    PNGUnpacker.formatOf(header),
+                    header.interlacedMethod() == 1,
+                    animation != null,
+                    animation == null ? 1 : (int) animation.frameCount(),
+                    animation == null ? 0 : (int) animation.playCount()
+            );
+        });
+    }
 
-            try {
-                while (!inflater.needsInput()) {
-                    var inflatedBytes = inflater.inflate(bufferOutput, decompressionOffset, bufferOutput.length - decompressionOffset);
+    /**
+     * Parses a PNG into an array owned by the caller, see {@link #parseInto(ByteBuffer, MemorySegment, ParserResources)}.
+     * @param inputBuffer the input buffer data
+     * @param destination array receiving the pixels, at least {@link ImageInfo#decodedByteSize()} bytes
+     * @param resources resources exclusive to this decode, free to be reused once it returns
+     * @return description of the image written to the destination
+     * @throws IllegalArgumentException if the destination is too small, thrown before any image data is inflated
+     */
+    public static ImageInfo parseInto(ByteBuffer inputBuffer, byte[] destination, ParserResources resources) {
+        Objects.requireNonNull(destination, "The destination is null");
+        return parseInto(inputBuffer, MemorySegment.ofArray(destination), resources);
+    }
+
+    /**
+     * Creates the decoder of a partial decode once the first IDAT chunk is reached.
+     */
+    @FunctionalInterface
+    private interface PartialDecoderFactory {
+        ImageDataDecoder create(IHDR header, ChunkMap chunks, ParserResources resources);
+    }
+
+    /**
+     * Turns the decoder of a partial decode into the resulting image.
+     * @param <T> type of the resulting image
+     */
+    @FunctionalInterface
+    private interface PartialImageFinisher<T> {
+        T finish(ImageDataDecoder decoder, IHDR header, ChunkMap chunks);
+    }
 
-                    if (inflatedBytes == 0)
+    /**
+     * Drives a decode that only needs part of the image data. The chunk walk stops as soon as the decoder is
+     * complete, so neither the remaining image data nor the chunks following it are read.
+     */
+    private static <T> T parsePartial(ByteBuffer inputBuffer, PartialDecoderFactory factory, PartialImageFinisher<T> finisher) {
+        var resources = RESOURCES.checkout();
+
+        try {
+            return parsePartial(inputBuffer, resources, factory, finisher);
+        } finally {
+            RESOURCES.release(resources);
+        }
+    }
+
+    private static <T> T parsePartial(ByteBuffer inputBuffer, ParserResources resources, PartialDecoderFactory factory, PartialImageFinisher<T> finisher) {
+        Objects.requireNonNull(inputBuffer, "The input buffer is null");
+        inputBuffer.get(resources.headerSkip);
+
+        if (!inputBuffer.hasRemaining())
+            throw new IllegalStateException("Malformed PNG, no more data within buffer.");
+
+        try {
+            var headerChunk = parseHeader(inputBuffer);
+            var chunks = new ChunkMap();
+
+            ImageDataDecoder decoder = null;
+
+            while (inputBuffer.hasRemaining()) {
+                var chunkLength = inputBuffer.getInt();
+                var chunkTag = inputBuffer.getInt();
+
+                if (chunkTag == IDAT_TAG) {
+                    // Every chunk the unpacker depends on precedes the first IDAT chunk
+                    if (decoder == null)
+                        decoder = factory.create(headerChunk, chunks, resources);
+
+                    parseIDAT(inputBuffer, chunkLength, decoder);
+
+                    if (decoder.isComplete())
                         break;
 
-                    decompressionOffset += inflatedBytes;
+                    continue;
                 }
-            } catch (DataFormatException e) {
-                throw new RuntimeException("Corrupt PNG data", e);
+
+                var chunk = ChunkRegistry.decodeChunk(chunkTag, inputBuffer, chunkLength, headerChunk);
+
+                // Skip CRC value
+                inputBuffer.getInt();
+
+                if (chunk != null)
+                    chunks.addChunk(chunk);
+
+                if (chunkTag == IEND_TAG)
+                    break;
             }
 
-            bytesProcessed += toRead;
+            requireComplete(decoder, headerChunk);
+
+            return finisher.finish(decoder, headerChunk, chunks);
+
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        // Restore limit
-        inputBuffer.limit(oldLimit);
+    /**
+     * Reads the header of a PNG without touching its image data. Chunks ahead of the first IDAT chunk are skipped
+     * over by their length, only IHDR and acTL are decoded.
+     * @param inputBuffer buffer holding at least the start of the PNG, it may end anywhere within the file
+     * @return description of the image, or null if the buffer ended before the first IDAT chunk
+     * @throws IllegalStateException if the buffer doesn't hold a PNG or its chunks are malformed
+     */
+    public static ImageInfo probe(ByteBuffer inputBuffer) {
+        Objects.requireNonNull(inputBuffer, "The input buffer is null");
+
+        // Signature plus the length and tag of the header chunk
+        if (inputBuffer.remaining() < 16)
+            return null;
+
+        if (inputBuffer.getLong() != SIGNATURE)
+            throw new IllegalStateException("Not a PNG, the signature doesn't match.");
+
+        // Lengths parseHeader rejects are left to it, any other has to fit along with the tag and CRC
+        var headerLength = inputBuffer.getInt(inputBuffer.position());
+
+        if (headerLength >= 0 && headerLength <= 100 && inputBuffer.remaining() < headerLength + 12)
+            return null;
+
+        try {
+            var headerChunk = parseHeader(inputBuffer);
+            acTL animation = null;
+
+            while (true) {
+                // Not even the next chunk header fits, the caller has to hand us more of the file
+                if (inputBuffer.remaining() < 8)
+                    return null;
+
+                var chunkLength = inputBuffer.getInt();
+                var chunkTag = inputBuffer.getInt();
+
+                // Would move backwards, reading the same chunks over and over
+                if (chunkLength < 0)
+                    throw new IllegalStateException("Malformed PNG, chunk length is negative: " + chunkLength);
+
+                // acTL has to precede the image data, so the first IDAT chunk ends our search
+                if (chunkTag == IDAT_TAG || chunkTag == IEND_TAG)
+                    break;
+
+                if (inputBuffer.remaining() < (long) chunkLength + 4)
+                    return null;
+
+                if (chunkTag == acTL_TAG) {
+                    animation = (acTL) ChunkRegistry.decodeChunk(chunkTag, inputBuffer, chunkLength, headerChunk);
+                    inputBuffer.getInt(); // Skip CRC
+                    continue;
+                }
+
+                inputBuffer.position(inputBuffer.position() + chunkLength + 4);
+            }
+
+            return new ImageInfo(
+                    headerChunk.width(),
+                    headerChunk.height(),
+                    headerChunk.bitDepth(),
+                    PNGUnpacker.formatOf(headerChunk),
+                    headerChunk.interlacedMethod() == 1,
+                    animation != null,
+                    animation == null ? 1 : (int) animation.frameCount(),
+                    animation == null ? 0 : (int) animation.playCount()
+            );
+
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static OffHeapImage allocateDirect(IHDR header, ChunkMap chunks, Arena arena) {
+        var width = header.width();
+        var height = header.height();
+        var format = PNGUnpacker.formatOf(header);
+
+        if (header.bitDepth() == 16) {
+            var stride = (long) width * 4 * Short.BYTES;
+            return new OffHeapImage16(width, height, stride, arena.allocate(stride * height, SEGMENT_ALIGNMENT), format, chunks);
+        }
+
+        var stride = (long) width * 4;
+        return new OffHeapImage8(width, height, stride, arena.allocate(stride * height, SEGMENT_ALIGNMENT), format, chunks);
+    }
+
+    /**
+     * Creates the decoder of an image decoded onto the heap, picking the deinterlacing decoder for Adam7 images.
+     * @param header header of the image
+     * @param chunks chunks read ahead of the image data
+     * @param resources the ParserResources whose inflater and buffers are used
+     * @return decoder for the image data
+     */
+    static ImageDataDecoder heapDecoder(final IHDR header, final ChunkMap chunks, final ParserResources resources) {
+        return heapDecoder(header, chunks, resources, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates the decoder of an image decoded onto the heap, pipelining the decode once the image data reaches the
+     * given size.
+     * @param header header of the image
+     * @param chunks chunks read ahead of the image data
+     * @param resources the ParserResources whose inflater and buffers are used
+     * @param pipelineThreshold amount of inflated image data from which on the decode is pipelined
+     * @return decoder for the image data
+     */
+    static ImageDataDecoder heapDecoder(final IHDR header, final ChunkMap chunks, final ParserResources resources, final long pipelineThreshold) {
+        if (header.interlacedMethod() == 1)
+            return new Adam7Decoder(header, resources);
+
+        // The sink writes every row to its own part of the pixel array, so it's fine with rows arriving concurrently
+        var sink = new ImageRowSink(header, PNGUnpacker.rowUnpacker(header, chunks));
+        var size = header.getImageDataByteLength();
+
+        if (size >= pipelineThreshold && Runtime.getRuntime().availableProcessors() > 1)
+            return new PipelinedDecoder(header, resources, sink);
+
+        return new ScanlineDecoder(header, resources, sink);
+    }
+
+    /**
+     * Wraps up an image created by {@link #heapDecoder(IHDR, ChunkMap, ParserResources)}.
+     * @param decoder decoder of the image, or null if no image data was found
+     * @param header header of the image
+     * @param chunks chunks of the image
+     * @return the decoded image
+     */
+    static StaticImage finishHeapImage(final ImageDataDecoder decoder, final IHDR header, final ChunkMap chunks) {
+        requireComplete(decoder, header);
+
+        return switch (decoder) {
+            case Adam7Decoder adam7 -> adam7.reconstruct(chunks);
+            case ScanlineDecoder scanline when scanline.sink() instanceof ImageRowSink sink -> sink.toImage(header, chunks);
+            case ScanlineDecoder _ -> throw new IllegalStateException("Scanline decoder isn't writing to the heap.");
+            case PipelinedDecoder pipelined when pipelined.sink() instanceof ImageRowSink sink -> {
+                pipelined.await();
+                yield sink.toImage(header, chunks);
+            }
+            case PipelinedDecoder _ -> throw new IllegalStateException("Pipelined decoder isn't writing to the heap.");
+        };
+    }
+
+    /**
+     * Parses IDAT chunks by streaming their data through the decoder of the image.
+     * @param inputBuffer buffer being inflated
+     * @param chunkLength length of IDAT chunk
+     * @param decoder decoder receiving the compressed bytes
+     */
+    static void parseIDAT(final ByteBuffer inputBuffer, final int chunkLength, final ImageDataDecoder decoder) {
+        decoder.inflate(inputBuffer, chunkLength);
         inputBuffer.getInt(); // skip CRC
-        return decompressionOffset;
+    }
+
+    /**
+     * Makes sure every row of an image has been decoded once its data ended.
+     * @param decoder decoder of the image, or null if no image data was found
+     * @param header header of the image
+     */
+    static void requireComplete(final ImageDataDecoder decoder, final IHDR header) {
+        if (decoder != null && decoder.isComplete())
+            return;
+
+        throw new IllegalStateException(switch (decoder) {
+            case null -> "Malformed PNG, no image data found.";
+            case ScanlineDecoder scanline ->
+                    "Malformed PNG, image data ended after " + scanline.rowsDecoded() + " of " + header.height() + " rows.";
+            case Adam7Decoder _ -> "Malformed PNG, interlaced image data ended early.";
+            case PipelinedDecoder pipelined ->
+                    "Malformed PNG, image data ended after " + pipelined.rowsInflated() + " of " + header.height() + " rows.";
+        });
     }
 
     private static IHDR parseHeader(ByteBuffer inputBuffer) throws IllegalAccessException, NoSuchMethodException {
@@ -154,7 +661,7 @@ public final class PNGParser {
 
         inputBuffer.get(headerData);
 
-        var headerChunk = SimpleRecordDecoder.decodeRecord(ByteBuffer.wrap(headerData), IHDR.class);
+        var headerChunk = IHDR_DECODER.apply(ByteBuffer.wrap(headerData));
 
         // Skip CRC value
         inputBuffer.getInt();
@@ -162,13 +669,8 @@ public final class PNGParser {
         return headerChunk;
     }
 
-    static int calculateDecompressedSize(IHDR headerChunk) {
-        var channels = headerChunk.colorType().getChannels();
-        var bitsPerPixel = channels * headerChunk.bitDepth();
-        var bitsPerRow = headerChunk.width() * bitsPerPixel;
-        var bytesPerRow = (bitsPerRow + 7) / 8;
-        var scanlineSize = 1 + bytesPerRow;
-        return headerChunk.height() * scanlineSize;
+    static long calculateDecompressedSize(IHDR headerChunk) {
+        return headerChunk.getImageDataByteLength();
     }
 
 }
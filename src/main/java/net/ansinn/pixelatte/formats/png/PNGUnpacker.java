@@ -1,8 +1,10 @@
 package net.ansinn.pixelatte.formats.png;
 
+import net.ansinn.pixelatte.output.safe.PixelResource;
 import net.ansinn.pixelatte.output.safe.StaticImage;
 import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
 import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.formats.png.layout.chunks.tRNS;
 import net.ansinn.pixelatte.formats.png.unpackers.*;
 
 public class PNGUnpacker {
@@ -16,4 +18,132 @@ public class PNGUnpacker {
             default -> throw new IllegalStateException("Invalid image color format: " + header.colorType().ordinal());
         };
     }
+
+    /**
+     * Resolves the scanline unpacker for an image. Palette and transparency chunks are looked up once here, so they
+     * have to be present in the chunk map before the first row is unpacked.
+     * @param header image header
+     * @param chunkMap chunks read ahead of the image data
+     * @return unpacker writing four samples per pixel
+     */
+    public static RowUnpacker rowUnpacker(final IHDR header, final ChunkMap chunkMap) {
+        final var width = header.width();
+        final var bitDepth = header.bitDepth();
+
+        return switch (header.colorType()) {
+            case Grayscale -> {
+                var transparentGray = GrayscaleUnpacker.transparentGray(chunkMap);
+
+                if (bitDepth == 16)
+                    yield (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            GrayscaleUnpacker.unpackRow16(row, rowOffset, out, outOffset, width, transparentGray);
+
+                yield (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        GrayscaleUnpacker.unpackRow8(row, rowOffset, out, outOffset, width, bitDepth, transparentGray);
+            }
+            case TrueColor -> {
+                var transparency = chunkMap.getFirst(tRNS.TrueColor.class).orElse(null);
+
+                if (bitDepth == 16)
+                    yield (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            TrueColorUnpacker.unpackRow16(row, rowOffset, out, outOffset, width, transparency);
+
+                yield (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        TrueColorUnpacker.unpackRow8(row, rowOffset, out, outOffset, width, transparency);
+            }
+            case Indexed -> {
+                var palette = IndexedUnpacker.buildPalette(chunkMap);
+
+                yield (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        IndexedUnpacker.unpackRow(row, rowOffset, out, outOffset, width, bitDepth, palette);
+            }
+            case GreyscaleAlpha -> bitDepth == 16
+                    ? (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            GrayscaleAlphaUnpacker.unpackRow16(row, rowOffset, out, outOffset, width)
+                    : (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                            GrayscaleAlphaUnpacker.unpackRow8(row, rowOffset, out, outOffset, width);
+            case TrueColorAlpha -> bitDepth == 16
+                    ? (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            TrueColorAlphaUnpacker.unpackRow16(row, rowOffset, out, outOffset, width)
+                    : (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                            TrueColorAlphaUnpacker.unpackRow8(row, rowOffset, out, outOffset, width);
+            default -> throw new IllegalStateException("Invalid image color format: " + header.colorType().ordinal());
+        };
+    }
+
+    /**
+     * Resolves the scanline unpacker of a compact decode, which keeps the channels the image is stored with rather
+     * than expanding every pixel to four samples. Transparency chunks add an alpha channel, palette images are still
+     * expanded to RGBA.
+     * @param header image header
+     * @param chunkMap chunks read ahead of the image data
+     * @return unpacker writing {@link #compactFormatOf(IHDR, ChunkMap)} pixels
+     */
+    public static RowUnpacker compactRowUnpacker(final IHDR header, final ChunkMap chunkMap) {
+        final var width = header.width();
+        final var bitDepth = header.bitDepth();
+
+        return switch (header.colorType()) {
+            case Grayscale -> {
+                var transparentGray = GrayscaleUnpacker.transparentGray(chunkMap);
+
+                if (bitDepth == 16)
+                    yield (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            GrayscaleUnpacker.unpackCompactRow16(row, rowOffset, out, outOffset, width, transparentGray);
+
+                yield (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        GrayscaleUnpacker.unpackCompactRow8(row, rowOffset, out, outOffset, width, bitDepth, transparentGray);
+            }
+            case TrueColor -> {
+                // A transparent color needs an alpha channel to be expressed
+                if (chunkMap.getFirst(tRNS.TrueColor.class).isPresent())
+                    yield rowUnpacker(header, chunkMap);
+
+                if (bitDepth == 16)
+                    yield (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            TrueColorUnpacker.unpackCompactRow16(row, rowOffset, out, outOffset, width);
+
+                yield (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                        System.arraycopy(row, rowOffset, out, outOffset, width * 3);
+            }
+            case GreyscaleAlpha -> bitDepth == 16
+                    ? (RowUnpacker.Bit16) (row, rowOffset, out, outOffset) ->
+                            GrayscaleAlphaUnpacker.unpackCompactRow16(row, rowOffset, out, outOffset, width)
+                    : (RowUnpacker.Bit8) (row, rowOffset, out, outOffset) ->
+                            System.arraycopy(row, rowOffset, out, outOffset, width * 2);
+            case Indexed, TrueColorAlpha -> rowUnpacker(header, chunkMap);
+            default -> throw new IllegalStateException("Invalid image color format: " + header.colorType().ordinal());
+        };
+    }
+
+    /**
+     * Get the format an image is unpacked as. Every unpacker writes four samples per pixel, gray images included.
+     * @param header image header
+     * @return output format of the image
+     */
+    public static PixelResource.Format formatOf(final IHDR header) {
+        return header.bitDepth() == 16 ? PixelResource.Format.RGBA16 : PixelResource.Format.RGBA8;
+    }
+
+    /**
+     * Get the format an image is unpacked as by {@link #compactRowUnpacker(IHDR, ChunkMap)}.
+     * @param header image header
+     * @param chunkMap chunks read ahead of the image data
+     * @return compact output format of the image
+     */
+    public static PixelResource.Format compactFormatOf(final IHDR header, final ChunkMap chunkMap) {
+        var wide = header.bitDepth() == 16;
+
+        return switch (header.colorType()) {
+            case Grayscale -> GrayscaleUnpacker.transparentGray(chunkMap) != GrayscaleUnpacker.NO_TRANSPARENCY
+                    ? (wide ? PixelResource.Format.GRAY_ALPHA16 : PixelResource.Format.GRAY_ALPHA8)
+                    : (wide ? PixelResource.Format.GRAY16 : PixelResource.Format.GRAY8);
+            case GreyscaleAlpha -> wide ? PixelResource.Format.GRAY_ALPHA16 : PixelResource.Format.GRAY_ALPHA8;
+            case TrueColor -> chunkMap.getFirst(tRNS.TrueColor.class).isPresent()
+                    ? formatOf(header)
+                    : (wide ? PixelResource.Format.RGB16 : PixelResource.Format.RGB8);
+            case Indexed, TrueColorAlpha -> formatOf(header);
+            default -> throw new IllegalStateException("Invalid image color format: " + header.colorType().ordinal());
+        };
+    }
 }
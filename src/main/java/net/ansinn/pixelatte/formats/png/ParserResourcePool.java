@@ -0,0 +1,113 @@
+package net.ansinn.pixelatte.formats.png;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free pool of {@link ParserResources}. Unlike a thread local, the amount of live inflaters is tied to
+ * the amount of decodes running at once rather than the amount of threads that ever decoded, which matters once
+ * decoding happens on virtual threads. Resources that don't fit back into the pool get their inflater ended right
+ * away.
+ */
+public final class ParserResourcePool {
+
+    /**
+     * Snapshot of the pool counters.
+     * @param hits checkouts served by pooled resources
+     * @param misses checkouts which had to create new resources
+     * @param discarded returned resources which were closed because the pool was full
+     * @param pooled resources currently waiting in the pool
+     */
+    public record Stats(long hits, long misses, long discarded, int pooled) {}
+
+    private final AtomicReferenceArray<ParserResources> slots;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * @param capacity maximum amount of resources kept around
+     */
+    public ParserResourcePool(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Pool capacity has to be positive: " + capacity);
+
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Sizes the pool to the parallelism of the carrier threads running virtual threads, which is also the amount of
+     * decodes that can actually run at once.
+     * @return capacity matching carrier parallelism
+     */
+    public static int carrierParallelism() {
+        return Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Takes resources out of the pool, or creates new ones if the pool is empty. They have to be handed back through
+     * {@link #release(ParserResources)} once the decode is done.
+     * @return resources exclusive to the caller
+     */
+    public ParserResources checkout() {
+        var start = probeStart();
+
+        for (var i = 0; i < slots.length(); i++) {
+            var index = (start + i) % slots.length();
+
+            // Cheap read first, so we don't write to slots which are empty anyway
+            if (slots.getPlain(index) == null)
+                continue;
+
+            var resources = slots.getAndSet(index, null);
+
+            if (resources != null) {
+                hits.increment();
+                return resources;
+            }
+        }
+
+        misses.increment();
+        return new ParserResources();
+    }
+
+    /**
+     * Hands resources back to the pool. If every slot is taken they're closed instead.
+     * @param resources resources taken from {@link #checkout()}
+     */
+    public void release(ParserResources resources) {
+        resources.inflater.reset();
+        resources.trim();
+
+        var start = probeStart();
+
+        for (var i = 0; i < slots.length(); i++) {
+            var index = (start + i) % slots.length();
+
+            if (slots.getPlain(index) == null && slots.compareAndSet(index, null, resources))
+                return;
+        }
+
+        discarded.increment();
+        resources.close();
+    }
+
+    // Threads start probing at different slots to keep them from fighting over the same one
+    private int probeStart() {
+        return (int) (Thread.currentThread().threadId() % slots.length());
+    }
+
+    /**
+     * @return snapshot of the pool counters
+     */
+    public Stats stats() {
+        var pooled = 0;
+
+        for (var i = 0; i < slots.length(); i++)
+            if (slots.get(i) != null)
+                pooled++;
+
+        return new Stats(hits.sum(), misses.sum(), discarded.sum(), pooled);
+    }
+}
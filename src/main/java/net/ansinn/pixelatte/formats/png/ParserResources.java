@@ -1,11 +1,104 @@
 package net.ansinn.pixelatte.formats.png;
 
+import java.util.Arrays;
 import java.util.zip.Inflater;
 
-public class ParserResources {
+/**
+ * Reusable state of a single decode. Instances are handed out by a {@link ParserResourcePool} and must only be used
+ * by one decode at a time.
+ */
+public class ParserResources implements AutoCloseable {
+
+    // Buffers larger than this are handed out but not kept around, so one huge image doesn't pin its memory forever
+    static final int MAX_RETAINED_BUFFER = 16 * 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final short[] EMPTY_SHORTS = new short[0];
 
     public final Inflater inflater = new Inflater();
-    public final byte[] scratch = new byte[8192]; // About 8kb should be appropriate
     public final byte[] headerSkip = new byte[8];
 
+    private byte[] currentRow = EMPTY;
+    private byte[] previousRow = EMPTY;
+    private byte[] unpackedRow = EMPTY;
+    private byte[] imageData = EMPTY;
+    private short[] unpackedShortRow = EMPTY_SHORTS;
+
+    /**
+     * @param length minimum length of the scanline
+     * @return zeroed buffer for the scanline being inflated
+     */
+    byte[] currentRow(int length) {
+        return currentRow = zeroed(currentRow, length);
+    }
+
+    /**
+     * @param length minimum length of the scanline
+     * @return zeroed buffer for the previous scanline, which is exactly how the first row is predicted
+     */
+    byte[] previousRow(int length) {
+        return previousRow = zeroed(previousRow, length);
+    }
+
+    /**
+     * @param length minimum length in bytes
+     * @return buffer a single row is unpacked into before being copied elsewhere, contents undefined
+     */
+    byte[] unpackedRow(int length) {
+        return unpackedRow = reuse(unpackedRow, length);
+    }
+
+    /**
+     * @param length minimum length in shorts
+     * @return buffer a single 16 bit row is unpacked into before being copied elsewhere, contents undefined
+     */
+    short[] unpackedShortRow(int length) {
+        if (unpackedShortRow.length < length)
+            unpackedShortRow = new short[length];
+
+        return unpackedShortRow;
+    }
+
+    /**
+     * @param length minimum length in bytes
+     * @return buffer the entire inflated image data fits into, contents undefined
+     */
+    byte[] imageData(int length) {
+        return imageData = reuse(imageData, length);
+    }
+
+    private static byte[] zeroed(byte[] buffer, int length) {
+        var reused = reuse(buffer, length);
+
+        if (reused == buffer)
+            Arrays.fill(reused, 0, length, (byte) 0);
+
+        return reused;
+    }
+
+    private static byte[] reuse(byte[] buffer, int length) {
+        if (buffer.length >= length)
+            return buffer;
+
+        return new byte[length];
+    }
+
+    /**
+     * Drops buffers above the retention limit, called whenever the resources go back to their pool.
+     */
+    void trim() {
+        if (currentRow.length > MAX_RETAINED_BUFFER) currentRow = EMPTY;
+        if (previousRow.length > MAX_RETAINED_BUFFER) previousRow = EMPTY;
+        if (unpackedRow.length > MAX_RETAINED_BUFFER) unpackedRow = EMPTY;
+        if (imageData.length > MAX_RETAINED_BUFFER) imageData = EMPTY;
+        if (unpackedShortRow.length * Short.BYTES > MAX_RETAINED_BUFFER) unpackedShortRow = EMPTY_SHORTS;
+    }
+
+    /**
+     * Releases the native zlib state of the inflater. The resources can't be used afterwards.
+     */
+    @Override
+    public void close() {
+        inflater.end();
+    }
 }
@@ -0,0 +1,276 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.DecodeCancellation;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes image data in three overlapping stages. The calling thread only inflates, publishing every completed
+ * scanline into a bounded ring of slots. A single stage thread unfilters the scanlines in order, since every row is
+ * predicted from the one above it, and hands bands of finished rows to parallel workers unpacking them into the
+ * {@link ScanlineDecoder.RowSink}. On large images decoding gets close to the speed of inflating alone.
+ * <p>
+ * The sink receives rows of different bands concurrently, so it must be safe to call for distinct rows at once.
+ */
+final class PipelinedDecoder implements ImageDataDecoder {
+
+    // Bands are sized by bytes, so narrow images don't hand out tasks too small to be worth scheduling
+    private static final int BAND_BYTES = 256 * 1024;
+
+    private final Inflater inflater;
+    private final ScanlineDecoder.RowSink sink;
+    private final Executor workers;
+
+    private final int height;
+    private final int rowLength;
+    private final int scanlineLength;
+    private final int bpp;
+    private final boolean simd;
+    private final int bandRows;
+
+    private final byte[][] ring;
+    private final byte[] zeroRow;
+
+    // A slot is free again once its row was unpacked and the row below it was unfiltered. Bands finish out of
+    // order, so every slot is tracked on its own rather than through a single count of free slots
+    private final AtomicIntegerArray pending;
+    private final Semaphore[] free;
+    private final Semaphore published = new Semaphore(0);
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private byte[] current;
+    private int filled;
+    private int row;
+
+    /**
+     * Creates a decoder and starts its unfilter stage. The inflater of the resources is reset and has to stay
+     * exclusive to this decoder until every row has been inflated.
+     * @param header header describing the image data
+     * @param resources resources of the current decode
+     * @param sink receiver of reconstructed rows, called from several threads at once
+     */
+    PipelinedDecoder(IHDR header, ParserResources resources, ScanlineDecoder.RowSink sink) {
+        this(header, resources, sink, Math.max(1, BAND_BYTES / (header.getScanlineByteLength() + 1)), ForkJoinPool.commonPool());
+    }
+
+    PipelinedDecoder(IHDR header, ParserResources resources, ScanlineDecoder.RowSink sink, int bandRows, Executor workers) {
+        this.inflater = resources.inflater;
+        this.sink = sink;
+        this.workers = workers;
+
+        this.height = header.height();
+        this.rowLength = header.getScanlineByteLength();
+        this.scanlineLength = rowLength + 1;
+        this.bpp = header.getFilteringBpp();
+        this.simd = header.preferSIMD();
+        this.bandRows = bandRows;
+
+        // Enough slots for every worker to hold a band while the next ones are inflated and unfiltered
+        var slots = bandRows * (parallelism(workers) + 2);
+        this.ring = new byte[slots][scanlineLength];
+        this.zeroRow = new byte[scanlineLength];
+        this.pending = new AtomicIntegerArray(slots);
+        this.free = new Semaphore[slots];
+        Arrays.setAll(free, _ -> new Semaphore(1));
+
+        inflater.reset();
+
+        Thread.ofVirtual().name("pixelatte-unfilter").start(this::unfilterStage);
+    }
+
+    @Override
+    public void inflate(final ByteBuffer inputBuffer, final int length) {
+        var position = inputBuffer.position();
+
+        if (!isComplete()) {
+            inflater.setInput(inputBuffer.slice(position, length));
+
+            try {
+                drain();
+            } catch (RuntimeException e) {
+                abort(e);
+                throw e;
+            }
+        }
+
+        inputBuffer.position(position + length);
+    }
+
+    private void drain() {
+        try {
+            while (!inflater.needsInput() && !isComplete()) {
+                DecodeCancellation.throwIfCancelled();
+
+                if (current == null) {
+                    await(free[row % ring.length]);
+                    current = ring[row % ring.length];
+                }
+
+                var inflatedBytes = inflater.inflate(current, filled, scanlineLength - filled);
+
+                if (inflatedBytes == 0)
+                    break;
+
+                filled += inflatedBytes;
+
+                if (filled == scanlineLength)
+                    publishRow();
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupt PNG data", e);
+        }
+    }
+
+    private void publishRow() {
+        pending.set(row % ring.length, 2);
+        published.release();
+
+        row++;
+        current = null;
+        filled = 0;
+    }
+
+    private void unfilterStage() {
+        try {
+            var bands = new ArrayList<CompletableFuture<Void>>();
+            var bandStart = 0;
+
+            for (var y = 0; y < height; y++) {
+                await(published);
+
+                var scanline = ring[y % ring.length];
+                var previous = y == 0 ? zeroRow : ring[(y - 1) % ring.length];
+
+                PNGFilter.unfilterScanline(scanline, 0, previous, 0, rowLength, bpp, simd);
+
+                if (y > 0)
+                    releaseRow(y - 1);
+
+                if ((y + 1) % bandRows == 0 || y == height - 1) {
+                    var start = bandStart;
+                    var end = y + 1;
+
+                    bands.add(CompletableFuture.runAsync(() -> unpackBand(start, end), workers));
+                    bandStart = end;
+                }
+            }
+
+            CompletableFuture.allOf(bands.toArray(CompletableFuture[]::new)).join();
+            done.complete(null);
+
+        } catch (Throwable t) {
+            abort(t);
+            done.completeExceptionally(t);
+        }
+    }
+
+    private void unpackBand(int start, int end) {
+        try {
+            for (var y = start; y < end; y++) {
+                sink.accept(y, ring[y % ring.length]);
+                releaseRow(y);
+            }
+        } catch (Throwable t) {
+            abort(t);
+            throw t;
+        }
+    }
+
+    private void releaseRow(int y) {
+        if (pending.decrementAndGet(y % ring.length) == 0)
+            free[y % ring.length].release();
+    }
+
+    /**
+     * Waits for a permit. Bands are unpacked on the workers, which may well be the pool the caller is running on. Waiting
+     * as a managed blocker lets a fork join pool add a worker in place of the blocked one, rather than leave the bands
+     * the caller is waiting for queued behind it.
+     */
+    private void await(Semaphore semaphore) {
+        try {
+            ForkJoinPool.managedBlock(new PermitBlocker(semaphore));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(e);
+        }
+
+        var cause = failure.get();
+        if (cause != null)
+            throw new IllegalStateException("Pipelined decode failed", cause);
+    }
+
+    /**
+     * Stops every stage of the decode, waking up whoever is waiting on the ring. Does nothing once a decode failed or
+     * completed.
+     * @param cause reason the decode is stopped
+     */
+    void abort(Throwable cause) {
+        if (done.isDone() || !failure.compareAndSet(null, cause))
+            return;
+
+        for (var slot : free)
+            slot.release(height);
+        published.release(height + 1);
+    }
+
+    /**
+     * Waits until every row has been unfiltered and handed to the sink. Must only be called once all image data has
+     * been inflated.
+     */
+    void await() {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Pipelined decode failed", e.getCause());
+        }
+    }
+
+    @Override
+    public boolean isComplete() {
+        return row == height;
+    }
+
+    /**
+     * @return amount of rows inflated so far
+     */
+    int rowsInflated() {
+        return row;
+    }
+
+    ScanlineDecoder.RowSink sink() {
+        return sink;
+    }
+
+    private static int parallelism(Executor workers) {
+        return workers instanceof ForkJoinPool pool ? pool.getParallelism() : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Takes exactly one permit, either right away or by blocking
+    private record PermitBlocker(Semaphore semaphore) implements ForkJoinPool.ManagedBlocker {
+
+        @Override
+        public boolean block() throws InterruptedException {
+            semaphore.acquire();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return semaphore.tryAcquire();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+/**
+ * Unpacks only the pixels of a region into a pixel array sized to that region. Rows outside the region are ignored
+ * and columns outside of it are never unpacked, the unpacker simply starts at the first scanline byte of the region.
+ */
+final class RegionRowSink implements ScanlineDecoder.RowSink {
+
+    private final Region region;
+    private final RowUnpacker unpacker;
+    private final int rowStride;
+
+    // First scanline byte holding a pixel of the region, relative to the filter byte
+    private final int byteOffset;
+
+    // Pixels sharing that byte with the region but lying left of it, only ever set for sub byte depths
+    private final int leadPixels;
+    private final byte[] leadRow;
+
+    private final byte[] bytes;
+    private final short[] shorts;
+
+    RegionRowSink(IHDR header, ChunkMap chunks, Region region) {
+        this.region = region;
+
+        var bitsPerPixel = header.getBitsPerPixel();
+        var startBit = (long) region.x() * bitsPerPixel;
+
+        this.byteOffset = (int) (startBit / 8) + 1;
+        this.leadPixels = (int) (startBit % 8) / bitsPerPixel;
+
+        // The unpacker produces the lead pixels as well, they're cut off afterwards
+        this.unpacker = PNGUnpacker.rowUnpacker(header.withDimensions(leadPixels + region.width(), region.height()), chunks);
+        this.rowStride = region.width() * 4;
+        this.leadRow = leadPixels > 0 ? new byte[(leadPixels + region.width()) * 4] : null;
+
+        var size = PNGUnpacker.formatOf(header).arrayLength(region.width(), region.height());
+        this.bytes = unpacker instanceof RowUnpacker.Bit8 ? new byte[size] : null;
+        this.shorts = unpacker instanceof RowUnpacker.Bit16 ? new short[size] : null;
+    }
+
+    @Override
+    public void accept(int y, byte[] scanline) {
+        var regionRow = y - region.y();
+
+        // Rows above the region are only decoded to predict the ones below
+        if (regionRow < 0 || regionRow >= region.height())
+            return;
+
+        var outOffset = regionRow * rowStride;
+
+        switch (unpacker) {
+            case RowUnpacker.Bit8 bit8 when leadRow != null -> {
+                bit8.unpack(scanline, byteOffset, leadRow, 0);
+                System.arraycopy(leadRow, leadPixels * 4, bytes, outOffset, rowStride);
+            }
+            case RowUnpacker.Bit8 bit8 -> bit8.unpack(scanline, byteOffset, bytes, outOffset);
+            case RowUnpacker.Bit16 bit16 -> bit16.unpack(scanline, byteOffset, shorts, outOffset);
+        }
+    }
+
+    /**
+     * @return amount of rows to decode, the last of them being the bottom row of the region
+     */
+    int rowsNeeded() {
+        return region.y() + region.height();
+    }
+
+    /**
+     * Wraps the unpacked pixels into an image. Must only be called once every row of the region has been received.
+     * @param header header of the whole image
+     * @param chunkMap chunks of the image
+     * @return image covering the region
+     */
+    StaticImage toImage(IHDR header, ChunkMap chunkMap) {
+        var format = PNGUnpacker.formatOf(header);
+
+        return switch (unpacker) {
+            case RowUnpacker.Bit8 _ -> new StaticImage8(region.width(), region.height(), bytes, format, chunkMap);
+            case RowUnpacker.Bit16 _ -> new StaticImage16(region.width(), region.height(), shorts, format, chunkMap);
+        };
+    }
+
+    /**
+     * Cuts a region out of a fully decoded image, used where the image data can't be decoded partially.
+     * @param image image holding four samples per pixel
+     * @param region region to cut out
+     * @return image covering the region
+     */
+    static StaticImage crop(StaticImage image, Region region) {
+        var rowStride = region.width() * 4;
+
+        return switch (image) {
+            case StaticImage8 image8 -> {
+                var pixels = new byte[rowStride * region.height()];
+
+                for (var y = 0; y < region.height(); y++)
+                    System.arraycopy(image8.data(), ((region.y() + y) * image8.width() + region.x()) * 4, pixels, y * rowStride, rowStride);
+
+                yield new StaticImage8(region.width(), region.height(), pixels, image8.format(), image8.chunkMap());
+            }
+            case StaticImage16 image16 -> {
+                var pixels = new short[rowStride * region.height()];
+
+                for (var y = 0; y < region.height(); y++)
+                    System.arraycopy(image16.data(), ((region.y() + y) * image16.width() + region.x()) * 4, pixels, y * rowStride, rowStride);
+
+                yield new StaticImage16(region.width(), region.height(), pixels, image16.format(), image16.chunkMap());
+            }
+            default -> throw new IllegalStateException("Unexpected image type: " + image);
+        };
+    }
+}
@@ -0,0 +1,28 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+
+/**
+ * Converts a single reconstructed scanline into output pixels, RGBA unless a compact layout was asked for.
+ * Instances are resolved once per image through {@link PNGUnpacker#rowUnpacker(IHDR, ChunkMap)}, so palette and
+ * transparency lookups aren't repeated for every row.
+ */
+public sealed interface RowUnpacker {
+
+    /**
+     * Unpacks scanlines of images up to 8 bits per sample into one byte per sample.
+     */
+    @FunctionalInterface
+    non-sealed interface Bit8 extends RowUnpacker {
+        void unpack(byte[] row, int rowOffset, byte[] out, int outOffset);
+    }
+
+    /**
+     * Unpacks scanlines of 16 bit images into one short per sample.
+     */
+    @FunctionalInterface
+    non-sealed interface Bit16 extends RowUnpacker {
+        void unpack(byte[] row, int rowOffset, short[] out, int outOffset);
+    }
+}
@@ -0,0 +1,199 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.output.Downscale;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+
+/**
+ * Scales rows down while they're being decoded, so the full resolution image never exists in memory. Every scanline
+ * is unpacked into a single full width row and folded into the scaled image right away, box filtering keeps running
+ * sums of the current band of source rows.
+ */
+final class ScaledRowSink implements ScanlineDecoder.RowSink {
+
+    private final RowUnpacker unpacker;
+    private final Downscale.Filter filter;
+
+    private final int width;
+    private final int height;
+    private final int factor;
+    private final int shift;
+    private final int scaledWidth;
+
+    // Single unpacked source row, reused for every scanline
+    private final byte[] rowBytes;
+    private final short[] rowShorts;
+
+    // Per sample sums of the current band, only used for box filtering
+    private final int[] sums;
+
+    private final byte[] bytes;
+    private final short[] shorts;
+
+    ScaledRowSink(IHDR header, ChunkMap chunks, Downscale scale) {
+        this.unpacker = PNGUnpacker.rowUnpacker(header, chunks);
+        this.filter = scale.filter();
+
+        this.width = header.width();
+        this.height = header.height();
+        this.factor = scale.factor();
+        this.shift = Integer.numberOfTrailingZeros(factor);
+        this.scaledWidth = scale.scale(width);
+
+        var wide = unpacker instanceof RowUnpacker.Bit16;
+        this.rowBytes = wide ? null : new byte[width * 4];
+        this.rowShorts = wide ? new short[width * 4] : null;
+        this.sums = filter == Downscale.Filter.BOX ? new int[scaledWidth * 4] : null;
+
+        var size = PNGUnpacker.formatOf(header).arrayLength(scaledWidth, scale.scale(height));
+        this.bytes = wide ? null : new byte[size];
+        this.shorts = wide ? new short[size] : null;
+    }
+
+    @Override
+    public void accept(int y, byte[] scanline) {
+        // Point sampling only ever looks at the first row of a band
+        if (filter == Downscale.Filter.POINT && (y & (factor - 1)) != 0)
+            return;
+
+        switch (unpacker) {
+            case RowUnpacker.Bit8 bit8 -> {
+                bit8.unpack(scanline, 1, rowBytes, 0);
+                accept8(y, rowBytes, 0);
+            }
+            case RowUnpacker.Bit16 bit16 -> {
+                bit16.unpack(scanline, 1, rowShorts, 0);
+                accept16(y, rowShorts, 0);
+            }
+        }
+    }
+
+    /**
+     * @return amount of rows to decode, point sampling doesn't need any row below the last sampled one
+     */
+    int rowsNeeded() {
+        return filter == Downscale.Filter.POINT ? ((height - 1) & -factor) + 1 : height;
+    }
+
+    /**
+     * Folds an unpacked row of 8 bit samples into the scaled image.
+     * @param y row index within the source image
+     * @param row unpacked RGBA samples
+     * @param offset offset of the first sample of the row
+     */
+    void accept8(int y, byte[] row, int offset) {
+        var outRow = (y >> shift) * scaledWidth * 4;
+
+        if (filter == Downscale.Filter.POINT) {
+            for (var x = 0; x < scaledWidth; x++)
+                System.arraycopy(row, offset + (x << shift) * 4, bytes, outRow + x * 4, 4);
+            return;
+        }
+
+        for (var x = 0; x < width; x++) {
+            var sum = (x >> shift) * 4;
+            var in = offset + x * 4;
+
+            sums[sum] += row[in] & 0xFF;
+            sums[sum + 1] += row[in + 1] & 0xFF;
+            sums[sum + 2] += row[in + 2] & 0xFF;
+            sums[sum + 3] += row[in + 3] & 0xFF;
+        }
+
+        if (endsBand(y)) {
+            for (var i = 0; i < sums.length; i++) {
+                bytes[outRow + i] = (byte) average(y, i >> 2, sums[i]);
+                sums[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Folds an unpacked row of 16 bit samples into the scaled image.
+     * @param y row index within the source image
+     * @param row unpacked RGBA samples
+     * @param offset offset of the first sample of the row
+     */
+    void accept16(int y, short[] row, int offset) {
+        var outRow = (y >> shift) * scaledWidth * 4;
+
+        if (filter == Downscale.Filter.POINT) {
+            for (var x = 0; x < scaledWidth; x++)
+                System.arraycopy(row, offset + (x << shift) * 4, shorts, outRow + x * 4, 4);
+            return;
+        }
+
+        // At most 64 samples of 16 bits are summed up, which comfortably fits an int
+        for (var x = 0; x < width; x++) {
+            var sum = (x >> shift) * 4;
+            var in = offset + x * 4;
+
+            sums[sum] += row[in] & 0xFFFF;
+            sums[sum + 1] += row[in + 1] & 0xFFFF;
+            sums[sum + 2] += row[in + 2] & 0xFFFF;
+            sums[sum + 3] += row[in + 3] & 0xFFFF;
+        }
+
+        if (endsBand(y)) {
+            for (var i = 0; i < sums.length; i++) {
+                shorts[outRow + i] = (short) average(y, i >> 2, sums[i]);
+                sums[i] = 0;
+            }
+        }
+    }
+
+    private boolean endsBand(int y) {
+        return (y & (factor - 1)) == factor - 1 || y == height - 1;
+    }
+
+    // Blocks along the right and bottom edge may cover less than factor x factor source pixels
+    private int average(int y, int x, int sum) {
+        var rows = (y & (factor - 1)) + 1;
+        var columns = Math.min(factor, width - (x << shift));
+        var count = rows * columns;
+
+        return (sum + count / 2) / count;
+    }
+
+    /**
+     * Wraps the scaled pixels into an image. Must only be called once every needed row has been received.
+     * @param header header of the source image
+     * @param chunkMap chunks of the image
+     * @return the scaled image
+     */
+    StaticImage toImage(IHDR header, ChunkMap chunkMap) {
+        var format = PNGUnpacker.formatOf(header);
+        var scaledHeight = (height + factor - 1) >> shift;
+
+        return switch (unpacker) {
+            case RowUnpacker.Bit8 _ -> new StaticImage8(scaledWidth, scaledHeight, bytes, format, chunkMap);
+            case RowUnpacker.Bit16 _ -> new StaticImage16(scaledWidth, scaledHeight, shorts, format, chunkMap);
+        };
+    }
+
+    /**
+     * Scales an image which was decoded in full, used where the image data can't be scaled while being decoded.
+     * @param image image holding four samples per pixel, decoded from the header the sink was created for
+     * @param header header of the image
+     * @return the scaled image
+     */
+    StaticImage scale(StaticImage image, IHDR header) {
+        var stride = width * 4;
+
+        for (var y = 0; y < height; y++) {
+            if (filter == Downscale.Filter.POINT && (y & (factor - 1)) != 0)
+                continue;
+
+            switch (image) {
+                case StaticImage8 image8 -> accept8(y, image8.data(), y * stride);
+                case StaticImage16 image16 -> accept16(y, image16.data(), y * stride);
+                default -> throw new IllegalStateException("Unexpected image type: " + image);
+            }
+        }
+
+        return toImage(header, image.chunkMap());
+    }
+}
@@ -0,0 +1,172 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.DecodeCancellation;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates and unfilters image data one scanline at a time. Only the current and the previous scanline are ever
+ * held in memory, every reconstructed row is handed to a {@link RowSink} before its slot is reused.
+ */
+public final class ScanlineDecoder implements ImageDataDecoder {
+
+    /**
+     * Receives reconstructed scanlines in top to bottom order.
+     */
+    @FunctionalInterface
+    public interface RowSink {
+
+        /**
+         * @param y row index of the scanline
+         * @param scanline reconstructed row, starting at index one behind the filter byte. Only valid for the
+         *                 duration of the call.
+         */
+        void accept(int y, byte[] scanline);
+    }
+
+    private final Inflater inflater;
+    private final RowSink sink;
+    // Rows to decode, the height of the image unless decoding stops early
+    private final int rows;
+    private final int rowLength;
+    private final int scanlineLength;
+    private final int bpp;
+    private final boolean simd;
+
+    private byte[] current;
+    private byte[] previous;
+    private int filled;
+    private int row;
+
+    /**
+     * Creates a decoder for the given header. The inflater is reset and has to stay exclusive to this decoder
+     * until every row has been emitted.
+     * @param header header describing the image data
+     * @param inflater inflater used to decompress the data
+     * @param sink receiver of reconstructed rows
+     */
+    public ScanlineDecoder(IHDR header, Inflater inflater, RowSink sink) {
+        // +1 for filter byte, the previous row starts zeroed which is exactly how the first row is predicted
+        this(header, inflater, new byte[header.getScanlineByteLength() + 1], new byte[header.getScanlineByteLength() + 1], sink);
+    }
+
+    /**
+     * Creates a decoder borrowing its inflater and scanline buffers from pooled resources, which have to stay
+     * exclusive to this decoder until every row has been emitted.
+     * @param header header describing the image data
+     * @param resources resources of the current decode
+     * @param sink receiver of reconstructed rows
+     */
+    public ScanlineDecoder(IHDR header, ParserResources resources, RowSink sink) {
+        this(header, resources, header.height(), sink);
+    }
+
+    /**
+     * Creates a decoder which stops after the given amount of rows, ignoring any image data past them. Borrows its
+     * inflater and scanline buffers from pooled resources, which have to stay exclusive to this decoder until every
+     * row has been emitted.
+     * @param header header describing the image data
+     * @param resources resources of the current decode
+     * @param rows amount of rows to decode, counted from the top
+     * @param sink receiver of reconstructed rows
+     */
+    public ScanlineDecoder(IHDR header, ParserResources resources, int rows, RowSink sink) {
+        this(header, resources.inflater,
+                resources.currentRow(header.getScanlineByteLength() + 1),
+                resources.previousRow(header.getScanlineByteLength() + 1),
+                rows, sink);
+    }
+
+    private ScanlineDecoder(IHDR header, Inflater inflater, byte[] current, byte[] previous, RowSink sink) {
+        this(header, inflater, current, previous, header.height(), sink);
+    }
+
+    private ScanlineDecoder(IHDR header, Inflater inflater, byte[] current, byte[] previous, int rows, RowSink sink) {
+        if (rows < 1 || rows > header.height())
+            throw new IllegalArgumentException("Rows to decode have to lie within the image height of " + header.height() + ": " + rows);
+
+        this.inflater = inflater;
+        this.sink = sink;
+        this.rows = rows;
+        this.rowLength = header.getScanlineByteLength();
+        this.scanlineLength = rowLength + 1;
+        this.bpp = header.getFilteringBpp();
+        this.simd = header.preferSIMD();
+
+        this.current = current;
+        this.previous = previous;
+
+        inflater.reset();
+    }
+
+    /**
+     * Feeds compressed bytes from the input buffer into the decoder, emitting every row completed along the way.
+     * The inflater reads straight from the buffer, so compressed data of a mapped file is never copied.
+     * @param inputBuffer buffer positioned at the compressed data, advanced past it afterwards
+     * @param length amount of compressed bytes to consume
+     */
+    @Override
+    public void inflate(final ByteBuffer inputBuffer, final int length) {
+        var position = inputBuffer.position();
+
+        if (!isComplete()) {
+            inflater.setInput(inputBuffer.slice(position, length));
+            drain();
+        }
+
+        inputBuffer.position(position + length);
+    }
+
+    private void drain() {
+        try {
+            while (!inflater.needsInput() && !isComplete()) {
+                DecodeCancellation.throwIfCancelled();
+
+                var inflatedBytes = inflater.inflate(current, filled, scanlineLength - filled);
+
+                if (inflatedBytes == 0)
+                    break;
+
+                filled += inflatedBytes;
+
+                if (filled == scanlineLength)
+                    emitRow();
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupt PNG data", e);
+        }
+    }
+
+    private void emitRow() {
+        PNGFilter.unfilterScanline(current, 0, previous, 0, rowLength, bpp, simd);
+        sink.accept(row++, current);
+
+        // Swap our two rows, the one just emitted becomes the prediction source of the next
+        var swap = previous;
+        previous = current;
+        current = swap;
+        filled = 0;
+    }
+
+    /**
+     * @return true once every row to decode has been emitted
+     */
+    @Override
+    public boolean isComplete() {
+        return row == rows;
+    }
+
+    /**
+     * @return amount of rows emitted so far
+     */
+    public int rowsDecoded() {
+        return row;
+    }
+
+    RowSink sink() {
+        return sink;
+    }
+}
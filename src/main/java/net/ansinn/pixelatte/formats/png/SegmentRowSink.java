@@ -0,0 +1,45 @@
+package net.ansinn.pixelatte.formats.png;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Unpacks reconstructed scanlines and copies them row by row into a memory segment.
+ */
+final class SegmentRowSink implements ScanlineDecoder.RowSink {
+
+    private final MemorySegment segment;
+    private final long stride;
+    private final RowUnpacker unpacker;
+    private final int samples;
+
+    // Single unpacked row, reused for every scanline
+    private final byte[] bytes;
+    private final short[] shorts;
+
+    SegmentRowSink(MemorySegment segment, long stride, int width, RowUnpacker unpacker, ParserResources resources) {
+        this.segment = segment;
+        this.stride = stride;
+        this.unpacker = unpacker;
+        this.samples = width * 4;
+
+        this.bytes = unpacker instanceof RowUnpacker.Bit8 ? resources.unpackedRow(samples) : null;
+        this.shorts = unpacker instanceof RowUnpacker.Bit16 ? resources.unpackedShortRow(samples) : null;
+    }
+
+    @Override
+    public void accept(int y, byte[] scanline) {
+        var rowOffset = y * stride;
+
+        switch (unpacker) {
+            case RowUnpacker.Bit8 bit8 -> {
+                bit8.unpack(scanline, 1, bytes, 0);
+                MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, rowOffset, samples);
+            }
+            case RowUnpacker.Bit16 bit16 -> {
+                bit16.unpack(scanline, 1, shorts, 0);
+                MemorySegment.copy(shorts, 0, segment, ValueLayout.JAVA_SHORT_UNALIGNED, rowOffset, samples);
+            }
+        }
+    }
+}
@@ -10,6 +10,9 @@ import java.util.Set;
 public record IHDR(int width, int height, byte bitDepth, Chunk.ColorType colorType, byte compressionMethod, byte filterMethod,
                    byte interlacedMethod) implements Chunk {
 
+    // Filter byte included, a few header words short of Integer.MAX_VALUE like the largest arrays VMs hand out
+    private static final long MAX_SCANLINE_LENGTH = Integer.MAX_VALUE - 8;
+
     private static final Set<Byte> VALID_DEPTHS = Set.of((byte)1, (byte)2, (byte)4, (byte)8, (byte)16);
 
 
@@ -36,6 +39,10 @@ public record IHDR(int width, int height, byte bitDepth, Chunk.ColorType colorTy
 
         if (!containsByte(colorType.getAllowedBitDepths(), bitDepth))
             throw new IllegalArgumentException("Invalid bit depth: " + bitDepth + " for color type: " + colorType.name() + " allowed bit-depths are: " + Arrays.toString(colorType.getAllowedBitDepths()));
+
+        // Every decode holds at least one scanline in an array, the image itself may well exceed that size
+        if (((long) width * bitDepth * colorType.getChannels() + 7) / 8 + 1 > MAX_SCANLINE_LENGTH)
+            throw new IllegalArgumentException("Scanlines of a " + width + " pixel wide " + colorType.name() + " image don't fit an array");
     }
 
     private static boolean containsByte(byte[] array, byte target) {
@@ -75,8 +82,16 @@ public record IHDR(int width, int height, byte bitDepth, Chunk.ColorType colorTy
     }
 
     public int getScanlineByteLength() {
-        var totalBits = width * getBitsPerPixel();
-        return (totalBits + 7) / 8;
+        var totalBits = (long) width * getBitsPerPixel();
+        return (int) ((totalBits + 7) / 8);
+    }
+
+    /**
+     * @return size of the filtered image data of a non-interlaced image, filter bytes included, which can exceed the
+     * size of an array
+     */
+    public long getImageDataByteLength() {
+        return (long) height * (getScanlineByteLength() + 1);
     }
 
     public boolean preferSIMD() {
@@ -22,27 +22,12 @@ public class GrayscaleAlphaUnpacker {
         var width = header.width();
         var height = header.height();
         var bpp = 2;
-        byte[] pixels = new byte[width * height * 4];
+        byte[] pixels = new byte[StaticImage.Format.RGBA8.arrayLength(width, height)];
 
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * width * bpp;
-            var rowOut = y * width * 4;
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow8(filtered, y * width * bpp, pixels, y * width * 4, width));
 
-            for (var x = 0; x < width; x++) {
-                var inOffset = rowIn + x * 2;
-                var outOffset = rowOut + x * 4;
-
-                var gray = Byte.toUnsignedInt(filtered[inOffset]);
-                var alpha = Byte.toUnsignedInt(filtered[inOffset + 1]);
-
-                pixels[outOffset] = (byte) gray;
-                pixels[outOffset + 1] = (byte) gray;
-                pixels[outOffset + 2] = (byte) gray;
-                pixels[outOffset + 3] = (byte) alpha;
-            }
-        });
-
-        return new StaticImage8(width, height, pixels, StaticImage.Format.GRAY8, chunkMap);
+        return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
     }
 
     private static StaticImage unpackGrayscaleAlpha16Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
@@ -50,26 +35,73 @@ public class GrayscaleAlphaUnpacker {
         var height = header.height();
         var bpp = 4; // 2 bytes for grat + 2 bytes for alpha
 
-        var pixels = new short[width * height * 4];
+        var pixels = new short[StaticImage.Format.RGBA16.arrayLength(width, height)];
 
-        IntStream.range(0,height).parallel().forEach(y -> {
-            var rowIn = y * width * bpp;
-            var rowOut = y * width * 4;
+        IntStream.range(0,height).parallel().forEach(y ->
+                unpackRow16(filtered, y * width * bpp, pixels, y * width * 4, width));
 
-            for (var x = 0; x < width; x++) {
-                var inOffset = rowIn + x * 4;
-                var outOffset = rowOut + x * 4;
+        return new StaticImage16(width, height, pixels, StaticImage.Format.RGBA16, chunkMap);
+    }
 
-                var gray = ((filtered[inOffset] & 0xFF) << 8) | (filtered[inOffset + 1] & 0xFF);
-                var alpha = ((filtered[inOffset + 2] & 0xFF) << 8) | (filtered[inOffset + 3] & 0xFF);
+    /**
+     * Unpacks a single 8 bit gray-alpha scanline into RGBA8 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackRow8(byte[] row, int rowOffset, byte[] out, int outOffset, int width) {
+        for (var x = 0; x < width; x++) {
+            var inOffset = rowOffset + x * 2;
+            var index = outOffset + x * 4;
+
+            var gray = row[inOffset];
+            var alpha = row[inOffset + 1];
+
+            out[index] = gray;
+            out[index + 1] = gray;
+            out[index + 2] = gray;
+            out[index + 3] = alpha;
+        }
+    }
 
-                pixels[outOffset] = (short) gray;
-                pixels[outOffset + 1] = (short) gray;
-                pixels[outOffset + 2] = (short) gray;
-                pixels[outOffset + 3] = (short) alpha;
-            }
-        });
+    /**
+     * Unpacks a single 16 bit gray-alpha scanline into RGBA16 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width) {
+        for (var x = 0; x < width; x++) {
+            var inOffset = rowOffset + x * 4;
+            var index = outOffset + x * 4;
+
+            var gray = ((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF);
+            var alpha = ((row[inOffset + 2] & 0xFF) << 8) | (row[inOffset + 3] & 0xFF);
+
+            out[index] = (short) gray;
+            out[index + 1] = (short) gray;
+            out[index + 2] = (short) gray;
+            out[index + 3] = (short) alpha;
+        }
+    }
 
-        return new StaticImage16(width, height, pixels, StaticImage.Format.GRAY16, chunkMap);
+    /**
+     * Unpacks a single 16 bit gray-alpha scanline into gray-alpha pairs of shorts. 8 bit scanlines already are in
+     * that layout and are copied as they are.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where gray-alpha pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackCompactRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width) {
+        for (var i = 0; i < width * 2; i++) {
+            var inOffset = rowOffset + i * 2;
+            out[outOffset + i] = (short) (((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF));
+        }
     }
 }
@@ -10,175 +10,187 @@ import net.ansinn.pixelatte.formats.png.layout.chunks.tRNS;
 import java.util.stream.IntStream;
 
 public class GrayscaleUnpacker {
+
+    /**
+     * Marks the absence of a tRNS gray value, as no gray sample can ever be negative.
+     */
+    public static final int NO_TRANSPARENCY = -1;
+
     public static StaticImage unpackGrayscale(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         return switch (header.bitDepth()) {
-            case 1 -> unpackGrayscale1Bit(filtered, header, chunkMap);
-            case 2 -> unpackGrayscale2Bit(filtered, header, chunkMap);
-            case 4 -> unpackGrayscale4Bit(filtered, header, chunkMap);
-            case 8 -> unpackGrayscale8Bit(filtered, header, chunkMap);
+            case 1, 2, 4, 8 -> unpackGrayscale8Bit(filtered, header, chunkMap);
             case 16 -> unpackGrayscale16Bit(filtered, header, chunkMap);
             default ->
                     throw new IllegalStateException("Unexpected bit-depth: " + header.bitDepth() + ", for color-type grayscale.");
         };
     }
 
-    private static StaticImage unpackGrayscale1Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        var width = header.width();
-        var height = header.height();
-        var pixels = new byte[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.Grayscale.class);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * ((width + 7) / 8);
-            var rowOut = y * width * 4;
-
-            int x = 0;
-            for (int byteIndex = 0; byteIndex < ((width + 7) / 8); byteIndex++) {
-                int b = filtered[rowIn + byteIndex] & 0xFF;
-                for (int bit = 7; bit >= 0 && x < width; bit--) {
-                    int value = (b >> bit) & 1;
-                    int gray = value == 1 ? 255 : 0;
-                    int alpha = 0xFF;
-                    if (transparency.isPresent() && gray == transparency.get().grayValue()) {
-                        alpha = 0;
-                    }
-                    int out = rowOut + x * 4;
-                    pixels[out] = (byte) gray;
-                    pixels[out + 1] = (byte) gray;
-                    pixels[out + 2] = (byte) gray;
-                    pixels[out + 3] = (byte) alpha;
-                    x++;
-                }
-            }
-        });
-
-        return new StaticImage8(width, height, pixels, StaticImage.Format.GRAY8, chunkMap);
-    }
-
-    private static StaticImage unpackGrayscale2Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        var width = header.width();
-        var height = header.height();
-        var pixels = new byte[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.Grayscale.class);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * ((width + 3) / 4);
-            var rowOut = y * width * 4;
-
-            int x = 0;
-            for (int byteIndex = 0; byteIndex < ((width + 3) / 4); byteIndex++) {
-                int b = filtered[rowIn + byteIndex] & 0xFF;
-                for (int shift = 6; shift >= 0 && x < width; shift -= 2) {
-                    int value = (b >> shift) & 0b11;
-                    int gray = value * 85;
-                    int alpha = 0xFF;
-                    if (transparency.isPresent() && gray == transparency.get().grayValue()) {
-                        alpha = 0;
-                    }
-                    int out = rowOut + x * 4;
-                    pixels[out] = (byte) gray;
-                    pixels[out + 1] = (byte) gray;
-                    pixels[out + 2] = (byte) gray;
-                    pixels[out + 3] = (byte) alpha;
-                    x++;
-                }
-            }
-        });
-
-        return new StaticImage8(width, height, pixels, StaticImage.Format.GRAY8, chunkMap);
-    }
-
-    private static StaticImage unpackGrayscale4Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        int width = header.width();
-        int height = header.height();
-        byte[] pixels = new byte[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.Grayscale.class);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            int rowIn = y * ((width + 1) / 2); // each byte = 2 data
-            int rowOut = y * width * 4;
-            int x = 0;
-
-            for (int byteIndex = 0; byteIndex < (width + 1) / 2; byteIndex++) {
-                int b = filtered[rowIn + byteIndex] & 0xFF;
-
-                for (int shift = 4; shift >= 0 && x < width; shift -= 4) {
-                    int value = (b >> shift) & 0x0F;
-                    int gray = value * 17;
-                    int alpha = 0xFF;
-
-                    if (transparency.isPresent() && transparency.get().grayValue() == gray)
-                        alpha = 0;
-
-                    int out = rowOut + x * 4;
-                    pixels[out] = (byte) gray;
-                    pixels[out + 1] = (byte) gray;
-                    pixels[out + 2] = (byte) gray;
-                    pixels[out + 3] = (byte) alpha;
-                    x++;
-                }
-            }
-        });
-
-        return new StaticImage8(width, height, pixels, StaticImage.Format.GRAY8, chunkMap);
+    /**
+     * Get the gray value made transparent by a tRNS chunk.
+     * @param chunkMap chunks of the image
+     * @return transparent gray value or {@link #NO_TRANSPARENCY}
+     */
+    public static int transparentGray(ChunkMap chunkMap) {
+        return chunkMap.getFirst(tRNS.Grayscale.class)
+                .map(tRNS.Grayscale::grayValue)
+                .orElse(NO_TRANSPARENCY);
     }
 
     private static StaticImage unpackGrayscale8Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         var width = header.width();
         var height = header.height();
-        var pixels = new byte[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.Grayscale.class);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * width;
-            var rowOut = y * width * 4;
-
-            for (var x = 0; x < width; x++) {
-                var gray = Byte.toUnsignedInt(filtered[rowIn + x]);
-                var alpha = 0xFF;
-
-                if (transparency.isPresent() && gray == transparency.get().grayValue())
-                    alpha = 0x00;
-
-                var index = rowOut + x * 4;
-                pixels[index] = (byte) gray;
-                pixels[index + 1] = (byte) gray;
-                pixels[index + 2] = (byte) gray;
-                pixels[index + 3] = (byte) alpha;
-            }
+        var bitDepth = header.bitDepth();
+        var rowLength = header.getScanlineByteLength();
+        var pixels = new byte[StaticImage.Format.RGBA8.arrayLength(width, height)];
+        var transparentGray = transparentGray(chunkMap);
 
-        });
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow8(filtered, y * rowLength, pixels, y * width * 4, width, bitDepth, transparentGray));
 
-        return new StaticImage8(width, height, pixels, StaticImage.Format.GRAY8, chunkMap);
+        return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
     }
 
     private static StaticImage unpackGrayscale16Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         int width = header.width();
         int height = header.height();
-        short[] pixels = new short[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.Grayscale.class);
+        short[] pixels = new short[StaticImage.Format.RGBA16.arrayLength(width, height)];
+        var transparentGray = transparentGray(chunkMap);
 
-        IntStream.range(0, height).parallel().forEach(y -> {
-            int rowIn = y * width * 2; // 2 bytes per pixel
-            int rowOut = y * width * 4;
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow16(filtered, y * width * 2, pixels, y * width * 4, width, transparentGray));
 
-            for (int x = 0; x < width; x++) {
-                int inOffset = rowIn + x * 2;
-                int gray16 = ((filtered[inOffset] & 0xFF) << 8) | (filtered[inOffset + 1] & 0xFF);
+        return new StaticImage16(width, height, pixels, StaticImage.Format.RGBA16, chunkMap);
+    }
 
-                int alpha = (short) 0xFFFF;
+    /**
+     * Unpacks a single grayscale scanline of 1, 2, 4 or 8 bits per sample into RGBA8 pixels. Samples below 8 bits
+     * are scaled up to the full byte range.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param bitDepth bits per sample
+     * @param transparentGray scaled gray value which becomes transparent, or {@link #NO_TRANSPARENCY}
+     */
+    public static void unpackRow8(byte[] row, int rowOffset, byte[] out, int outOffset, int width, int bitDepth, int transparentGray) {
+        if (bitDepth == 8) {
+            for (var x = 0; x < width; x++) {
+                var gray = Byte.toUnsignedInt(row[rowOffset + x]);
+                var alpha = gray == transparentGray ? 0x00 : 0xFF;
+
+                var index = outOffset + x * 4;
+                out[index] = (byte) gray;
+                out[index + 1] = (byte) gray;
+                out[index + 2] = (byte) gray;
+                out[index + 3] = (byte) alpha;
+            }
+            return;
+        }
+
+        var mask = (1 << bitDepth) - 1;
+        var scale = 0xFF / mask; // 255 for 1 bit, 85 for 2 bit and 17 for 4 bit samples
+        var x = 0;
+
+        for (var byteIndex = 0; x < width; byteIndex++) {
+            int b = row[rowOffset + byteIndex] & 0xFF;
+
+            for (int shift = 8 - bitDepth; shift >= 0 && x < width; shift -= bitDepth) {
+                int gray = ((b >> shift) & mask) * scale;
+                int alpha = gray == transparentGray ? 0 : 0xFF;
+
+                int index = outOffset + x * 4;
+                out[index] = (byte) gray;
+                out[index + 1] = (byte) gray;
+                out[index + 2] = (byte) gray;
+                out[index + 3] = (byte) alpha;
+                x++;
+            }
+        }
+    }
 
-                if (transparency.isPresent() && gray16 == transparency.get().grayValue())
-                    alpha = 0;
+    /**
+     * Unpacks a single 16 bit grayscale scanline into RGBA16 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param transparentGray gray value which becomes transparent, or {@link #NO_TRANSPARENCY}
+     */
+    public static void unpackRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width, int transparentGray) {
+        for (int x = 0; x < width; x++) {
+            int inOffset = rowOffset + x * 2;
+            int gray16 = ((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF);
+
+            int alpha = gray16 == transparentGray ? 0 : 0xFFFF;
+
+            int index = outOffset + x * 4;
+            out[index] = (short) gray16;
+            out[index + 1] = (short) gray16;
+            out[index + 2] = (short) gray16;
+            out[index + 3] = (short) alpha;
+        }
+    }
 
-                int out = rowOut + x * 4;
-                pixels[out] = (short) gray16;
-                pixels[out + 1] = (short) gray16;
-                pixels[out + 2] = (short) gray16;
-                pixels[out + 3] = (short) alpha;
+    /**
+     * Unpacks a single grayscale scanline of 1, 2, 4 or 8 bits per sample into one byte per pixel, or gray-alpha
+     * byte pairs if the image has a transparent gray value. Samples below 8 bits are scaled up to the full byte range.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where gray or gray-alpha pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param bitDepth bits per sample
+     * @param transparentGray scaled gray value which becomes transparent, or {@link #NO_TRANSPARENCY}
+     */
+    public static void unpackCompactRow8(byte[] row, int rowOffset, byte[] out, int outOffset, int width, int bitDepth, int transparentGray) {
+        if (bitDepth == 8 && transparentGray == NO_TRANSPARENCY) {
+            System.arraycopy(row, rowOffset, out, outOffset, width);
+            return;
+        }
+
+        var channels = transparentGray == NO_TRANSPARENCY ? 1 : 2;
+        var mask = (1 << bitDepth) - 1;
+        var scale = 0xFF / mask;
+        var x = 0;
+
+        for (var byteIndex = 0; x < width; byteIndex++) {
+            int b = row[rowOffset + byteIndex] & 0xFF;
+
+            for (int shift = 8 - bitDepth; shift >= 0 && x < width; shift -= bitDepth) {
+                int gray = ((b >> shift) & mask) * scale;
+                int index = outOffset + x * channels;
+
+                out[index] = (byte) gray;
+                if (channels == 2)
+                    out[index + 1] = (byte) (gray == transparentGray ? 0 : 0xFF);
+                x++;
             }
-        });
+        }
+    }
 
-        return new StaticImage16(width, height, pixels, StaticImage.Format.GRAY16, chunkMap);
+    /**
+     * Unpacks a single 16 bit grayscale scanline into one short per pixel, or gray-alpha pairs if the image has a
+     * transparent gray value.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where gray or gray-alpha pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param transparentGray gray value which becomes transparent, or {@link #NO_TRANSPARENCY}
+     */
+    public static void unpackCompactRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width, int transparentGray) {
+        var channels = transparentGray == NO_TRANSPARENCY ? 1 : 2;
+
+        for (int x = 0; x < width; x++) {
+            int inOffset = rowOffset + x * 2;
+            int gray16 = ((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF);
+
+            int index = outOffset + x * channels;
+            out[index] = (short) gray16;
+            if (channels == 2)
+                out[index + 1] = (short) (gray16 == transparentGray ? 0 : 0xFFFF);
+        }
     }
 }
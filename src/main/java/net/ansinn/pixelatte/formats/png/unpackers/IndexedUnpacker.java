@@ -33,18 +33,19 @@ public class IndexedUnpacker {
 
     public static StaticImage unpackIndexed(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         return switch (header.bitDepth()) {
-            case 1 -> unpackIndexed1Bit(filtered, header, chunkMap);
-            case 2 -> unpackIndexed2Bit(filtered, header, chunkMap);
-            case 4 -> unpackIndexed4Bit(filtered, header, chunkMap);
-            case 8 -> unpackIndexed8Bit(filtered, header, chunkMap);
+            case 1, 2, 4, 8 -> unpackIndexedImage(filtered, header, chunkMap);
             default ->
                     throw new IllegalStateException("Unexpected bit-depth: " + header.bitDepth() + ", for color-type indexed.");
         };
     }
 
-    private static StaticImage unpackIndexed1Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        var width = header.width();
-        var height = header.height();
+    /**
+     * Flattens the PLTE chunk and an optional tRNS chunk into a 256 entry RGBA table, so every index can be
+     * resolved with a single lookup. Entries missing from tRNS are fully opaque as required by the spec.
+     * @param chunkMap chunks of the image
+     * @return 1024 byte table holding four RGBA bytes per palette index
+     */
+    public static byte[] buildPalette(ChunkMap chunkMap) {
         var palette = chunkMap.getFirst(PLTE.class)
                 .orElseThrow(() -> new IllegalStateException("PLTE chunk required for indexed PNG type."));
 
@@ -52,150 +53,116 @@ public class IndexedUnpacker {
         byte[] alphaPalette = transparency.map(tRNS.Indexed::alpha).orElse(null);
 
         var colors = palette.colors();
-        var pixels = new byte[width * height * 4];
-
-        IntStream.range(0, header.height()).parallel().forEach(y -> {
-            var rowIn = y * ((width + 7) / 8);
-            var rowOut = y * width * 4;
-            var x = 0;
-
-            for (var i = 0; i < (width + 7) / 8; i++) {
-
-                // Get the LUT entry for this whole byte
-                byte[] indices = LUT_1BIT[filtered[rowIn + i] & 0xFF];
-
-                for (int pixelIndex = 0; pixelIndex < 8 && x < width; pixelIndex++) {
-                    int index = indices[pixelIndex];
-                    var color = colors[index];
-                    var out = rowOut + x * 4;
-
-                    pixels[out] = color.red();
-                    pixels[out + 1] = color.green();
-                    pixels[out + 2] = color.blue();
+        var table = new byte[256 * 4];
 
-                    // Alpha lookup
-                    pixels[out + 3] = (alphaPalette != null) ? alphaPalette[index] : (byte) 0xFF;
+        for (var index = 0; index < 256; index++) {
+            var out = index * 4;
 
-                    x++;
-                }
+            if (index < colors.length) {
+                var color = colors[index];
+                table[out] = color.red();
+                table[out + 1] = color.green();
+                table[out + 2] = color.blue();
             }
-        });
-
-        return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
-    }
-
-    private static StaticImage unpackIndexed2Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        var width = header.width();
-        var height = header.height();
-        var palette = chunkMap.getFirst(PLTE.class)
-                .orElseThrow(() -> new IllegalStateException("PLTE chunk required for indexed PNG type."));
-
-        var transparency = chunkMap.getFirst(tRNS.Indexed.class);
-        byte[] alphaPalette = transparency.map(tRNS.Indexed::alpha).orElse(null);
-
-        var colors = palette.colors();
-        var pixels = new byte[width * height * 4];
 
-        IntStream.range(0, header.height()).parallel().forEach(y -> {
-            var rowIn = y * ((width + 3) / 4);
-            var rowOut = y * width * 4;
-            var x = 0;
+            table[out + 3] = (alphaPalette != null && index < alphaPalette.length) ? alphaPalette[index] : (byte) 0xFF;
+        }
 
-            for (var i = 0; i < (width + 3) / 4; i++) {
-                byte[] indices = LUT_2BIT[filtered[rowIn + i] & 0xFF];
+        return table;
+    }
 
-                // 4 Pixels per byte
-                for (int pixelIndex = 0; pixelIndex < 4 && x < width; pixelIndex++) {
-                    int index = indices[pixelIndex];
-                    var color = colors[index];
-                    var out = rowOut + x * 4;
+    /**
+     * Packs the table of {@link #buildPalette(ChunkMap)} into a single int per palette index.
+     * @param chunkMap chunks of the image
+     * @return 256 entries holding the RGBA bytes of a color in little endian order
+     */
+    public static int[] buildPaletteLut(ChunkMap chunkMap) {
+        var table = buildPalette(chunkMap);
+        var lut = new int[256];
+
+        for (var index = 0; index < 256; index++) {
+            var entry = index * 4;
+            lut[index] = (table[entry] & 0xFF)
+                    | (table[entry + 1] & 0xFF) << 8
+                    | (table[entry + 2] & 0xFF) << 16
+                    | (table[entry + 3] & 0xFF) << 24;
+        }
 
-                    pixels[out] = color.red();
-                    pixels[out + 1] = color.green();
-                    pixels[out + 2] = color.blue();
+        return lut;
+    }
 
-                    // Check if alpha palette exists, otherwise opaque
-                    pixels[out + 3] = (alphaPalette != null) ? alphaPalette[index] : (byte) 0xFF;
+    /**
+     * Builds a table resolving every index to itself within the red channel, unpacking rows through it spreads out
+     * packed indices to one per pixel.
+     * @return 1024 byte table holding the index as red and zero for every other channel
+     */
+    public static byte[] identityPalette() {
+        var table = new byte[256 * 4];
 
-                    x++;
-                }
-            }
-        });
+        for (var index = 0; index < 256; index++)
+            table[index * 4] = (byte) index;
 
-        return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
+        return table;
     }
 
-    private static StaticImage unpackIndexed4Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
+    private static StaticImage unpackIndexedImage(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         var width = header.width();
         var height = header.height();
-        var palette = chunkMap.getFirst(PLTE.class)
-                .orElseThrow(() -> new IllegalStateException("PLTE chunk required for indexed PNG type."));
-
-        var transparency = chunkMap.getFirst(tRNS.Indexed.class);
-        byte[] alphaPalette = transparency.map(tRNS.Indexed::alpha).orElse(null);
-
-        var colors = palette.colors();
-        var pixels = new byte[width * height * 4];
-
-        IntStream.range(0, header.height()).parallel().forEach(y -> {
-            var rowIn = y * ((width + 1) / 2);
-            var rowOut = y * width * 4;
-            var x = 0;
+        var bitDepth = header.bitDepth();
+        var rowLength = header.getScanlineByteLength();
+        var palette = buildPalette(chunkMap);
+        var pixels = new byte[StaticImage.Format.RGBA8.arrayLength(width, height)];
 
-            for (var i = 0; i < (width + 1) / 2; i++) {
-                byte[] indices = LUT_4BIT[filtered[rowIn + i] & 0xFF];
-
-                // 2 Pixels per byte
-                for (int pixelIndex = 0; pixelIndex < 2 && x < width; pixelIndex++) {
-                    int index = indices[pixelIndex];
-                    var color = colors[index];
-                    var out = rowOut + x * 4;
-
-                    pixels[out] = color.red();
-                    pixels[out + 1] = color.green();
-                    pixels[out + 2] = color.blue();
-                    pixels[out + 3] = (alphaPalette != null) ? alphaPalette[index] : (byte) 0xFF;
-
-                    x++;
-                }
-            }
-        });
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow(filtered, y * rowLength, pixels, y * width * 4, width, bitDepth, palette));
 
         return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
     }
 
-    private static StaticImage unpackIndexed8Bit(byte[] filtered, IHDR header, ChunkMap chunkMap) {
-        var width = header.width();
-        var height = header.height();
-        var palette = chunkMap.getFirst(PLTE.class)
-                .orElseThrow(() -> new IllegalStateException("PLTE chunk required for indexed PNG type."));
-        var transparency = chunkMap.getFirst(tRNS.Indexed.class);
-
-        var colors = palette.colors();
-        var pixels = new byte[width * height * 4];
-
-        IntStream.range(0, header.height()).parallel().forEach(y -> {
-            var rowStart = y * width;
-            var outStart = rowStart * 4;
-
+    /**
+     * Unpacks a single indexed scanline of 1, 2, 4 or 8 bits per index into RGBA8 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param bitDepth bits per palette index
+     * @param palette RGBA table created through {@link #buildPalette(ChunkMap)}
+     */
+    public static void unpackRow(byte[] row, int rowOffset, byte[] out, int outOffset, int width, int bitDepth, byte[] palette) {
+        if (bitDepth == 8) {
             for (var x = 0; x < width; x++) {
-                var index = Byte.toUnsignedInt(filtered[rowStart + x]);
+                writeEntry(palette, Byte.toUnsignedInt(row[rowOffset + x]), out, outOffset + x * 4);
+            }
+            return;
+        }
 
-                var i = outStart + x * 4;
-                var color = colors[index];
-                pixels[i] = color.red();
-                pixels[i + 1] = color.green();
-                pixels[i + 2] = color.blue();
+        // Get the LUT which splits a whole byte into its indices
+        var lut = switch (bitDepth) {
+            case 1 -> LUT_1BIT;
+            case 2 -> LUT_2BIT;
+            case 4 -> LUT_4BIT;
+            default -> throw new IllegalStateException("Unexpected bit-depth: " + bitDepth + ", for color-type indexed.");
+        };
 
-                var alpha = (byte) 0xFF;
+        var pixelsPerByte = 8 / bitDepth;
+        var x = 0;
 
-                if (transparency.isPresent())
-                    alpha = transparency.get().alpha()[index];
+        for (var i = 0; x < width; i++) {
+            byte[] indices = lut[row[rowOffset + i] & 0xFF];
 
-                pixels[i + 3] = alpha;
+            for (int pixelIndex = 0; pixelIndex < pixelsPerByte && x < width; pixelIndex++) {
+                writeEntry(palette, indices[pixelIndex], out, outOffset + x * 4);
+                x++;
             }
-        });
+        }
+    }
 
-        return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
+    private static void writeEntry(byte[] palette, int index, byte[] out, int outOffset) {
+        var entry = index * 4;
+        out[outOffset] = palette[entry];
+        out[outOffset + 1] = palette[entry + 1];
+        out[outOffset + 2] = palette[entry + 2];
+        out[outOffset + 3] = palette[entry + 3];
     }
 }
@@ -17,6 +17,9 @@ public class TrueColorAlphaUnpacker {
     private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
     private static final VectorSpecies<Short> SHORT_SPECIES = ShortVector.SPECIES_PREFERRED;
 
+    // Pre calculate shuffle pattern to swap bytes from big endian to little endian
+    private static final VectorShuffle<Byte> BYTE_SWAP_SHUFFLE = VectorShuffle.fromOp(BYTE_SPECIES, i -> i ^ 1);
+
     public static StaticImage unpackTrueColorAlpha(byte[] filtered, IHDR header, ChunkMap chunkMap) {
         return switch (header.bitDepth()) {
             case 8 -> unpackTrueColorAlpha8Bit(filtered, header, chunkMap);
@@ -30,9 +33,9 @@ public class TrueColorAlphaUnpacker {
         var width = header.width();
         var height = header.height();
         var bpp = 4;
-        var pixels = new byte[width * height * 4];
+        var pixels = new byte[StaticImage.Format.RGBA8.arrayLength(width, height)];
 
-        System.arraycopy(filtered, 0, pixels, 0, width * height * 4);
+        System.arraycopy(filtered, 0, pixels, 0, pixels.length);
 
         return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
     }
@@ -42,48 +45,65 @@ public class TrueColorAlphaUnpacker {
         var height = header.height();
         var bpp = 8;
 
-        var pixels = new short[width * height * 4];
-
-        // Pre calculate shuffle pattern to swap bytes from big endian to little endian
-        var byteSwapShuffle = VectorShuffle.fromOp(BYTE_SPECIES, i -> i ^ 1);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * width * bpp;
-            var rowOut = y * width * 4;
-
-            var totalShorts = width * 4;
-            var loopLimit = totalShorts - SHORT_SPECIES.length();
-
-            var byteIndex = 0;
-
-            // Vector logic
-            for (; byteIndex < loopLimit; byteIndex += SHORT_SPECIES.length()) {
-                // Load our raw bytes
-                var byteVec = ByteVector.fromArray(BYTE_SPECIES, filtered, rowIn + (byteIndex * 2));
+        var pixels = new short[StaticImage.Format.RGBA16.arrayLength(width, height)];
 
-                byteVec = byteVec.rearrange(byteSwapShuffle);
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow16(filtered, y * width * bpp, pixels, y * width * 4, width));
 
-                var shortVec = byteVec.reinterpretAsShorts();
-                shortVec.intoArray(pixels, rowOut + byteIndex);
-            }
-
-            // Scalar cleanup
-            for (; byteIndex < totalShorts; byteIndex += 4) {
-                int inOffset = rowIn + (byteIndex * 2);
-                int outOffset = rowOut + byteIndex;
-
-                short r = (short) (((filtered[inOffset] & 0xFF) << 8) | (filtered[inOffset + 1] & 0xFF));
-                short g = (short) (((filtered[inOffset + 2] & 0xFF) << 8) | (filtered[inOffset + 3] & 0xFF));
-                short b = (short) (((filtered[inOffset + 4] & 0xFF) << 8) | (filtered[inOffset + 5] & 0xFF));
-                short a = (short) (((filtered[inOffset + 6] & 0xFF) << 8) | (filtered[inOffset + 7] & 0xFF));
+        return new StaticImage16(width, height, pixels, StaticImage.Format.RGBA16, chunkMap);
+    }
 
-                pixels[outOffset] = r;
-                pixels[outOffset + 1] = g;
-                pixels[outOffset + 2] = b;
-                pixels[outOffset + 3] = a;
-            }
-        });
+    /**
+     * Unpacks a single 8 bit truecolor-alpha scanline, which is already laid out as RGBA8.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackRow8(byte[] row, int rowOffset, byte[] out, int outOffset, int width) {
+        System.arraycopy(row, rowOffset, out, outOffset, width * 4);
+    }
 
-        return new StaticImage16(width, height, pixels, StaticImage.Format.RGBA16, chunkMap);
+    /**
+     * Unpacks a single 16 bit truecolor-alpha scanline into RGBA16 pixels by swapping big endian samples.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width) {
+        var totalShorts = width * 4;
+        var loopLimit = totalShorts - SHORT_SPECIES.length();
+
+        var byteIndex = 0;
+
+        // Vector logic
+        for (; byteIndex < loopLimit; byteIndex += SHORT_SPECIES.length()) {
+            // Load our raw bytes
+            var byteVec = ByteVector.fromArray(BYTE_SPECIES, row, rowOffset + (byteIndex * 2));
+
+            byteVec = byteVec.rearrange(BYTE_SWAP_SHUFFLE);
+
+            var shortVec = byteVec.reinterpretAsShorts();
+            shortVec.intoArray(out, outOffset + byteIndex);
+        }
+
+        // Scalar cleanup
+        for (; byteIndex < totalShorts; byteIndex += 4) {
+            int inOffset = rowOffset + (byteIndex * 2);
+            int index = outOffset + byteIndex;
+
+            short r = (short) (((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF));
+            short g = (short) (((row[inOffset + 2] & 0xFF) << 8) | (row[inOffset + 3] & 0xFF));
+            short b = (short) (((row[inOffset + 4] & 0xFF) << 8) | (row[inOffset + 5] & 0xFF));
+            short a = (short) (((row[inOffset + 6] & 0xFF) << 8) | (row[inOffset + 7] & 0xFF));
+
+            out[index] = r;
+            out[index + 1] = g;
+            out[index + 2] = b;
+            out[index + 3] = a;
+        }
     }
 }
@@ -24,35 +24,11 @@ public class TrueColorUnpacker {
         var width = header.width();
         var height = header.height();
         var bpp = 3;
-        var pixels = new byte[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.TrueColor.class);
+        var pixels = new byte[StaticImage.Format.RGBA8.arrayLength(width, height)];
+        var transparency = chunkMap.getFirst(tRNS.TrueColor.class).orElse(null);
 
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * width * bpp;
-            var rowOut = y * width * 4;
-
-            for (int x = 0; x < width; x++) {
-                var inOffset = rowIn + x * 3;
-                var outOffset = rowOut + x * 4;
-
-                var red = Byte.toUnsignedInt(filtered[inOffset]);
-                var green = Byte.toUnsignedInt(filtered[inOffset + 1]);
-                var blue = Byte.toUnsignedInt(filtered[inOffset + 2]);
-
-                var alpha = 0xFF;
-                if (transparency.isPresent()) {
-                    var t = transparency.get();
-
-                    if (t.red() == red && t.green() == green && t.blue() == blue)
-                        alpha = 0x00;
-                }
-
-                pixels[outOffset] = (byte) red;
-                pixels[outOffset + 1] = (byte) green;
-                pixels[outOffset + 2] = (byte) blue;
-                pixels[outOffset + 3] = (byte) alpha;
-            }
-        });
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow8(filtered, y * width * bpp, pixels, y * width * 4, width, transparency));
 
         return new StaticImage8(width, height, pixels, StaticImage.Format.RGBA8, chunkMap);
     }
@@ -61,39 +37,89 @@ public class TrueColorUnpacker {
         var width = header.width();
         var height = header.height();
         var bpp = 6;
-        var pixels = new short[width * height * 4];
-        var transparency = chunkMap.getFirst(tRNS.TrueColor.class);
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            var rowIn = y * width * bpp;
-            var rowOut = y * width * 4;
-
-            for (var x = 0; x < width; x++) {
-                var inOffset = rowIn + x * 6;
-                var outOffset = rowOut + x * 4;
-
-                // Collect RGB in 16-bit format for sake of clarity
-                var red16 = ((filtered[inOffset] & 0xFF) << 8) | (filtered[inOffset + 1] & 0xFF);
-                var green16 = ((filtered[inOffset + 2] & 0xFF) << 8) | (filtered[inOffset + 3] & 0xFF);
-                var blue16 = ((filtered[inOffset + 4] & 0xFF) << 8) | (filtered[inOffset + 5] & 0xFF);
-
-                var alpha = 0xFFFF;
-                // Compare against 16 bit values for transparency
-                if (transparency.isPresent()) {
-                    var t = transparency.get();
-                    if (t.red() == red16 && t.green() == green16 && t.blue() == blue16) {
-                        alpha = 0x00;
-                    }
-                }
-
-                pixels[outOffset]     = (short) red16;
-                pixels[outOffset + 1] = (short) green16;
-                pixels[outOffset + 2] = (short) blue16;
-                pixels[outOffset + 3] = (short) alpha;
-            }
-        });
+        var pixels = new short[StaticImage.Format.RGBA16.arrayLength(width, height)];
+        var transparency = chunkMap.getFirst(tRNS.TrueColor.class).orElse(null);
+
+        IntStream.range(0, height).parallel().forEach(y ->
+                unpackRow16(filtered, y * width * bpp, pixels, y * width * 4, width, transparency));
 
         return new StaticImage16(width, height, pixels, StaticImage.Format.RGBA16, chunkMap);
     }
 
+    /**
+     * Unpacks a single 8 bit truecolor scanline into RGBA8 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param transparency color which becomes transparent, or null if the image has none
+     */
+    public static void unpackRow8(byte[] row, int rowOffset, byte[] out, int outOffset, int width, tRNS.TrueColor transparency) {
+        for (int x = 0; x < width; x++) {
+            var inOffset = rowOffset + x * 3;
+            var index = outOffset + x * 4;
+
+            var red = Byte.toUnsignedInt(row[inOffset]);
+            var green = Byte.toUnsignedInt(row[inOffset + 1]);
+            var blue = Byte.toUnsignedInt(row[inOffset + 2]);
+
+            var alpha = 0xFF;
+            if (transparency != null && transparency.red() == red && transparency.green() == green && transparency.blue() == blue)
+                alpha = 0x00;
+
+            out[index] = (byte) red;
+            out[index + 1] = (byte) green;
+            out[index + 2] = (byte) blue;
+            out[index + 3] = (byte) alpha;
+        }
+    }
+
+    /**
+     * Unpacks a single 16 bit truecolor scanline into RGBA16 pixels.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     * @param transparency color which becomes transparent, or null if the image has none
+     */
+    public static void unpackRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width, tRNS.TrueColor transparency) {
+        for (var x = 0; x < width; x++) {
+            var inOffset = rowOffset + x * 6;
+            var index = outOffset + x * 4;
+
+            // Collect RGB in 16-bit format for sake of clarity
+            var red16 = ((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF);
+            var green16 = ((row[inOffset + 2] & 0xFF) << 8) | (row[inOffset + 3] & 0xFF);
+            var blue16 = ((row[inOffset + 4] & 0xFF) << 8) | (row[inOffset + 5] & 0xFF);
+
+            var alpha = 0xFFFF;
+            // Compare against 16 bit values for transparency
+            if (transparency != null && transparency.red() == red16 && transparency.green() == green16 && transparency.blue() == blue16)
+                alpha = 0x00;
+
+            out[index]     = (short) red16;
+            out[index + 1] = (short) green16;
+            out[index + 2] = (short) blue16;
+            out[index + 3] = (short) alpha;
+        }
+    }
+
+    /**
+     * Unpacks a single 16 bit truecolor scanline into RGB16 pixels. 8 bit scanlines already are RGB8 and are copied
+     * as they are.
+     * @param row unfiltered scanline data
+     * @param rowOffset offset of the first byte of the scanline
+     * @param out where RGB pixels are written to
+     * @param outOffset offset of the first output pixel
+     * @param width pixels within the scanline
+     */
+    public static void unpackCompactRow16(byte[] row, int rowOffset, short[] out, int outOffset, int width) {
+        for (var i = 0; i < width * 3; i++) {
+            var inOffset = rowOffset + i * 2;
+            out[outOffset + i] = (short) (((row[inOffset] & 0xFF) << 8) | (row[inOffset + 1] & 0xFF));
+        }
+    }
+
 }
@@ -0,0 +1,39 @@
+package net.ansinn.pixelatte.output;
+
+import java.util.Objects;
+
+/**
+ * Scale an image is reduced by while it's being decoded.
+ * @param factor amount of source pixels per output pixel along each axis, 2, 4 or 8
+ * @param filter how the source pixels of an output pixel are combined
+ */
+public record Downscale(int factor, Filter filter) {
+
+    public enum Filter {
+        /**
+         * Takes the top left source pixel. Rows in between are decoded but never unpacked, sampled rows are unpacked
+         * in full before their columns are picked.
+         */
+        POINT,
+
+        /**
+         * Averages every source pixel, each channel on its own.
+         */
+        BOX
+    }
+
+    public Downscale {
+        if (factor != 2 && factor != 4 && factor != 8)
+            throw new IllegalArgumentException("Downscale factor has to be 2, 4 or 8: " + factor);
+
+        Objects.requireNonNull(filter, "Filter cannot be null");
+    }
+
+    /**
+     * @param size width or height of the source image
+     * @return the size scaled down, rounded up so partially covered blocks still produce a pixel
+     */
+    public int scale(int size) {
+        return (size + factor - 1) / factor;
+    }
+}
@@ -0,0 +1,32 @@
+package net.ansinn.pixelatte.output;
+
+import net.ansinn.pixelatte.output.safe.PixelResource;
+
+/**
+ * Lightweight description of an image gathered from its header alone, without decoding any pixel data.
+ * @param width width of the image in pixels
+ * @param height height of the image in pixels
+ * @param bitDepth bits per sample as stored within the file
+ * @param format format the image is decoded as
+ * @param interlaced whether the pixel data is interlaced
+ * @param animated whether the image is an animation, even one of a single frame
+ * @param frameCount amount of animation frames, 1 for static images
+ * @param loopCount amount of times an animation plays, 0 meaning forever
+ */
+public record ImageInfo(int width, int height, int bitDepth, PixelResource.Format format, boolean interlaced,
+                        boolean animated, int frameCount, int loopCount) {
+
+    /**
+     * @return whether the image decodes as an animation, which an animated PNG does even with a single frame
+     */
+    public boolean isAnimated() {
+        return animated;
+    }
+
+    /**
+     * @return amount of bytes the decoded pixel data takes up
+     */
+    public long decodedByteSize() {
+        return (long) width * height * format.channels() * format.sampleSize();
+    }
+}
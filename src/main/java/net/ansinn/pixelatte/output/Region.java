@@ -0,0 +1,28 @@
+package net.ansinn.pixelatte.output;
+
+/**
+ * Rectangle of pixels within an image.
+ * @param x left most column of the region
+ * @param y top most row of the region
+ * @param width width of the region in pixels
+ * @param height height of the region in pixels
+ */
+public record Region(int x, int y, int width, int height) {
+
+    public Region {
+        if (x < 0 || y < 0)
+            throw new IllegalArgumentException("Region cannot start at a negative position: " + x + ", " + y);
+
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Region has to be at least 1x1: " + width + "x" + height);
+    }
+
+    /**
+     * @param imageWidth width of the image
+     * @param imageHeight height of the image
+     * @return true if the region lies entirely within an image of the given size
+     */
+    public boolean fitsWithin(int imageWidth, int imageHeight) {
+        return (long) x + width <= imageWidth && (long) y + height <= imageHeight;
+    }
+}
@@ -1,6 +1,8 @@
 package net.ansinn.pixelatte.output.safe;
 
 import java.time.Duration;
+import java.util.AbstractList;
+import java.util.List;
 
 public sealed interface AnimatedImage<T extends StaticImage> extends PixelResource permits AnimatedImage8, AnimatedImage16 {
 
@@ -10,13 +12,86 @@ public sealed interface AnimatedImage<T extends StaticImage> extends PixelResour
     int frameCount();
     int loopCount();
 
+    /**
+     * @return frames as they're stored, each covering its own region of the canvas
+     */
+    FrameSource<T> source();
+
+    /**
+     * View of the frames as they're stored. Frames which aren't held in memory are decoded whenever they're accessed.
+     * @return list of the frames
+     */
+    default List<Frame<T>> frames() {
+        var source = source();
+
+        return new AbstractList<>() {
+            @Override
+            public Frame<T> get(int index) {
+                return source.frame(index);
+            }
+
+            @Override
+            public int size() {
+                return source.size();
+            }
+        };
+    }
+
+    /**
+     * Decodes every frame up front, for when all of them are about to be used anyway. Frames of an animated PNG are
+     * separate zlib streams, they're inflated, unfiltered and unpacked in parallel, each on an inflater of its own.
+     * Composing them in order through {@link #compositor()} is then left to blend.
+     * @return the same animation holding every frame in memory
+     */
+    AnimatedImage<T> decodeAll();
+
     default boolean isInfinite() {
         return  (loopCount() == 0);
     }
 
-    Duration totalDuration();
+    default Duration totalDuration() {
+        return source().timeline().totalDuration();
+    }
 
+    /**
+     * Finds the frame shown at a point in time of the playback. Once a finite amount of loops has played out, the
+     * last frame stays up.
+     * @param duration time since the playback started
+     * @return index of the frame
+     */
+    default int frameIndexAt(Duration duration) {
+        return frameIndexAt(duration.toNanos());
+    }
+
+    /**
+     * Finds the frame shown at a point in time of the playback, like {@link #frameIndexAt(Duration)}. Looking up a
+     * frame is a binary search over the precomputed {@link Timeline}, it doesn't allocate.
+     * @param nanos time since the playback started in nanoseconds
+     * @return index of the frame
+     */
+    default int frameIndexAt(long nanos) {
+        return source().timeline().frameAt(nanos, loopCount());
+    }
+
+    /**
+     * Creates a compositor to play the animation with, which composes one frame after another on a canvas of its own.
+     * @return a new compositor
+     */
+    FrameCompositor<T> compositor();
+
+    /**
+     * Composes a single frame of the animation.
+     * @param duration time since the playback started
+     * @return the composed frame, covering the whole canvas
+     */
     Frame<T> getFrameAt(Duration duration);
+
+    /**
+     * Composes a single frame of the animation, starting from the closest canvas cached by earlier seeks. Playing the
+     * animation is cheaper through {@link #compositor()}, which only composes every frame once.
+     * @param index index of the frame
+     * @return the composed frame, covering the whole canvas
+     */
     Frame<T> getFrame(int index);
 
 }
@@ -1,24 +1,113 @@
 package net.ansinn.pixelatte.output.safe;
 
 import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
 
-public record AnimatedImage16(
-        int frameCount,
-        int loopCount,
-        int width,
-        int height,
-        Format format,
-        ChunkMap chunkMap,
-        StaticImage16 thumbnail
-) implements AnimatedImage<StaticImage16>, BitDepth.Bit16 {
+/**
+ * Animation of 16 bit frames. The frame source and the cache of composed canvases are filled lazily while the
+ * animation is used, so they're kept out of its value: animations are only equal if they're the same instance.
+ */
+public final class AnimatedImage16 implements AnimatedImage<StaticImage16>, BitDepth.Bit16 {
+
+    private final int loopCount;
+    private final int width;
+    private final int height;
+    private final Format format;
+    private final ChunkMap chunkMap;
+    private final StaticImage16 thumbnail;
+    private final FrameSource<StaticImage16> source;
+    private final KeyframeCache<short[]> keyframes;
+
+    public AnimatedImage16(int loopCount, int width, int height, Format format, ChunkMap chunkMap,
+                           StaticImage16 thumbnail, FrameSource<StaticImage16> source) {
+        this(loopCount, width, height, format, chunkMap, thumbnail, source,
+                new KeyframeCache<>(KeyframeCache.DEFAULT_CAPACITY, short[]::new));
+    }
+
+    public AnimatedImage16(int loopCount, int width, int height, Format format, ChunkMap chunkMap,
+                           StaticImage16 thumbnail, List<Frame<StaticImage16>> frames) {
+        this(loopCount, width, height, format, chunkMap, thumbnail, FrameSource.of(frames));
+    }
+
+    private AnimatedImage16(int loopCount, int width, int height, Format format, ChunkMap chunkMap,
+                            StaticImage16 thumbnail, FrameSource<StaticImage16> source,
+                            KeyframeCache<short[]> keyframes) {
+        this.loopCount = loopCount;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.chunkMap = chunkMap;
+        this.thumbnail = thumbnail;
+        this.source = Objects.requireNonNull(source, "Frame source cannot be null");
+        this.keyframes = keyframes;
+    }
+
+    @Override
+    public int frameCount() {
+        return source.size();
+    }
+
+    @Override
+    public int loopCount() {
+        return loopCount;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public Format format() {
+        return format;
+    }
+
+    @Override
+    public ChunkMap chunkMap() {
+        return chunkMap;
+    }
+
+    @Override
+    public StaticImage16 thumbnail() {
+        return thumbnail;
+    }
+
+    @Override
+    public FrameSource<StaticImage16> source() {
+        return source;
+    }
+
+    /**
+     * @return canvases cached by seeks, shared by every compositor of the animation
+     */
+    public KeyframeCache<short[]> keyframes() {
+        return keyframes;
+    }
 
     @Override
     public AnimatedImage16 copy() {
-        // Ensure the thumbnail is also deep-copied.
+        // Ensure the thumbnail is also deep-copied, frames are copied without decoding the ones that aren't yet.
         StaticImage16 thumbnailCopy = this.thumbnail.copy();
-        return new AnimatedImage16(this.frameCount, this.loopCount, this.width, this.height, this.format, this.chunkMap, thumbnailCopy);
+        return new AnimatedImage16(this.loopCount, this.width, this.height, this.format, this.chunkMap, thumbnailCopy,
+                this.source.copy());
+    }
+
+    @Override
+    public AnimatedImage16 decodeAll() {
+        var decoded = source.decodeAll();
+
+        // Composed canvases don't depend on where the frames came from, so the cache carries over
+        return decoded == source ? this
+                : new AnimatedImage16(loopCount, width, height, format, chunkMap, thumbnail, decoded, keyframes);
     }
 
     @Override
@@ -27,17 +116,26 @@ public record AnimatedImage16(
     }
 
     @Override
-    public Duration totalDuration() {
-        return null;
+    public FrameCompositor16 compositor() {
+        return new FrameCompositor16(this);
     }
 
     @Override
     public Frame<StaticImage16> getFrameAt(Duration duration) {
-        return null;
+        return getFrame(frameIndexAt(duration));
     }
 
     @Override
     public Frame<StaticImage16> getFrame(int index) {
-        return null;
+        var canvas = compositor().seek(index).copy();
+
+        return new Frame<>(canvas, source.info(index).delay(), 0, 0,
+                fcTL.DisposeOp.APNG_DISPOSE_OP_NONE, fcTL.BlendOp.APNG_BLEND_OP_SOURCE);
+    }
+
+    @Override
+    public String toString() {
+        return "AnimatedImage16[frameCount=" + frameCount() + ", loopCount=" + loopCount + ", width=" + width
+                + ", height=" + height + ", format=" + format + "]";
     }
 }
@@ -0,0 +1,56 @@
+package net.ansinn.pixelatte.output.safe;
+
+import java.util.List;
+
+/**
+ * Frames that are held in memory in full.
+ */
+final class DecodedFrames<T extends StaticImage> implements FrameSource<T> {
+
+    private final List<Frame<T>> frames;
+    private final FrameInfo[] infos;
+    private final Timeline timeline;
+
+    DecodedFrames(List<Frame<T>> frames) {
+        this.frames = List.copyOf(frames);
+        this.infos = new FrameInfo[this.frames.size()];
+
+        for (var i = 0; i < infos.length; i++) {
+            var frame = this.frames.get(i);
+            infos[i] = new FrameInfo(frame.image().width(), frame.image().height(), frame.xOffset(), frame.yOffset(),
+                    frame.delay(), frame.disposeOp(), frame.blendOp());
+        }
+
+        this.timeline = Timeline.of(infos);
+    }
+
+    @Override
+    public int size() {
+        return infos.length;
+    }
+
+    @Override
+    public FrameInfo info(int index) {
+        return infos[index];
+    }
+
+    @Override
+    public Timeline timeline() {
+        return timeline;
+    }
+
+    @Override
+    public T image(int index) {
+        return frames.get(index).image();
+    }
+
+    @Override
+    public Frame<T> frame(int index) {
+        return frames.get(index);
+    }
+
+    @Override
+    public FrameSource<T> decodeAll() {
+        return this;
+    }
+}
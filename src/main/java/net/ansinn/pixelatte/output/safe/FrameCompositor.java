@@ -0,0 +1,245 @@
+package net.ansinn.pixelatte.output.safe;
+
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL;
+
+import java.util.Objects;
+
+/**
+ * Composes the frames of an animation onto a single canvas, applying the dispose and blend operations of every frame
+ * in order. The canvas and the snapshot kept for {@link fcTL.DisposeOp#APNG_DISPOSE_OP_PREVIOUS} are allocated once,
+ * so stepping through frames that are already decoded doesn't allocate.
+ * <p>
+ * Seeking doesn't replay the whole animation. It starts from whichever is closest to the target: the frame on the
+ * canvas, a frame that doesn't depend on the ones before it, or a canvas cached in the {@link KeyframeCache} of the
+ * animation. Seeks cache a canvas every {@value #KEYFRAME_INTERVAL} frames on their way.
+ * <p>
+ * The image returned by {@link #canvas()} is a live view, it changes whenever the compositor moves to another frame.
+ * Copy it to hold on to a frame. A compositor isn't thread safe, every player should use its own.
+ *
+ * @param <T> type of the frames and the canvas
+ */
+public abstract sealed class FrameCompositor<T extends StaticImage> permits FrameCompositor8, FrameCompositor16 {
+
+    public static final int KEYFRAME_INTERVAL = 8;
+
+    protected final FrameSource<T> frames;
+    protected final int width;
+    protected final int height;
+
+    // Index of the frame currently on the canvas, -1 while the canvas is still blank
+    private int index = -1;
+
+    // Whether the frame on the canvas was disposed of already, leaving the canvas the next frame is drawn onto
+    private boolean disposed;
+
+    FrameCompositor(FrameSource<T> frames, int width, int height) {
+        this.frames = Objects.requireNonNull(frames, "Frames cannot be null");
+        this.width = width;
+        this.height = height;
+
+        if (frames.size() == 0)
+            throw new IllegalArgumentException("An animation needs at least one frame");
+
+        for (var i = 0; i < frames.size(); i++) {
+            var info = frames.info(i);
+
+            if (info.xOffset() < 0 || info.yOffset() < 0
+                    || info.xOffset() + info.width() > width || info.yOffset() + info.height() > height)
+                throw new IllegalArgumentException("Frame at " + info.xOffset() + "," + info.yOffset() + " of size "
+                        + info.width() + "x" + info.height() + " exceeds the " + width + "x" + height + " canvas");
+        }
+    }
+
+    /**
+     * @return view of the canvas, holding the frame at {@link #index()}
+     */
+    public abstract T canvas();
+
+    /**
+     * @return index of the frame on the canvas, -1 if no frame was composed yet
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Composes the next frame, starting over at the first one after the last.
+     * @return view of the canvas
+     */
+    public T advance() {
+        if (index == frames.size() - 1)
+            reset();
+
+        disposeShown();
+        draw(++index);
+        return canvas();
+    }
+
+    /**
+     * Composes the frame at an index.
+     * @param target index of the frame
+     * @return view of the canvas
+     */
+    public T seek(int target) {
+        Objects.checkIndex(target, frames.size());
+
+        if (target == index)
+            return canvas();
+
+        var next = target > index ? index + 1 : -1;
+        var independent = independentStart(target);
+        var cached = cachedKeyframe(target);
+
+        // The cache is shared by the whole animation, so the keyframe may be evicted before it's loaded
+        if (cached > next && cached >= independent && loadKeyframe(cached)) {
+            index = cached - 1;
+            disposed = true;
+        } else if (independent > next) {
+            clear(0, 0, width, height);
+            index = independent - 1;
+            disposed = true;
+        }
+
+        while (index < target) {
+            disposeShown();
+
+            if ((index + 1) % KEYFRAME_INTERVAL == 0)
+                storeKeyframe(index + 1);
+
+            draw(++index);
+        }
+
+        return canvas();
+    }
+
+    /**
+     * Clears the canvas to transparent black, as it is before the first frame.
+     */
+    public void reset() {
+        clear(0, 0, width, height);
+        index = -1;
+        disposed = false;
+    }
+
+    // The frame on the canvas is disposed of right before the next one is drawn
+    private void disposeShown() {
+        if (index < 0 || disposed)
+            return;
+
+        var shown = frames.info(index);
+
+        switch (disposeOp(index)) {
+            case APNG_DISPOSE_OP_NONE -> {}
+            case APNG_DISPOSE_OP_BACKGROUND -> clear(shown.xOffset(), shown.yOffset(), shown.width(), shown.height());
+            case APNG_DISPOSE_OP_PREVIOUS -> restore(shown);
+        }
+
+        disposed = true;
+    }
+
+    private void draw(int frame) {
+        var info = frames.info(frame);
+        var image = frames.image(frame);
+
+        if (image.width() != info.width() || image.height() != info.height())
+            throw new IllegalStateException("Frame " + frame + " decoded to " + image.width() + "x" + image.height()
+                    + " rather than " + info.width() + "x" + info.height());
+
+        if (image.format().channels() != 4)
+            throw new IllegalStateException("Frames have to be RGBA: " + image.format());
+
+        if (disposeOp(frame) == fcTL.DisposeOp.APNG_DISPOSE_OP_PREVIOUS)
+            save(info);
+
+        switch (info.blendOp()) {
+            case APNG_BLEND_OP_SOURCE -> source(info, image);
+            case APNG_BLEND_OP_OVER -> over(info, image);
+        }
+
+        disposed = false;
+    }
+
+    /**
+     * Finds the latest frame up to the target which composes the same on a blank canvas as it does after the frames
+     * before it. That's a frame replacing the whole canvas, or one following a frame which cleared the whole canvas.
+     */
+    private int independentStart(int target) {
+        for (var frame = target; frame > 0; frame--) {
+            var info = frames.info(frame);
+
+            // Disposing to previous would restore what was underneath, which a blank canvas doesn't know
+            if (info.blendOp() == fcTL.BlendOp.APNG_BLEND_OP_SOURCE && info.covers(width, height)
+                    && info.disposeOp() != fcTL.DisposeOp.APNG_DISPOSE_OP_PREVIOUS)
+                return frame;
+
+            if (disposeOp(frame - 1) == fcTL.DisposeOp.APNG_DISPOSE_OP_BACKGROUND && frames.info(frame - 1).covers(width, height))
+                return frame;
+        }
+
+        return 0;
+    }
+
+    // The first frame has nothing to revert to, the spec treats previous as background for it
+    private fcTL.DisposeOp disposeOp(int frame) {
+        var op = frames.info(frame).disposeOp();
+
+        return frame == 0 && op == fcTL.DisposeOp.APNG_DISPOSE_OP_PREVIOUS ? fcTL.DisposeOp.APNG_DISPOSE_OP_BACKGROUND : op;
+    }
+
+    /**
+     * @return amount of pixels the snapshot has to hold, the largest frame disposed to previous
+     */
+    protected int previousPixels() {
+        var pixels = 0;
+
+        for (var i = 1; i < frames.size(); i++) {
+            var info = frames.info(i);
+
+            if (info.disposeOp() == fcTL.DisposeOp.APNG_DISPOSE_OP_PREVIOUS)
+                pixels = Math.max(pixels, info.width() * info.height());
+        }
+
+        return pixels;
+    }
+
+    /**
+     * @return the closest frame at or before the target with a cached canvas, -1 if there's none
+     */
+    protected abstract int cachedKeyframe(int target);
+
+    /**
+     * Replaces the canvas with the cached canvas of a frame.
+     * @return false if the canvas of the frame isn't cached anymore, leaving the canvas as it was
+     */
+    protected abstract boolean loadKeyframe(int frame);
+
+    /**
+     * Caches the canvas as the one the given frame is drawn onto.
+     */
+    protected abstract void storeKeyframe(int frame);
+
+    /**
+     * Clears a region of the canvas to transparent black.
+     */
+    protected abstract void clear(int x, int y, int regionWidth, int regionHeight);
+
+    /**
+     * Copies the canvas underneath a frame into the snapshot.
+     */
+    protected abstract void save(FrameInfo frame);
+
+    /**
+     * Copies the snapshot back onto the canvas underneath a frame.
+     */
+    protected abstract void restore(FrameInfo frame);
+
+    /**
+     * Overwrites the canvas underneath a frame with the frame.
+     */
+    protected abstract void source(FrameInfo frame, T image);
+
+    /**
+     * Composites a frame over the canvas based on its alpha.
+     */
+    protected abstract void over(FrameInfo frame, T image);
+}
@@ -0,0 +1,134 @@
+package net.ansinn.pixelatte.output.safe;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Composes RGBA16 frames. Products of 16 bit samples outgrow the precision of a float, so blending takes the formula
+ * of the APNG spec in double precision, one pixel at a time.
+ */
+public final class FrameCompositor16 extends FrameCompositor<StaticImage16> {
+
+    private final short[] canvas;
+    private final short[] previous;
+    private final StaticImage16 view;
+    private final KeyframeCache<short[]> keyframes;
+
+    public FrameCompositor16(AnimatedImage16 animation) {
+        this(animation.source(), animation.width(), animation.height(), animation.chunkMap(), animation.keyframes());
+    }
+
+    /**
+     * @param frames frames to compose
+     * @param width width of the canvas
+     * @param height height of the canvas
+     * @param chunkMap chunks handed on to the canvas
+     * @param keyframes cache of composed canvases, possibly shared with other compositors of the same frames
+     */
+    public FrameCompositor16(FrameSource<StaticImage16> frames, int width, int height, ChunkMap chunkMap,
+                             KeyframeCache<short[]> keyframes) {
+        super(frames, width, height);
+
+        this.keyframes = Objects.requireNonNull(keyframes, "Keyframe cache cannot be null");
+        this.canvas = new short[PixelResource.Format.RGBA16.arrayLength(width, height)];
+        this.previous = new short[previousPixels() * 4];
+        this.view = new StaticImage16(width, height, canvas, PixelResource.Format.RGBA16, chunkMap);
+    }
+
+    @Override
+    public StaticImage16 canvas() {
+        return view;
+    }
+
+    @Override
+    protected int cachedKeyframe(int target) {
+        return keyframes.floor(target);
+    }
+
+    @Override
+    protected boolean loadKeyframe(int frame) {
+        return keyframes.load(frame, canvas);
+    }
+
+    @Override
+    protected void storeKeyframe(int frame) {
+        keyframes.store(frame, canvas);
+    }
+
+    @Override
+    protected void clear(int x, int y, int regionWidth, int regionHeight) {
+        for (var row = 0; row < regionHeight; row++) {
+            var offset = ((y + row) * width + x) * 4;
+            Arrays.fill(canvas, offset, offset + regionWidth * 4, (short) 0);
+        }
+    }
+
+    @Override
+    protected void save(FrameInfo frame) {
+        var stride = frame.width() * 4;
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(canvas, canvasOffset(frame, row), previous, row * stride, stride);
+    }
+
+    @Override
+    protected void restore(FrameInfo frame) {
+        var stride = frame.width() * 4;
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(previous, row * stride, canvas, canvasOffset(frame, row), stride);
+    }
+
+    @Override
+    protected void source(FrameInfo frame, StaticImage16 image) {
+        var stride = frame.width() * 4;
+        var pixels = image.data();
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(pixels, row * stride, canvas, canvasOffset(frame, row), stride);
+    }
+
+    @Override
+    protected void over(FrameInfo frame, StaticImage16 image) {
+        var stride = frame.width() * 4;
+        var pixels = image.data();
+
+        for (var row = 0; row < frame.height(); row++) {
+            var sourceOffset = row * stride;
+            var targetOffset = canvasOffset(frame, row);
+
+            for (var i = 0; i < stride; i += 4)
+                blendPixel(pixels, sourceOffset + i, canvas, targetOffset + i);
+        }
+    }
+
+    private int canvasOffset(FrameInfo frame, int row) {
+        return ((frame.yOffset() + row) * width + frame.xOffset()) * 4;
+    }
+
+    private static void blendPixel(short[] source, int sourceOffset, short[] target, int targetOffset) {
+        double srcAlpha = source[sourceOffset + 3] & 0xFFFF;
+
+        if (srcAlpha == 65535.0) {
+            System.arraycopy(source, sourceOffset, target, targetOffset, 4);
+            return;
+        }
+
+        if (srcAlpha == 0.0)
+            return;
+
+        var dstWeight = (target[targetOffset + 3] & 0xFFFF) * (65535.0 - srcAlpha) / 65535.0;
+        var alpha = srcAlpha + dstWeight;
+
+        for (var channel = 0; channel < 3; channel++) {
+            double src = source[sourceOffset + channel] & 0xFFFF;
+            double dst = target[targetOffset + channel] & 0xFFFF;
+
+            target[targetOffset + channel] = (short) (int) ((src * srcAlpha + dst * dstWeight) / alpha + 0.5);
+        }
+
+        target[targetOffset + 3] = (short) (int) (alpha + 0.5);
+    }
+}
@@ -0,0 +1,212 @@
+package net.ansinn.pixelatte.output.safe;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Composes RGBA8 frames. Blending over the canvas runs on vectors of whole pixels, following the non premultiplied
+ * formula of the APNG spec.
+ */
+public final class FrameCompositor8 extends FrameCompositor<StaticImage8> {
+
+    // Byte vectors can't be narrower than 64 bits, so anything below eight float lanes is widened to that
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED.length() >= 8
+            ? FloatVector.SPECIES_PREFERRED : FloatVector.SPECIES_256;
+    private static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, FLOAT_SPECIES.vectorShape());
+
+    // One sample byte per float lane
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(FLOAT_SPECIES.length() * Byte.SIZE));
+
+    // Spreads the alpha of every pixel across its four lanes
+    private static final VectorShuffle<Float> ALPHA = VectorShuffle.fromOp(FLOAT_SPECIES, lane -> lane | 3);
+    private static final VectorMask<Float> ALPHA_LANES = alphaLanes();
+
+    private final byte[] canvas;
+    private final byte[] previous;
+    private final StaticImage8 view;
+    private final KeyframeCache<byte[]> keyframes;
+
+    public FrameCompositor8(AnimatedImage8 animation) {
+        this(animation.source(), animation.width(), animation.height(), animation.chunkMap(), animation.keyframes());
+    }
+
+    /**
+     * @param frames frames to compose
+     * @param width width of the canvas
+     * @param height height of the canvas
+     * @param chunkMap chunks handed on to the canvas
+     * @param keyframes cache of composed canvases, possibly shared with other compositors of the same frames
+     */
+    public FrameCompositor8(FrameSource<StaticImage8> frames, int width, int height, ChunkMap chunkMap,
+                            KeyframeCache<byte[]> keyframes) {
+        super(frames, width, height);
+
+        this.keyframes = Objects.requireNonNull(keyframes, "Keyframe cache cannot be null");
+        this.canvas = new byte[PixelResource.Format.RGBA8.arrayLength(width, height)];
+        this.previous = new byte[previousPixels() * 4];
+        this.view = new StaticImage8(width, height, canvas, PixelResource.Format.RGBA8, chunkMap);
+    }
+
+    @Override
+    public StaticImage8 canvas() {
+        return view;
+    }
+
+    @Override
+    protected int cachedKeyframe(int target) {
+        return keyframes.floor(target);
+    }
+
+    @Override
+    protected boolean loadKeyframe(int frame) {
+        return keyframes.load(frame, canvas);
+    }
+
+    @Override
+    protected void storeKeyframe(int frame) {
+        keyframes.store(frame, canvas);
+    }
+
+    @Override
+    protected void clear(int x, int y, int regionWidth, int regionHeight) {
+        for (var row = 0; row < regionHeight; row++) {
+            var offset = ((y + row) * width + x) * 4;
+            Arrays.fill(canvas, offset, offset + regionWidth * 4, (byte) 0);
+        }
+    }
+
+    @Override
+    protected void save(FrameInfo frame) {
+        var stride = frame.width() * 4;
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(canvas, canvasOffset(frame, row), previous, row * stride, stride);
+    }
+
+    @Override
+    protected void restore(FrameInfo frame) {
+        var stride = frame.width() * 4;
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(previous, row * stride, canvas, canvasOffset(frame, row), stride);
+    }
+
+    @Override
+    protected void source(FrameInfo frame, StaticImage8 image) {
+        var stride = frame.width() * 4;
+        var pixels = image.data();
+
+        for (var row = 0; row < frame.height(); row++)
+            System.arraycopy(pixels, row * stride, canvas, canvasOffset(frame, row), stride);
+    }
+
+    @Override
+    protected void over(FrameInfo frame, StaticImage8 image) {
+        var stride = frame.width() * 4;
+        var pixels = image.data();
+
+        for (var row = 0; row < frame.height(); row++)
+            blendRow(pixels, row * stride, canvas, canvasOffset(frame, row), stride);
+    }
+
+    private int canvasOffset(FrameInfo frame, int row) {
+        return ((frame.yOffset() + row) * width + frame.xOffset()) * 4;
+    }
+
+    /**
+     * Blends a row of RGBA8 pixels over another. Opaque and fully transparent runs are copied or skipped outright,
+     * everything else takes the exact formula in floating point.
+     * @param source pixels drawn on top
+     * @param sourceOffset offset of the first source sample
+     * @param target pixels drawn onto, receiving the result
+     * @param targetOffset offset of the first target sample
+     * @param length amount of samples, four per pixel
+     */
+    static void blendRow(byte[] source, int sourceOffset, byte[] target, int targetOffset, int length) {
+        var lanes = FLOAT_SPECIES.length();
+        var i = 0;
+
+        for (; i <= length - lanes; i += lanes) {
+            var src = unsigned(source, sourceOffset + i);
+            var srcAlpha = src.rearrange(ALPHA);
+
+            if (srcAlpha.compare(VectorOperators.EQ, 255f).allTrue()) {
+                System.arraycopy(source, sourceOffset + i, target, targetOffset + i, lanes);
+                continue;
+            }
+
+            if (srcAlpha.compare(VectorOperators.EQ, 0f).allTrue())
+                continue;
+
+            var dst = unsigned(target, targetOffset + i);
+            var dstWeight = dst.rearrange(ALPHA).mul(srcAlpha.neg().add(255f)).div(255f);
+            var alpha = srcAlpha.add(dstWeight);
+
+            // Nothing is left to see where both are transparent, the canvas is kept as is there
+            var blended = src.mul(srcAlpha).add(dst.mul(dstWeight)).div(alpha)
+                    .blend(alpha, ALPHA_LANES)
+                    .add(0.5f)
+                    .blend(dst, alpha.compare(VectorOperators.EQ, 0f));
+
+            ((ByteVector) blended.convertShape(VectorOperators.F2B, BYTE_SPECIES, 0)).intoArray(target, targetOffset + i);
+        }
+
+        for (; i < length; i += 4)
+            blendPixel(source, sourceOffset + i, target, targetOffset + i);
+    }
+
+    // Mirrors the vector path operation for operation, so results don't depend on where a pixel lands
+    private static void blendPixel(byte[] source, int sourceOffset, byte[] target, int targetOffset) {
+        float srcAlpha = source[sourceOffset + 3] & 0xFF;
+
+        if (srcAlpha == 255f) {
+            System.arraycopy(source, sourceOffset, target, targetOffset, 4);
+            return;
+        }
+
+        if (srcAlpha == 0f)
+            return;
+
+        var dstWeight = (target[targetOffset + 3] & 0xFF) * (255f - srcAlpha) / 255f;
+        var alpha = srcAlpha + dstWeight;
+
+        if (alpha == 0f)
+            return;
+
+        for (var channel = 0; channel < 3; channel++) {
+            float src = source[sourceOffset + channel] & 0xFF;
+            float dst = target[targetOffset + channel] & 0xFF;
+
+            target[targetOffset + channel] = (byte) (int) ((src * srcAlpha + dst * dstWeight) / alpha + 0.5f);
+        }
+
+        target[targetOffset + 3] = (byte) (int) (alpha + 0.5f);
+    }
+
+    private static FloatVector unsigned(byte[] array, int offset) {
+        return (FloatVector) ((IntVector) ByteVector.fromArray(BYTE_SPECIES, array, offset)
+                .convertShape(VectorOperators.B2I, INT_SPECIES, 0))
+                .and(0xFF)
+                .convertShape(VectorOperators.I2F, FLOAT_SPECIES, 0);
+    }
+
+    private static VectorMask<Float> alphaLanes() {
+        var lanes = new boolean[FLOAT_SPECIES.length()];
+
+        for (var lane = 3; lane < lanes.length; lane += 4)
+            lanes[lane] = true;
+
+        return VectorMask.fromArray(FLOAT_SPECIES, lanes, 0);
+    }
+}
@@ -0,0 +1,47 @@
+package net.ansinn.pixelatte.output.safe;
+
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL;
+
+import java.time.Duration;
+
+/**
+ * Placement and timing of a single frame of an animation, known without decoding the frame itself.
+ * @param width width of the frame in pixels
+ * @param height height of the frame in pixels
+ * @param xOffset x position of the frame on the canvas
+ * @param yOffset y position of the frame on the canvas
+ * @param delay how long the frame is shown
+ * @param disposeOp how the region of the frame is disposed of before the next frame is drawn
+ * @param blendOp how the frame is drawn onto the canvas
+ */
+public record FrameInfo(
+        int width,
+        int height,
+        int xOffset,
+        int yOffset,
+        Duration delay,
+        fcTL.DisposeOp disposeOp,
+        fcTL.BlendOp blendOp
+) {
+
+    /**
+     * Reads the placement and timing of a frame from its control chunk.
+     * @param control control chunk of the frame
+     * @return the frame info
+     */
+    public static FrameInfo of(fcTL control) {
+        // A denominator of 0 means hundredths of a second
+        long numerator = control.delayNumerator();
+        long denominator = control.delayDenominator() == 0 ? 100 : control.delayDenominator();
+
+        return new FrameInfo((int) control.width(), (int) control.height(), (int) control.xOffset(), (int) control.yOffset(),
+                Duration.ofNanos(numerator * 1_000_000_000L / denominator), control.disposeOp(), control.blendOp());
+    }
+
+    /**
+     * @return whether the frame covers a canvas of the given size entirely
+     */
+    public boolean covers(int canvasWidth, int canvasHeight) {
+        return xOffset == 0 && yOffset == 0 && width == canvasWidth && height == canvasHeight;
+    }
+}
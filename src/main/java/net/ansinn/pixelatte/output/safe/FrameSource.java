@@ -0,0 +1,82 @@
+package net.ansinn.pixelatte.output.safe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames of an animation. Placement and timing of every frame are known up front, while the pixels of a frame may
+ * only be decoded once they're asked for.
+ *
+ * @param <T> type of the frame images
+ */
+public interface FrameSource<T extends StaticImage> {
+
+    /**
+     * @return amount of frames
+     */
+    int size();
+
+    /**
+     * @param index index of the frame
+     * @return placement and timing of the frame, never requiring a decode
+     */
+    FrameInfo info(int index);
+
+    /**
+     * @return timing of every frame, computed once up front
+     */
+    Timeline timeline();
+
+    /**
+     * @param index index of the frame
+     * @return pixels of the frame, decoded first if needed
+     */
+    T image(int index);
+
+    default Frame<T> frame(int index) {
+        var info = info(index);
+        return new Frame<>(image(index), info.delay(), info.xOffset(), info.yOffset(), info.disposeOp(), info.blendOp());
+    }
+
+    /**
+     * Decodes every frame that isn't held in memory yet.
+     * @return source holding every frame in memory
+     */
+    default FrameSource<T> decodeAll() {
+        var frames = new ArrayList<Frame<T>>(size());
+
+        for (var i = 0; i < size(); i++)
+            frames.add(frame(i));
+
+        return of(frames);
+    }
+
+    /**
+     * Copies the frames, so the copy shares no pixel data with these. Frames held in memory are copied right away, a
+     * source decoding frames on demand may hand out a source decoding copies of its own instead.
+     * @return source of copied frames
+     */
+    default FrameSource<T> copy() {
+        var frames = new ArrayList<Frame<T>>(size());
+
+        for (var i = 0; i < size(); i++) {
+            var frame = frame(i);
+
+            @SuppressWarnings("unchecked")
+            var image = (T) frame.image().copy();
+            frames.add(new Frame<>(image, frame.delay(), frame.xOffset(), frame.yOffset(), frame.disposeOp(), frame.blendOp()));
+        }
+
+        return of(frames);
+    }
+
+    /**
+     * Wraps frames that are already decoded.
+     * @param frames the frames
+     * @return source of the frames
+     * @param <T> type of the frame images
+     */
+    static <T extends StaticImage> FrameSource<T> of(List<Frame<T>> frames) {
+        return new DecodedFrames<>(frames);
+    }
+}
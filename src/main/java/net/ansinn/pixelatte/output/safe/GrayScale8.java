@@ -22,6 +22,6 @@ public record GrayScale8(
 
     @Override
     public float getLuminance(int x, int y) {
-        return 0;
+        return (data[y * width + x] & 0xFF) / 255f;
     }
 }
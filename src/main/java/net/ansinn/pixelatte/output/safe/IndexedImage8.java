@@ -0,0 +1,165 @@
+package net.ansinn.pixelatte.output.safe;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.output.ImageMeta;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A palette image keeping its indices at the bit depth they were stored with, rows packed most significant bit
+ * first just like PNG scanlines. Colors are only resolved on demand, either per pixel or by expanding the whole image
+ * into RGBA8.
+ *
+ * @param width width of the image in pixels
+ * @param height height of the image in pixels
+ * @param bitDepth bits per index, 1, 2, 4 or 8
+ * @param indices packed palette indices, {@link #rowStride()} bytes per row
+ * @param palette 256 entries, each holding the RGBA bytes of a color in little endian order
+ * @param chunkMap chunks of the image
+ */
+public record IndexedImage8(
+        int width,
+        int height,
+        int bitDepth,
+        byte[] indices,
+        int[] palette,
+        ChunkMap chunkMap
+) implements ImageMeta {
+
+    // Writing a palette entry in little endian order yields its RGBA bytes
+    private static final VarHandle RGBA = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // One index byte per int lane, at least 64 bits wide since narrower byte vectors don't exist
+    private static final VectorSpecies<Byte> INDEX_SPECIES = indexSpecies(INT_SPECIES);
+
+    public IndexedImage8 {
+        if (bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8)
+            throw new IllegalArgumentException("Unexpected bit-depth: " + bitDepth + ", for an indexed image.");
+
+        if (palette.length != 256)
+            throw new IllegalArgumentException("Palette has to hold 256 entries: " + palette.length);
+
+        if (indices.length < ((long) width * bitDepth + 7) / 8 * height)
+            throw new IllegalArgumentException("Indices don't cover a " + width + "x" + height + " image.");
+    }
+
+    /**
+     * @return amount of bytes between the start of two consecutive rows of indices
+     */
+    public int rowStride() {
+        return (width * bitDepth + 7) / 8;
+    }
+
+    public int getIndex(int x, int y) {
+        var bit = x * bitDepth;
+        var packed = indices[y * rowStride() + (bit >> 3)] & 0xFF;
+
+        return (packed >> (8 - bitDepth - (bit & 7))) & ((1 << bitDepth) - 1);
+    }
+
+    public int getARGB(int x, int y) {
+        var entry = palette[getIndex(x, y)];
+
+        // Rotate the alpha byte from the top of the little endian RGBA entry to the top of an ARGB int
+        var red = entry & 0xFF;
+        var green = (entry >> 8) & 0xFF;
+        var blue = (entry >> 16) & 0xFF;
+        var alpha = entry >>> 24;
+
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Resolves a single row of indices into RGBA8 pixels.
+     * @param y row to expand
+     * @param out where RGBA pixels are written to
+     * @param outOffset offset of the first output pixel
+     */
+    public void expandRow(int y, byte[] out, int outOffset) {
+        expandRow(y, out, outOffset, new int[INT_SPECIES.length()], bitDepth == 8 ? null : new byte[width]);
+    }
+
+    /**
+     * Resolves every index into a regular RGBA8 image.
+     * @return the expanded image
+     */
+    public StaticImage8 expand() {
+        var pixels = new byte[PixelResource.Format.RGBA8.arrayLength(width, height)];
+
+        IntStream.range(0, height).parallel().forEach(y ->
+                expandRow(y, pixels, y * width * 4, new int[INT_SPECIES.length()], bitDepth == 8 ? null : new byte[width]));
+
+        return new StaticImage8(width, height, pixels, PixelResource.Format.RGBA8, chunkMap);
+    }
+
+    private void expandRow(int y, byte[] out, int outOffset, int[] lanes, byte[] unpacked) {
+        var row = indices;
+        var rowOffset = y * rowStride();
+
+        // Sub byte indices are spread out to one byte each first, so every depth shares the vector path
+        if (unpacked != null) {
+            for (var x = 0; x < width; x++)
+                unpacked[x] = (byte) getIndex(x, y);
+
+            row = unpacked;
+            rowOffset = 0;
+        }
+
+        expandIndices(row, rowOffset, width, palette, out, outOffset, lanes, INT_SPECIES, INDEX_SPECIES);
+    }
+
+    /**
+     * @param intSpecies species the palette colors are gathered with
+     * @return byte species loading the indices for it, widened to ints in as many parts as it holds int vectors
+     */
+    static VectorSpecies<Byte> indexSpecies(VectorSpecies<Integer> intSpecies) {
+        return VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, intSpecies.length() * Byte.SIZE)));
+    }
+
+    /**
+     * Resolves a row of byte sized indices into RGBA8 pixels.
+     * @param lanes scratch space of an int vector
+     * @param intSpecies species the palette colors are gathered with
+     * @param indexSpecies species the indices are loaded with, see {@link #indexSpecies(VectorSpecies)}
+     */
+    static void expandIndices(byte[] row, int rowOffset, int width, int[] palette, byte[] out, int outOffset,
+                              int[] lanes, VectorSpecies<Integer> intSpecies, VectorSpecies<Byte> indexSpecies) {
+        var parts = indexSpecies.length() / intSpecies.length();
+        var x = 0;
+        var limit = width - indexSpecies.length();
+
+        for (; x <= limit; x += indexSpecies.length()) {
+            var loaded = ByteVector.fromArray(indexSpecies, row, rowOffset + x);
+
+            for (var part = 0; part < parts; part++) {
+                var widened = (IntVector) loaded.convertShape(VectorOperators.B2I, intSpecies, part);
+
+                // Gathers need their indices in an array
+                widened.and(0xFF).intoArray(lanes, 0);
+
+                IntVector.fromArray(intSpecies, palette, 0, lanes, 0)
+                        .reinterpretAsBytes()
+                        .intoArray(out, outOffset + (x + part * intSpecies.length()) * 4);
+            }
+        }
+
+        for (; x < width; x++)
+            RGBA.set(out, outOffset + x * 4, palette[row[rowOffset + x] & 0xFF]);
+    }
+
+    @Override
+    public IndexedImage8 copy() {
+        return new IndexedImage8(width, height, bitDepth, Arrays.copyOf(indices, indices.length), palette.clone(), chunkMap);
+    }
+}
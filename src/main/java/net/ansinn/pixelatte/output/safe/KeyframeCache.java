@@ -0,0 +1,126 @@
+package net.ansinn.pixelatte.output.safe;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded cache of composed canvases, each holding the canvas right before a given frame is drawn onto it. Seeking
+ * starts from the closest cached canvas rather than replaying the animation from its start. Once full, the least
+ * recently used canvas is overwritten, so a warmed up cache doesn't allocate.
+ *
+ * @param <A> array type of the canvases
+ */
+public final class KeyframeCache<A> {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final IntFunction<A> allocator;
+
+    // Frame of every slot, -1 while the slot is empty
+    private final int[] frames;
+    private final Object[] canvases;
+    private final long[] lastUse;
+    private long clock;
+
+    /**
+     * @param capacity amount of canvases kept at most
+     * @param allocator creates a canvas array of the given length
+     */
+    public KeyframeCache(int capacity, IntFunction<A> allocator) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+
+        this.allocator = allocator;
+        this.frames = new int[capacity];
+        this.canvases = new Object[capacity];
+        this.lastUse = new long[capacity];
+
+        Arrays.fill(frames, -1);
+    }
+
+    /**
+     * @param frame frame to seek to
+     * @return the closest frame at or before the given one with a cached canvas, -1 if there's none
+     */
+    public synchronized int floor(int frame) {
+        var closest = -1;
+
+        for (var cached : frames)
+            if (cached <= frame && cached > closest)
+                closest = cached;
+
+        return closest;
+    }
+
+    /**
+     * Copies the cached canvas of a frame.
+     * @param frame frame whose canvas is loaded
+     * @param canvas receives the cached canvas
+     * @return false if no canvas is cached for the frame
+     */
+    public synchronized boolean load(int frame, A canvas) {
+        var slot = slotOf(frame);
+
+        if (slot < 0)
+            return false;
+
+        System.arraycopy(canvases[slot], 0, canvas, 0, Array.getLength(canvas));
+        lastUse[slot] = ++clock;
+        return true;
+    }
+
+    /**
+     * Caches a copy of the canvas a frame is about to be drawn onto.
+     * @param frame frame about to be drawn
+     * @param canvas canvas to copy
+     */
+    public synchronized void store(int frame, A canvas) {
+        if (frames.length == 0)
+            return;
+
+        var slot = slotOf(frame);
+
+        if (slot >= 0) {
+            lastUse[slot] = ++clock;
+            return;
+        }
+
+        // Empty slots were never used, so they're picked first
+        slot = 0;
+
+        for (var i = 1; i < frames.length; i++)
+            if (lastUse[i] < lastUse[slot])
+                slot = i;
+
+        var length = Array.getLength(canvas);
+
+        if (canvases[slot] == null || Array.getLength(canvases[slot]) != length)
+            canvases[slot] = allocator.apply(length);
+
+        System.arraycopy(canvas, 0, canvases[slot], 0, length);
+        frames[slot] = frame;
+        lastUse[slot] = ++clock;
+    }
+
+    /**
+     * @return amount of cached canvases
+     */
+    public synchronized int size() {
+        var size = 0;
+
+        for (var frame : frames)
+            if (frame >= 0)
+                size++;
+
+        return size;
+    }
+
+    private int slotOf(int frame) {
+        for (var slot = 0; slot < frames.length; slot++)
+            if (frames[slot] == frame)
+                return slot;
+
+        return -1;
+    }
+}
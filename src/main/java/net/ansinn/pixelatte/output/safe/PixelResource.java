@@ -11,19 +11,70 @@ public sealed interface PixelResource extends ImageMeta permits AnimatedImage, S
     Format format();
     ChunkMap chunkMap();
 
+    @Override
+    PixelResource copy();
+
+    /**
+     * Memory layout of the pixel data, samples of a pixel are stored next to each other in the listed order.
+     */
     enum Format {
-        RGBA8(4), RGB8(3), GRAY8(1),
-        RGBA16(4), RGB16(3), GRAY16(1);
+        RGBA8(4, 1), RGB8(3, 1), GRAY8(1, 1), GRAY_ALPHA8(2, 1),
+        RGBA16(4, 2), RGB16(3, 2), GRAY16(1, 2), GRAY_ALPHA16(2, 2);
+
+        // Largest array length every VM hands out, a few header words short of Integer.MAX_VALUE
+        public static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
 
         private final int channels;
+        private final int sampleSize;
 
-        Format(int channels) {
+        Format(int channels, int sampleSize) {
             this.channels = channels;
+            this.sampleSize = sampleSize;
         }
 
+        /**
+         * @return samples per pixel
+         */
         public int channels() {
             return channels;
         }
+
+        /**
+         * @return bytes per sample
+         */
+        public int sampleSize() {
+            return sampleSize;
+        }
+
+        /**
+         * Get the length of a heap array holding every sample of an image in this format.
+         * @param width width of the image in pixels
+         * @param height height of the image in pixels
+         * @return samples of the image
+         * @throws IllegalArgumentException if the samples don't fit a single array, such images have to be decoded
+         *                                  into a memory segment instead
+         */
+        public int arrayLength(int width, int height) {
+            var samples = (long) width * height * channels;
+
+            if (samples > MAX_ARRAY_LENGTH)
+                throw new IllegalArgumentException("A " + width + "x" + height + " " + this + " image holds " + samples
+                        + " samples, more than a heap array can, decode it off-heap instead");
+
+            return (int) samples;
+        }
+
+        /**
+         * @return the format with the same channels at 8 bits per sample
+         */
+        public Format to8Bit() {
+            return switch (this) {
+                case RGBA8, RGBA16 -> RGBA8;
+                case RGB8, RGB16 -> RGB8;
+                case GRAY8, GRAY16 -> GRAY8;
+                case GRAY_ALPHA8, GRAY_ALPHA16 -> GRAY_ALPHA8;
+            };
+        }
     }
 
     /**
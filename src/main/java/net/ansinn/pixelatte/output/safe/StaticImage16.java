@@ -14,7 +14,7 @@ public record StaticImage16(
 
     @Override
     public void flipHorizontal() {
-        final int channels = 4;
+        final int channels = format.channels();
         int rowStride = width * channels;
         short[] tempPixel = new short[channels];
         for (int y = 0; y < height; y++) {
@@ -36,7 +36,7 @@ public record StaticImage16(
 
     @Override
     public void flipVertical() {
-        final int channels = 4;
+        final int channels = format.channels();
         int rowStride = width * channels;
         short[] tempRow = new short[rowStride];
 
@@ -71,7 +71,7 @@ public record StaticImage16(
             newPixels[i] = (byte) ((data[i] & 0xFFFF) >>> 8);
         }
 
-        return new StaticImage8(width, height, newPixels, format, chunkMap);
+        return new StaticImage8(width, height, newPixels, format.to8Bit(), chunkMap);
     }
 
 }
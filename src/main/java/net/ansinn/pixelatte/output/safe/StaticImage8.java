@@ -12,20 +12,28 @@ public record StaticImage8(
         ChunkMap chunkMap
 ) implements StaticImage, BitDepth.Bit8 {
 
+    // Gray formats replicate their single sample across red, green and blue, formats without alpha are opaque
+
     public int getRed(int x, int y) {
         return data[normalizeIndex(x, y)] & 0xFF;
     }
 
     public int getGreen(int x, int y) {
-        return data[normalizeIndex(x, y) + 1] & 0xFF;
+        var index = normalizeIndex(x, y);
+        return data[format.channels() >= 3 ? index + 1 : index] & 0xFF;
     }
 
     public int getBlue(int x, int y) {
-        return data[normalizeIndex(x, y) + 2] & 0xFF;
+        var index = normalizeIndex(x, y);
+        return data[format.channels() >= 3 ? index + 2 : index] & 0xFF;
     }
 
     public int getAlpha(int x, int y) {
-        return data[normalizeIndex(x, y) + 3] & 0xFF;
+        return switch (format.channels()) {
+            case 2 -> data[normalizeIndex(x, y) + 1] & 0xFF;
+            case 4 -> data[normalizeIndex(x, y) + 3] & 0xFF;
+            default -> 0xFF;
+        };
     }
 
     public int getARGB(int x, int y) {
@@ -37,13 +45,25 @@ public record StaticImage8(
         return (alpha << 24) | (red << 16) | (green << 8) | blue;
     }
 
+    /**
+     * Views a single channel gray image as {@link GrayScale8}, sharing its pixel data.
+     * @return the grayscale view
+     * @throws IllegalStateException if the image has any other format
+     */
+    public GrayScale8 asGrayscale() {
+        if (format != Format.GRAY8)
+            throw new IllegalStateException("Image isn't single channel gray: " + format);
+
+        return new GrayScale8(width, height, data, format, chunkMap);
+    }
+
     private int normalizeIndex(int x, int y) {
-        return (y * width + x) * 4;
+        return (y * width + x) * format.channels();
     }
 
     @Override
     public void flipHorizontal() {
-        final int channels = 4;
+        final int channels = format.channels();
         int rowStride = width * channels;
         byte[] tempPixel = new byte[channels];
         for (int y = 0; y < height; y++) {
@@ -65,7 +85,7 @@ public record StaticImage8(
 
     @Override
     public void flipVertical() {
-        final int channels = 4;
+        final int channels = format.channels();
         int rowStride = width * channels;
         byte[] tempRow = new byte[rowStride];
         for (int y1 = 0; y1 < height / 2; y1++) {
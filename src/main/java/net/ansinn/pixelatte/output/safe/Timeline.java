@@ -0,0 +1,97 @@
+package net.ansinn.pixelatte.output.safe;
+
+import java.time.Duration;
+
+/**
+ * Timing of every frame of an animation, precomputed as the running total of the frame delays. Mapping playback time
+ * to a frame is a binary search over those totals, which neither loops over the frames nor allocates.
+ */
+public final class Timeline {
+
+    // ends[i] is the time in nanoseconds at which frame i is replaced by the next one
+    private final long[] ends;
+
+    private Timeline(long[] ends) {
+        this.ends = ends;
+    }
+
+    /**
+     * Sums up the delays of the frames.
+     * @param frames placement and timing of every frame, in order
+     * @return the timeline of the frames
+     */
+    public static Timeline of(FrameInfo[] frames) {
+        var ends = new long[frames.length];
+        var total = 0L;
+
+        for (var i = 0; i < frames.length; i++) {
+            total = Math.addExact(total, frames[i].delay().toNanos());
+            ends[i] = total;
+        }
+
+        return new Timeline(ends);
+    }
+
+    /**
+     * @return amount of frames
+     */
+    public int size() {
+        return ends.length;
+    }
+
+    /**
+     * @return length of a single loop in nanoseconds
+     */
+    public long totalNanos() {
+        return ends.length == 0 ? 0 : ends[ends.length - 1];
+    }
+
+    public Duration totalDuration() {
+        return Duration.ofNanos(totalNanos());
+    }
+
+    /**
+     * @param index index of the frame
+     * @return time in nanoseconds since the start of a loop at which the frame is shown
+     */
+    public long startNanos(int index) {
+        return index == 0 ? 0 : ends[index - 1];
+    }
+
+    /**
+     * Finds the frame shown at a point in time of the playback. Once a finite amount of loops has played out, the
+     * last frame stays up. Frames without a delay are never shown.
+     * @param nanos time since the playback started in nanoseconds
+     * @param loopCount amount of loops to play, 0 to loop forever
+     * @return index of the frame
+     */
+    public int frameAt(long nanos, int loopCount) {
+        if (nanos < 0)
+            throw new IllegalArgumentException("Playback time cannot be negative: " + nanos + "ns");
+
+        var total = totalNanos();
+
+        if (total == 0)
+            return 0;
+
+        if (loopCount != 0 && nanos / total >= loopCount)
+            return ends.length - 1;
+
+        var time = nanos % total;
+
+        // First frame ending after the time
+        var low = 0;
+        var high = ends.length - 1;
+
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+
+            if (ends[middle] > time)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+
+        return low;
+    }
+}
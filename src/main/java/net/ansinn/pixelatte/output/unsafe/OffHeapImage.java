@@ -1,10 +1,119 @@
 package net.ansinn.pixelatte.output.unsafe;
 
-public interface OffHeapImage {
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * The interface for images living outside the Java heap. The pixel memory is owned by the arena the image was
+ * decoded into, so an image must not be accessed after that arena has been closed.
+ */
+public sealed interface OffHeapImage permits OffHeapImage8, OffHeapImage16 {
 
     int width();
     int height();
 
+    PixelResource.Format format();
+    ChunkMap chunkMap();
+
+    /**
+     * @return amount of bytes between the start of two consecutive rows
+     */
+    long stride();
+
+    /**
+     * @return the segment holding every row of the image
+     */
+    MemorySegment segment();
+
+    /**
+     * @return amount of bytes a single sample occupies
+     */
+    int sampleSize();
+
+    /**
+     * @return amount of bytes a single pixel occupies
+     */
+    default int pixelSize() {
+        return format().channels() * sampleSize();
+    }
+
+    /**
+     * Get a view of a single row of the image.
+     * @param y row to slice out
+     * @return segment covering the pixels of the row
+     */
+    default MemorySegment row(int y) {
+        return segment().asSlice(y * stride(), (long) width() * pixelSize());
+    }
+
+    /**
+     * @return size of the pixel memory in bytes
+     */
+    default long byteSize() {
+        return segment().byteSize();
+    }
+
+    default long normalizeIndex(int x, int y) {
+        return y * stride() + (long) x * pixelSize();
+    }
+
+    /**
+     * Get a view of a region of the image, sharing its pixel memory and stride. Nothing is copied, so views of huge
+     * images can be handed to code expecting images of a more manageable size.
+     * @param region region to view
+     * @return image covering the region
+     */
+    default OffHeapImage region(Region region) {
+        if (!region.fitsWithin(width(), height()))
+            throw new IllegalArgumentException("Region " + region + " exceeds the image bounds of " + width() + "x" + height());
+
+        var length = (region.height() - 1) * stride() + (long) region.width() * pixelSize();
+        var view = segment().asSlice(normalizeIndex(region.x(), region.y()), length);
+
+        return switch (this) {
+            case OffHeapImage8 image -> new OffHeapImage8(region.width(), region.height(), stride(), view, image.format(), image.chunkMap());
+            case OffHeapImage16 image -> new OffHeapImage16(region.width(), region.height(), stride(), view, image.format(), image.chunkMap());
+        };
+    }
+
+    /**
+     * @param tileSize width and height of a tile in pixels
+     * @return amount of tiles covering the width of the image
+     */
+    default int tileColumns(int tileSize) {
+        return (int) (((long) width() + tileSize - 1) / tileSize);
+    }
+
+    /**
+     * @param tileSize width and height of a tile in pixels
+     * @return amount of tiles covering the height of the image
+     */
+    default int tileRows(int tileSize) {
+        return (int) (((long) height() + tileSize - 1) / tileSize);
+    }
+
+    /**
+     * Get a view of a tile of a square grid laid over the image. Tiles along the right and bottom edge are cut off
+     * where the image ends.
+     * @param column column of the tile, counted from the left
+     * @param row row of the tile, counted from the top
+     * @param tileSize width and height of a tile in pixels
+     * @return image covering the tile
+     */
+    default OffHeapImage tile(int column, int row, int tileSize) {
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("Tile size has to be positive: " + tileSize);
+
+        if (column < 0 || row < 0 || column >= tileColumns(tileSize) || row >= tileRows(tileSize))
+            throw new IllegalArgumentException("Tile " + column + ", " + row + " lies outside of the image");
+
+        var x = column * tileSize;
+        var y = row * tileSize;
 
+        return region(new Region(x, y, Math.min(tileSize, width() - x), Math.min(tileSize, height() - y)));
+    }
 
 }
@@ -0,0 +1,46 @@
+package net.ansinn.pixelatte.output.unsafe;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static net.ansinn.pixelatte.output.safe.PixelResource.Format;
+
+/**
+ * An image holding 16 bit RGBA samples in native byte order within a memory segment.
+ */
+public record OffHeapImage16(
+        int width,
+        int height,
+        long stride,
+        MemorySegment segment,
+        Format format,
+        ChunkMap chunkMap
+) implements OffHeapImage {
+
+    public int getRed(int x, int y) {
+        return getSample(x, y, 0);
+    }
+
+    public int getGreen(int x, int y) {
+        return getSample(x, y, 1);
+    }
+
+    public int getBlue(int x, int y) {
+        return getSample(x, y, 2);
+    }
+
+    public int getAlpha(int x, int y) {
+        return getSample(x, y, 3);
+    }
+
+    private int getSample(int x, int y, int channel) {
+        return segment.get(ValueLayout.JAVA_SHORT_UNALIGNED, normalizeIndex(x, y) + (long) channel * Short.BYTES) & 0xFFFF;
+    }
+
+    @Override
+    public int sampleSize() {
+        return Short.BYTES;
+    }
+}
@@ -0,0 +1,51 @@
+package net.ansinn.pixelatte.output.unsafe;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static net.ansinn.pixelatte.output.safe.PixelResource.Format;
+
+/**
+ * An image holding 8 bit RGBA samples within a memory segment.
+ */
+public record OffHeapImage8(
+        int width,
+        int height,
+        long stride,
+        MemorySegment segment,
+        Format format,
+        ChunkMap chunkMap
+) implements OffHeapImage {
+
+    public int getRed(int x, int y) {
+        return segment.get(ValueLayout.JAVA_BYTE, normalizeIndex(x, y)) & 0xFF;
+    }
+
+    public int getGreen(int x, int y) {
+        return segment.get(ValueLayout.JAVA_BYTE, normalizeIndex(x, y) + 1) & 0xFF;
+    }
+
+    public int getBlue(int x, int y) {
+        return segment.get(ValueLayout.JAVA_BYTE, normalizeIndex(x, y) + 2) & 0xFF;
+    }
+
+    public int getAlpha(int x, int y) {
+        return segment.get(ValueLayout.JAVA_BYTE, normalizeIndex(x, y) + 3) & 0xFF;
+    }
+
+    public int getARGB(int x, int y) {
+        var red = getRed(x, y);
+        var green = getGreen(x, y);
+        var blue = getBlue(x, y);
+        var alpha = getAlpha(x, y);
+
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    @Override
+    public int sampleSize() {
+        return Byte.BYTES;
+    }
+}
@@ -1,10 +1,16 @@
 package net.ansinn.ByteBarista;
 
+import net.ansinn.ByteBarista.annotations.UnsignedByte;
+import net.ansinn.ByteBarista.annotations.UnsignedInteger;
+import net.ansinn.ByteBarista.annotations.UnsignedShort;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 class DynamicRecordDecoderTest {
 
     @Test
@@ -31,11 +37,66 @@ class DynamicRecordDecoderTest {
     }
 
     @Test
-    void testClassGen() {
-        var clazzName = "typeWrapper";
-        var methodName = "name";
+    void dynamicMatchesSimpleDecoder() throws Throwable {
+        var nums = 40;
+        var buffer = ByteBuffer.allocate((Integer.BYTES + Integer.BYTES + Float.BYTES) * nums);
+        var random = new Random(7);
+
+        for (var i = 0; i < nums; i++) {
+            buffer.putInt(random.nextInt());
+            buffer.putInt(random.nextInt());
+            buffer.putFloat(random.nextFloat());
+        }
+        buffer.flip();
+
+        var decoder = DynamicRecordDecoder.getDecoder(test.class);
+        var copy = buffer.duplicate();
+
+        for (var i = 0; i < nums; i++)
+            assertEquals(SimpleRecordDecoder.decodeRecord(copy, test.class), decoder.apply(buffer));
+
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void decodesEnumsAndUnsignedFields() throws Throwable {
+        var buffer = ByteBuffer.allocate(ClassUtils.getRecordSize(mixed.class))
+                .put((byte) 2)
+                .put((byte) 0xFE)
+                .putInt(0xFFFFFFF0)
+                .putShort((short) 0xFFFE)
+                .putLong(-5)
+                .flip();
 
+        var expected = new mixed(Kind.C, (short) 0xFE, 0xFFFFFFF0L, 0xFFFE, -5);
+
+        assertEquals(expected, DynamicRecordDecoder.getDecoder(mixed.class).apply(buffer.duplicate()));
+        assertEquals(expected, SimpleRecordDecoder.decodeRecord(buffer.duplicate(), mixed.class));
+    }
+
+    @Test
+    void readsInTheBufferByteOrder() {
+        var buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(1).putInt(2).putFloat(3).flip();
+
+        assertEquals(new test(1, 2, 3), DynamicRecordDecoder.getDecoder(test.class).apply(buffer));
+    }
+
+    @Test
+    void decodersAreCached() {
+        assertSame(DynamicRecordDecoder.getDecoder(test.class), DynamicRecordDecoder.getDecoder(test.class));
+    }
+
+    @Test
+    void shortBufferIsRejected() {
+        var buffer = ByteBuffer.allocate(11);
+
+        assertThrows(IllegalStateException.class, () -> DynamicRecordDecoder.getDecoder(test.class).apply(buffer));
+        assertEquals(0, buffer.position());
     }
 
     public record test(int a, int b, float c) {}
+
+    public enum Kind { A, B, C }
+
+    public record mixed(Kind kind, @UnsignedByte short small, @UnsignedInteger long large, @UnsignedShort int medium, long plain) {}
 }
\ No newline at end of file
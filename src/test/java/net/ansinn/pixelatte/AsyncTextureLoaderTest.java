@@ -0,0 +1,98 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.formats.DecodeCancellation;
+import net.ansinn.pixelatte.formats.png.PNGParser;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static net.ansinn.pixelatte.TestUtils.mapRes2File;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncTextureLoaderTest {
+
+    private static Path resource(String name) {
+        return mapRes2File("/png_tests/basic_formats/" + name + ".png").orElseThrow().toPath();
+    }
+
+    @Test
+    void readFileAsyncMatchesReadFile() throws Exception {
+        try (var io = Executors.newVirtualThreadPerTaskExecutor(); var compute = Executors.newFixedThreadPool(2)) {
+            var path = resource("basn6a08");
+
+            var image = (StaticImage8) TextureLoader.readFileAsync(path, io, compute).get(10, TimeUnit.SECONDS);
+            var expected = (StaticImage8) TextureLoader.readFile(path.toFile());
+
+            assertArrayEquals(expected.data(), image.data());
+        }
+    }
+
+    @Test
+    void cancellationAbortsDecode() throws Exception {
+        var data = ByteBuffer.wrap(Files.readAllBytes(resource("basn6a16")));
+
+        assertThrows(CancellationException.class, () ->
+                DecodeCancellation.callCancellable(() -> true, () -> PNGParser.parse(data)));
+    }
+
+    @Test
+    void cancelledFutureStaysCancelled() {
+        // Nothing runs the compute stage until we let it, so the decode starts after cancelling
+        var compute = new ArrayList<Runnable>();
+        var future = TextureLoader.readFileAsync(resource("basn6a16"), Runnable::run, compute::add);
+
+        assertTrue(future.cancel(false));
+        compute.forEach(Runnable::run);
+
+        assertThrows(CancellationException.class, future::join);
+    }
+
+    @Test
+    void publisherRespectsDemand() throws Exception {
+        var paths = List.of(resource("basn0g08"), resource("basn2c08"), resource("basn3p08"), resource("basn6a16"));
+        var publisher = TextureLoader.readFilesAsync(paths, Runnable::run, Runnable::run);
+
+        var received = new ArrayList<PixelResource>();
+        var done = new CompletableFuture<Void>();
+
+        publisher.subscribe(new Flow.Subscriber<>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(PixelResource item) {
+                received.add(item);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+
+        done.get(10, TimeUnit.SECONDS);
+        assertEquals(4, received.size());
+    }
+}
@@ -0,0 +1,88 @@
+package net.ansinn.pixelatte;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchLoaderTest {
+
+    private static Path resourceDir(String name) throws URISyntaxException {
+        var url = BatchLoaderTest.class.getResource(name);
+        assertNotNull(url, "Resource folder '" + name + "' was not found.");
+        return Path.of(url.toURI());
+    }
+
+    @Test
+    void loadDeliversEveryImage() throws URISyntaxException {
+        var loaded = ConcurrentHashMap.<Path>newKeySet();
+
+        var stats = BatchLoader.create()
+                .directory(resourceDir("/png_tests/basic_formats"))
+                .useForkJoin(4)
+                .load(entry -> {
+                    assertTrue(entry.isSuccess(), () -> "Failed to load: " + entry.path());
+                    assertEquals(entry.info().width(), entry.resource().width());
+                    loaded.add(entry.path());
+                });
+
+        assertEquals(15, loaded.size());
+        assertEquals(15, stats.files());
+        assertEquals(0, stats.failed());
+        assertTrue(stats.inputBytes() > 0);
+        assertTrue(stats.filesPerSecond() > 0);
+    }
+
+    @Test
+    void streamStaysWithinMemoryBudget() throws URISyntaxException {
+        // A budget of a single image forces decodes to run one after another
+        try (var entries = BatchLoader.create()
+                .directory(resourceDir("/png_tests"))
+                .memoryBudget(32 * 32 * 8)
+                .stream()) {
+
+            Set<String> names = ConcurrentHashMap.newKeySet();
+            entries.forEach(entry -> {
+                assertTrue(entry.isSuccess(), () -> "Failed to load: " + entry.path());
+                names.add(entry.path().getFileName().toString());
+            });
+
+            assertTrue(names.contains("basn6a16.png"));
+            assertTrue(names.contains("basi6a16.png"));
+        }
+    }
+
+    @Test
+    void closingStreamWaitsForDecodesOnCallerExecutor() throws URISyntaxException {
+        var submitted = new AtomicInteger();
+        var started = new AtomicInteger();
+
+        try (var pool = Executors.newFixedThreadPool(4)) {
+            Executor executor = task -> {
+                submitted.incrementAndGet();
+                pool.execute(() -> {
+                    started.incrementAndGet();
+                    task.run();
+                });
+            };
+
+            var entries = BatchLoader.create()
+                    .directory(resourceDir("/png_tests"))
+                    .executor(executor)
+                    .stream();
+
+            assertTrue(entries.iterator().hasNext());
+            entries.close();
+
+            // Decodes still queued on the pool when closing ran before close returned
+            assertEquals(submitted.get(), started.get());
+        }
+    }
+}
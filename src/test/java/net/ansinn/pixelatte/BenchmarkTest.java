@@ -25,7 +25,7 @@ public class BenchmarkTest {
     @Test
     void benchmarkParsers() throws IOException {
         System.out.println("Preparing Benchmark...");
-        List<TestImage> images = loadImages();
+        List<TestImage> images = loadImages("/png_tests/basic_formats/", IMAGE_NAMES);
         System.out.println("Loaded " + images.size() + " images into memory.");
 
         // Warmup
@@ -61,10 +61,48 @@ public class BenchmarkTest {
         System.out.printf("Speedup:   %.2fx (Pixelatte is %s)\n", diff, diff > 1 ? "faster" : "slower");
     }
 
-    private List<TestImage> loadImages() throws IOException {
+    @Test
+    void benchmarkInterlaced() throws IOException {
+        System.out.println("Preparing Interlaced Benchmark...");
+        List<TestImage> progressive = loadImages("/png_tests/basic_formats/", IMAGE_NAMES);
+        List<TestImage> interlaced = loadImages("/png_tests/interlaced/", IMAGE_NAMES.stream()
+                .map(name -> name.replace("basn", "basi"))
+                .toList());
+        System.out.println("Loaded " + progressive.size() + " + " + interlaced.size() + " images into memory.");
+
+        // Warmup
+        System.out.println("Warming up JVM...");
+        for (int i = 0; i < 50; i++) {
+            runPixelatte(progressive);
+            runPixelatte(interlaced);
+        }
+
+        int iterations = 100;
+
+        System.out.println("Benchmarking non-interlaced...");
+        long startProgressive = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runPixelatte(progressive);
+        }
+        double avgProgressive = (System.nanoTime() - startProgressive) / (double) iterations / 1_000_000.0;
+
+        System.out.println("Benchmarking interlaced...");
+        long startInterlaced = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runPixelatte(interlaced);
+        }
+        double avgInterlaced = (System.nanoTime() - startInterlaced) / (double) iterations / 1_000_000.0;
+
+        System.out.println("\n=== Results (Average time to parse all " + interlaced.size() + " images) ===");
+        System.out.printf("Non-interlaced: %.4f ms\n", avgProgressive);
+        System.out.printf("Interlaced:     %.4f ms\n", avgInterlaced);
+        System.out.printf("Overhead:       %.2fx\n", avgInterlaced / avgProgressive);
+    }
+
+    private List<TestImage> loadImages(String directory, List<String> names) throws IOException {
         List<TestImage> images = new ArrayList<>();
-        for (String name : IMAGE_NAMES) {
-            String path = "/png_tests/" + name + ".png";
+        for (String name : names) {
+            String path = directory + name + ".png";
             try (var stream = getClass().getResourceAsStream(path)) {
                 if (stream == null) {
                     System.err.println("Could not find resource: " + path);
@@ -0,0 +1,142 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.formats.png.APNGFixtures;
+import net.ansinn.pixelatte.output.safe.AnimatedImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskTextureCacheTest {
+
+    private static Path resource(String name) {
+        try {
+            return Path.of(DiskTextureCacheTest.class.getResource("/png_tests/basic_formats/" + name + ".png").toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void containersMatchDecodedImages(@TempDir Path directory) {
+        var cache = new DiskTextureCache(directory.resolve("cache"));
+
+        var decoded = (StaticImage8) cache.readFile(resource("basn6a08"));
+        var mapped = (StaticImage8) cache.readFile(resource("basn6a08"));
+
+        assertArrayEquals(decoded.data(), mapped.data());
+        assertEquals(decoded.format(), mapped.format());
+        assertEquals(new DiskTextureCache.Stats(1, 1, 1), cache.stats());
+
+        var decoded16 = (StaticImage16) cache.readFile(resource("basn6a16"));
+        var mapped16 = (StaticImage16) cache.readFile(resource("basn6a16"));
+
+        assertArrayEquals(decoded16.data(), mapped16.data());
+    }
+
+    @Test
+    void readDirectMapsContainers(@TempDir Path directory) {
+        var cache = new DiskTextureCache(directory);
+        var expected = (StaticImage8) TextureLoader.readFile(resource("basn2c08").toFile());
+
+        try (var arena = Arena.ofConfined()) {
+            cache.readDirect(resource("basn2c08"), arena);
+            var mapped = cache.readDirect(resource("basn2c08"), arena);
+
+            assertTrue(mapped.segment().isMapped());
+            assertArrayEquals(expected.data(), mapped.segment().toArray(ValueLayout.JAVA_BYTE));
+            assertEquals(1, cache.stats().hits());
+        }
+    }
+
+    @Test
+    void readDirectLeavesAnimationsUncached(@TempDir Path directory) throws IOException {
+        var cache = new DiskTextureCache(directory.resolve("cache"));
+        var path = Files.write(directory.resolve("animation.png"), APNGFixtures.animation(4));
+
+        try (var arena = Arena.ofConfined()) {
+            assertNotNull(cache.readDirect(path, arena));
+        }
+
+        assertInstanceOf(AnimatedImage.class, cache.readFile(path));
+        assertEquals(new DiskTextureCache.Stats(0, 2, 0), cache.stats());
+    }
+
+    @Test
+    void modifiedSourcesAreDecodedAgain(@TempDir Path directory) throws IOException {
+        var cache = new DiskTextureCache(directory.resolve("cache"));
+        var path = Files.copy(resource("basn6a08"), directory.resolve("texture.png"));
+
+        cache.readFile(path);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(60)));
+        cache.readFile(path);
+        cache.readFile(path);
+
+        assertEquals(new DiskTextureCache.Stats(1, 2, 2), cache.stats());
+    }
+
+    @Test
+    void contentVerificationCatchesSameSizeEdits(@TempDir Path directory) throws IOException {
+        var cache = new DiskTextureCache(directory.resolve("cache")).verifyContent(true);
+        var path = Files.copy(resource("basn6a08"), directory.resolve("texture.png"));
+
+        cache.readFile(path);
+
+        // Flip a bit of the IEND checksum, which leaves size, modification time and pixels alone
+        var modified = Files.getLastModifiedTime(path);
+        var bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+        Files.setLastModifiedTime(path, modified);
+
+        cache.readFile(path);
+
+        assertEquals(new DiskTextureCache.Stats(0, 2, 2), cache.stats());
+    }
+
+    @Test
+    void containersWrittenWithoutVerificationAreRewrittenOnce(@TempDir Path directory) {
+        var cache = new DiskTextureCache(directory.resolve("cache"));
+
+        cache.readFile(resource("basn6a08"));
+        cache.verifyContent(true);
+        cache.readFile(resource("basn6a08"));
+        cache.readFile(resource("basn6a08"));
+
+        assertEquals(new DiskTextureCache.Stats(1, 2, 2), cache.stats());
+    }
+
+    @Test
+    void failedWritesLeaveNoPartialContainers(@TempDir Path directory) throws IOException {
+        var cacheDirectory = directory.resolve("cache");
+        var cache = new DiskTextureCache(cacheDirectory);
+
+        cache.readFile(resource("basn6a08"));
+
+        // A non-empty directory in place of the container can't be replaced
+        try (var containers = Files.list(cacheDirectory)) {
+            var container = containers.findFirst().orElseThrow();
+            Files.delete(container);
+            Files.createFile(Files.createDirectory(container).resolve("blocker"));
+        }
+
+        assertNotNull(cache.readFile(resource("basn6a08")));
+
+        try (var files = Files.list(cacheDirectory)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+        }
+
+        assertEquals(new DiskTextureCache.Stats(0, 2, 1), cache.stats());
+    }
+}
@@ -0,0 +1,84 @@
+package net.ansinn.pixelatte;
+
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextureCacheTest {
+
+    // Resolved in place rather than through mapRes2File, which hands out a new temporary file every call
+    private static Path resource(String name) {
+        try {
+            return Path.of(TextureCacheTest.class.getResource("/png_tests/basic_formats/" + name + ".png").toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void hitsReturnCopies() {
+        var cache = new TextureCache(1024 * 1024);
+        var path = resource("basn6a08");
+
+        var first = (StaticImage8) cache.readFile(path);
+        var second = (StaticImage8) cache.readFile(path);
+
+        assertNotSame(first.data(), second.data());
+        assertArrayEquals(first.data(), second.data());
+
+        // Mutating a handed out image leaves the cached one alone
+        first.data()[0] = (byte) ~first.data()[0];
+        assertArrayEquals(second.data(), ((StaticImage8) cache.readFile(path)).data());
+
+        assertEquals(new TextureCache.Stats(2, 1, 0, 32 * 32 * 4, 1), cache.stats());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedByBytes() {
+        // Room for two 32x32 RGBA8 images
+        var cache = new TextureCache(2 * 32 * 32 * 4);
+
+        cache.readFile(resource("basn0g08"));
+        cache.readFile(resource("basn2c08"));
+        cache.readFile(resource("basn0g08")); // basn2c08 becomes the eldest
+        cache.readFile(resource("basn6a08"));
+
+        var stats = cache.stats();
+        assertEquals(1, stats.evictions());
+        assertEquals(2, stats.entries());
+
+        cache.readFile(resource("basn0g08"));
+        assertEquals(2, cache.stats().hits());
+    }
+
+    @Test
+    void modifiedFilesAreDecodedAgain(@TempDir Path directory) throws IOException {
+        var cache = new TextureCache(1024 * 1024);
+        var path = Files.copy(resource("basn6a08"), directory.resolve("texture.png"));
+
+        cache.readFile(path);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(60)));
+        cache.readFile(path);
+
+        assertEquals(0, cache.stats().hits());
+        assertEquals(2, cache.stats().misses());
+        assertEquals(1, cache.stats().entries());
+    }
+
+    @Test
+    void missingFilesReadAsNull(@TempDir Path directory) {
+        var cache = new TextureCache(1024 * 1024);
+
+        assertNull(cache.readFile(directory.resolve("missing.png")));
+        assertEquals(0, cache.stats().entries());
+    }
+}
@@ -1,16 +1,147 @@
 package net.ansinn.pixelatte;
 
+import net.ansinn.pixelatte.formats.png.layout.Chunk;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.PixelResource;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
+import net.ansinn.pixelatte.output.safe.StaticImage8;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage16;
+import net.ansinn.pixelatte.output.unsafe.OffHeapImage8;
 import org.junit.jupiter.api.Test;
 
-import java.util.Arrays;
-import java.util.Objects;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
 
+import static net.ansinn.pixelatte.TestUtils.mapRes2File;
 import static org.junit.jupiter.api.Assertions.*;
 
 class TextureLoaderTest {
 
+    private static final List<String> IMAGE_NAMES = List.of(
+            "basn0g01", "basn0g02", "basn0g04", "basn0g08", "basn0g16",
+            "basn2c08", "basn2c16",
+            "basn3p01", "basn3p02", "basn3p04", "basn3p08",
+            "basn4a08", "basn4a16",
+            "basn6a08", "basn6a16"
+    );
+
     @Test
     void registerLoader() {
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void readDirectMatchesReadFile() {
+        try (var arena = Arena.ofConfined()) {
+            for (var name : IMAGE_NAMES) {
+                var file = mapRes2File("/png_tests/basic_formats/" + name + ".png").orElseThrow();
+
+                var heap = TextureLoader.readFile(file);
+                var direct = TextureLoader.readDirect(file, arena);
+
+                assertNotNull(direct, "Direct decode failed for: " + name);
+                assertEquals(heap.width(), direct.width(), "Width mismatch: " + name);
+                assertEquals(heap.height(), direct.height(), "Height mismatch: " + name);
+                assertEquals(heap.format(), direct.format(), "Format mismatch: " + name);
+                assertEquals(direct.stride() * direct.height(), direct.byteSize(), "Stride mismatch: " + name);
+
+                switch (heap) {
+                    case StaticImage8 image -> {
+                        assertInstanceOf(OffHeapImage8.class, direct);
+                        assertArrayEquals(image.data(), direct.segment().toArray(ValueLayout.JAVA_BYTE), "Pixel mismatch: " + name);
+                    }
+                    case StaticImage16 image -> {
+                        assertInstanceOf(OffHeapImage16.class, direct);
+                        assertArrayEquals(image.data(), direct.segment().toArray(ValueLayout.JAVA_SHORT), "Pixel mismatch: " + name);
+                    }
+                    default -> fail("Unexpected resource type: " + heap);
+                }
+            }
+        }
+    }
+
+    @Test
+    void probeMatchesReadFile() {
+        for (var name : IMAGE_NAMES) {
+            var file = mapRes2File("/png_tests/basic_formats/" + name + ".png").orElseThrow();
+
+            var info = TextureLoader.probeFile(file);
+            var image = TextureLoader.readFile(file);
+
+            assertNotNull(info, "Probe failed for: " + name);
+            assertEquals(image.width(), info.width(), "Width mismatch: " + name);
+            assertEquals(image.height(), info.height(), "Height mismatch: " + name);
+            assertEquals(image.format(), info.format(), "Format mismatch: " + name);
+            assertEquals(Integer.parseInt(name.substring(6)), info.bitDepth(), "Bit depth mismatch: " + name);
+            assertFalse(info.interlaced(), "Interlace mismatch: " + name);
+            assertFalse(info.isAnimated(), "Animation mismatch: " + name);
+        }
+
+        var interlaced = TextureLoader.probeFile(mapRes2File("/png_tests/interlaced/basi6a16.png").orElseThrow());
+        assertNotNull(interlaced);
+        assertTrue(interlaced.interlaced());
+    }
+
+    @Test
+    void interlacedReadDirectMatchesReadFile() {
+        try (var arena = Arena.ofConfined()) {
+            for (var name : IMAGE_NAMES) {
+                var file = mapRes2File("/png_tests/interlaced/" + name.replace("basn", "basi") + ".png").orElseThrow();
+
+                var heap = TextureLoader.readFile(file);
+                var direct = TextureLoader.readDirect(file, arena);
+
+                switch (heap) {
+                    case StaticImage8 image -> assertArrayEquals(image.data(), direct.segment().toArray(ValueLayout.JAVA_BYTE), "Pixel mismatch: " + name);
+                    case StaticImage16 image -> assertArrayEquals(image.data(), direct.segment().toArray(ValueLayout.JAVA_SHORT), "Pixel mismatch: " + name);
+                    default -> fail("Unexpected resource type: " + heap);
+                }
+            }
+        }
+    }
+
+    @Test
+    void tilesViewTheWholeImage() {
+        var file = mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow();
+        var heap = (StaticImage8) TextureLoader.readFile(file);
+
+        try (var arena = Arena.ofConfined()) {
+            var direct = (OffHeapImage8) TextureLoader.readDirect(file, arena);
+            var tileSize = 7;
+
+            assertEquals(5, direct.tileColumns(tileSize));
+            assertEquals(5, direct.tileRows(tileSize));
+
+            for (var row = 0; row < direct.tileRows(tileSize); row++) {
+                for (var column = 0; column < direct.tileColumns(tileSize); column++) {
+                    var tile = (OffHeapImage8) direct.tile(column, row, tileSize);
+
+                    assertEquals(Math.min(tileSize, 32 - column * tileSize), tile.width());
+                    assertEquals(Math.min(tileSize, 32 - row * tileSize), tile.height());
+
+                    for (var y = 0; y < tile.height(); y++)
+                        for (var x = 0; x < tile.width(); x++)
+                            assertEquals(heap.getARGB(column * tileSize + x, row * tileSize + y), tile.getARGB(x, y),
+                                    "Pixel mismatch in tile " + column + ", " + row);
+                }
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> direct.tile(5, 0, tileSize));
+            assertThrows(IllegalArgumentException.class, () -> direct.region(new Region(30, 0, 3, 1)));
+        }
+    }
+
+    @Test
+    void hugeImageSizesDontOverflow() {
+        // 60000x60000 RGBA8 holds 14.4 billion samples, far beyond what an int can count
+        var header = new IHDR(60000, 60000, (byte) 8, Chunk.ColorType.TrueColorAlpha, (byte) 0, (byte) 0, (byte) 0);
+
+        assertEquals(240000, header.getScanlineByteLength());
+        assertEquals(60000L * 240001, header.getImageDataByteLength());
+        assertThrows(IllegalArgumentException.class, () -> PixelResource.Format.RGBA8.arrayLength(header.width(), header.height()));
+        assertThrows(IllegalArgumentException.class, () ->
+                new IHDR(Integer.MAX_VALUE, 1, (byte) 16, Chunk.ColorType.TrueColorAlpha, (byte) 0, (byte) 0, (byte) 0));
+    }
+}
@@ -0,0 +1,101 @@
+package net.ansinn.pixelatte.formats.png;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Animated PNGs built in memory, shared by the tests reading them.
+ */
+public final class APNGFixtures {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    private APNGFixtures() {}
+
+    // Full size first frame followed by 3x2 frames wandering along the top, each a single opaque color
+    public static byte[] animation(int frames) {
+        try {
+            var out = new ByteArrayOutputStream();
+            out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+
+            chunk(out, "IHDR", ByteBuffer.allocate(13).putInt(WIDTH).putInt(HEIGHT).put((byte) 8).put((byte) 6).array());
+            chunk(out, "acTL", ByteBuffer.allocate(8).putInt(frames).putInt(0).array());
+
+            var sequence = 0;
+
+            for (var i = 0; i < frames; i++) {
+                var width = i == 0 ? WIDTH : 3;
+                var height = i == 0 ? HEIGHT : 2;
+
+                chunk(out, "fcTL", ByteBuffer.allocate(26)
+                        .putInt(sequence++).putInt(width).putInt(height).putInt(i == 0 ? 0 : i % 4).putInt(0)
+                        .putShort((short) 1).putShort((short) 10)
+                        .put((byte) (i % 3)).put((byte) (i % 2))
+                        .array());
+
+                var data = imageData(width, height, pixel(i));
+
+                if (i == 0) {
+                    chunk(out, "IDAT", data);
+                    continue;
+                }
+
+                var split = i % 7 == 0 ? data.length / 2 : data.length;
+
+                chunk(out, "fdAT", ByteBuffer.allocate(4 + split).putInt(sequence++).put(data, 0, split).array());
+
+                if (split < data.length)
+                    chunk(out, "fdAT", ByteBuffer.allocate(4 + data.length - split).putInt(sequence++).put(data, split, data.length - split).array());
+            }
+
+            chunk(out, "IEND", new byte[0]);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static int pixel(int frame) {
+        return 0xFF000000 | (frame * 40 % 256) << 16 | (frame * 90 % 256) << 8 | (255 - frame);
+    }
+
+    private static byte[] imageData(int width, int height, int argb) {
+        var raw = ByteBuffer.allocate((width * 4 + 1) * height);
+
+        for (var y = 0; y < height; y++) {
+            raw.put((byte) 0);
+
+            for (var x = 0; x < width; x++)
+                raw.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >>> 24));
+        }
+
+        var deflater = new Deflater();
+        deflater.setInput(raw.array());
+        deflater.finish();
+
+        var compressed = new byte[raw.capacity() + 64];
+        var length = deflater.deflate(compressed);
+        deflater.end();
+
+        return Arrays.copyOf(compressed, length);
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        var tag = type.getBytes(StandardCharsets.US_ASCII);
+        var crc = new CRC32();
+        crc.update(tag);
+        crc.update(data);
+
+        out.write(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.write(tag);
+        out.write(data);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+}
@@ -0,0 +1,188 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.output.safe.AnimatedImage8;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAPNGParser {
+
+    @Test
+    void parse_onlyDecodesTheThumbnail() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(12)));
+        var source = (APNGFrameSource<?>) animation.source();
+
+        assertEquals(12, source.size());
+        assertEquals(1, source.decodedFrames());
+
+        // The default image is the first frame, so it's shared rather than decoded twice
+        assertSame(animation.thumbnail(), source.image(0));
+    }
+
+    @Test
+    void frames_areDecodedOnDemand() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(12)));
+        var source = (APNGFrameSource<?>) animation.source();
+
+        // Frame 7 is split across two fdAT chunks
+        var frame = animation.frames().get(7);
+
+        assertEquals(2, source.decodedFrames());
+        assertEquals(3, frame.image().width());
+        assertEquals(APNGFixtures.pixel(7), frame.image().getARGB(2, 1));
+        assertEquals(7 % 4, frame.xOffset());
+    }
+
+    @Test
+    void probe_reportsSingleFrameAnimations() {
+        var bytes = APNGFixtures.animation(1);
+        var info = PNGParser.probe(ByteBuffer.wrap(bytes));
+
+        assertTrue(info.isAnimated());
+        assertEquals(1, info.frameCount());
+        assertInstanceOf(AnimatedImage8.class, PNGParser.parse(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void copy_doesntDecodeFrames() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(12)));
+        var copy = animation.copy();
+        var source = (APNGFrameSource<?>) copy.source();
+
+        assertEquals(12, copy.frameCount());
+        assertEquals(0, source.decodedFrames());
+        assertNotSame(animation.thumbnail().data(), copy.thumbnail().data());
+        assertNotSame(animation.source().image(3), source.image(3));
+        assertArrayEquals(animation.getFrame(9).image().data(), copy.getFrame(9).image().data());
+    }
+
+    @Test
+    void getFrame_matchesPlayback() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(20)));
+        var compositor = animation.compositor();
+
+        for (var i = 0; i < 20; i++) {
+            var played = compositor.advance().data().clone();
+
+            assertArrayEquals(played, animation.getFrame(i).image().data(), "frame " + i);
+        }
+
+        // Frames on every keyframe interval were cached on the way
+        assertTrue(animation.keyframes().size() > 0);
+    }
+
+    @Test
+    void getFrame_isSafeAcrossThreads() throws Exception {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(160)));
+        var compositor = animation.compositor();
+        var expected = new byte[160][];
+
+        for (var i = 0; i < 160; i++)
+            expected[i] = compositor.advance().data().clone();
+
+        // Far more keyframes than the cache holds, so seeks keep evicting the keyframes other seeks start from
+        var seeks = new ArrayList<Callable<Void>>();
+
+        for (var thread = 0; thread < 4; thread++) {
+            var random = new Random(thread);
+
+            seeks.add(() -> {
+                for (var i = 0; i < 300; i++) {
+                    var index = random.nextInt(160);
+                    assertArrayEquals(expected[index], animation.getFrame(index).image().data(), "frame " + index);
+                }
+
+                return null;
+            });
+        }
+
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            for (var result : executor.invokeAll(seeks))
+                result.get();
+        }
+    }
+
+    @Test
+    void decodeAll_matchesFramesDecodedOnDemand() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(30)));
+        var decoded = animation.decodeAll();
+
+        assertNotSame(animation.source(), decoded.source());
+        assertSame(decoded, decoded.decodeAll());
+        assertSame(animation.thumbnail(), decoded.source().image(0));
+
+        for (var i = 0; i < 30; i++) {
+            assertEquals(animation.source().info(i), decoded.source().info(i));
+            assertArrayEquals(animation.source().image(i).data(), decoded.source().image(i).data(), "frame " + i);
+        }
+
+        var compositor = decoded.compositor();
+
+        for (var i = 0; i < 30; i++)
+            assertArrayEquals(animation.getFrame(i).image().data(), compositor.advance().data(), "frame " + i);
+    }
+
+    @Test
+    void stream_matchesPlaybackAcrossLoops() {
+        var animation = (AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(15)));
+        var expected = new byte[15][];
+
+        for (var i = 0; i < 15; i++)
+            expected[i] = animation.getFrame(i).image().data();
+
+        try (var stream = APNGStream.of((AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(15))))) {
+            var source = (APNGFrameSource<?>) stream.animation().source();
+
+            for (var i = 0; i < 40; i++) {
+                assertArrayEquals(expected[i % 15], stream.next().data(), "frame " + i);
+                assertEquals(i % 15, stream.index());
+            }
+
+            // Streamed frames are dropped once composed, only the thumbnail is held
+            assertEquals(1, source.decodedFrames());
+
+            stream.restart();
+            assertEquals(-1, stream.index());
+
+            for (var i = 0; i < 5; i++)
+                assertArrayEquals(expected[i], stream.next().data(), "frame " + i + " after restart");
+        }
+    }
+
+    @Test
+    void stream_rejectsUseAfterClose() {
+        try (var stream = APNGStream.of((AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(4))))) {
+            stream.next();
+            stream.close();
+
+            assertThrows(IllegalStateException.class, stream::next);
+        }
+    }
+
+    @Test
+    void stream_releasesFramesOnceDropped() throws InterruptedException {
+        var frames = droppedStream();
+
+        for (var i = 0; i < 100 && frames.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(frames.get(), "background thread still holds the frames of a dropped stream");
+    }
+
+    // Plays a frame and drops the stream without closing it, handing back the frames its thread was decoding
+    private static WeakReference<?> droppedStream() {
+        var stream = APNGStream.of((AnimatedImage8) PNGParser.parse(ByteBuffer.wrap(APNGFixtures.animation(4))));
+        stream.next();
+
+        return new WeakReference<>(stream.animation().source());
+    }
+}
@@ -0,0 +1,67 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.chunks.sRGB;
+import net.ansinn.pixelatte.formats.png.layout.chunks.tEXt;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestChunkRegistry {
+
+    @Test
+    void getDecoder_findsEveryRegisteredTag() {
+        for (var name : new String[]{"gAMA", "tRNS", "PLTE", "cHRM", "sRGB", "pHYs", "tIME", "acTL", "fcTL",
+                "bKGD", "sBIT", "hIST", "iCCP", "tEXt", "zTXt", "iTXt"})
+            assertTrue(ChunkRegistry.isRegistered(name), name);
+
+        assertInstanceOf(ChunkRegistry.Registry.Automatic.class, ChunkRegistry.getDecoder("fcTL"));
+        assertInstanceOf(ChunkRegistry.Registry.Deferred.class, ChunkRegistry.getDecoder("tEXt"));
+    }
+
+    @Test
+    void getDecoder_sharesNoneForUnknownTags() {
+        assertSame(ChunkRegistry.Registry.None.INSTANCE, ChunkRegistry.getDecoder("prVt"));
+        assertSame(ChunkRegistry.getDecoder("prVt"), ChunkRegistry.getDecoder(ChunkRegistry.IDAT_TAG));
+    }
+
+    @Test
+    void decodeChunk_readsInPlaceAndSkipsPastData() {
+        var buffer = ByteBuffer.allocate(32).put((byte) 2).put(new byte[]{1, 2, 3}).putInt(0xCAFEBABE).flip();
+
+        var chunk = ChunkRegistry.decodeChunk(ChunkRegistry.toTag("sRGB"), buffer, 4, null);
+
+        assertEquals(new sRGB((short) 2), chunk);
+        assertEquals(0xCAFEBABE, buffer.getInt());
+    }
+
+    @Test
+    void decodeChunk_skipsUnknownChunks() {
+        var buffer = ByteBuffer.allocate(8).putInt(7).putInt(9).flip();
+
+        assertNull(ChunkRegistry.decodeChunk(ChunkRegistry.toTag("prVt"), buffer, 4, null));
+        assertEquals(9, buffer.getInt());
+    }
+
+    @Test
+    void decodeChunk_copiesDataForDeferredParsers() {
+        var text = "Title\0Pixelatte".getBytes(StandardCharsets.ISO_8859_1);
+        var buffer = ByteBuffer.allocate(text.length + 4).put(text).putInt(0).flip();
+
+        var chunk = (tEXt) ChunkRegistry.decodeChunk(ChunkRegistry.toTag("tEXt"), buffer, text.length, null);
+
+        assertEquals(new tEXt("Title", "Pixelatte"), chunk);
+        assertEquals(text.length, buffer.position());
+    }
+
+    @Test
+    void decodeChunk_rejectsTruncatedRecords() {
+        // fcTL takes 26 bytes
+        var buffer = ByteBuffer.allocate(64);
+
+        assertThrows(IllegalStateException.class,
+                () -> ChunkRegistry.decodeChunk(ChunkRegistry.fcTL_TAG, buffer, 25, null));
+    }
+}
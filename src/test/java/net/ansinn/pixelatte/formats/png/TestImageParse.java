@@ -1,5 +1,9 @@
 package net.ansinn.pixelatte.formats.png;
 
+import net.ansinn.pixelatte.output.Downscale;
+import net.ansinn.pixelatte.output.Region;
+import net.ansinn.pixelatte.output.safe.StaticImage;
+import net.ansinn.pixelatte.output.safe.StaticImage16;
 import net.ansinn.pixelatte.output.safe.StaticImage8;
 import net.ansinn.pixelatte.TextureLoader;
 import org.junit.jupiter.api.Test;
@@ -8,14 +12,28 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static net.ansinn.pixelatte.TestUtils.mapRes2File;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TestImageParse {
 
+    private static final List<String> FORMAT_NAMES = List.of(
+            "0g01", "0g02", "0g04", "0g08", "0g16",
+            "2c08", "2c16",
+            "3p01", "3p02", "3p04", "3p08",
+            "4a08", "4a16",
+            "6a08", "6a16"
+    );
+
     @Test
     void loadImage() {
         System.out.println("Hello?");
@@ -92,4 +110,260 @@ public class TestImageParse {
             });
     }
 
+    @Test
+    void interlacedMatchesNonInterlaced() {
+        for (var format : FORMAT_NAMES) {
+            var progressive = TextureLoader.readFile(mapRes2File("/png_tests/basic_formats/basn" + format + ".png").orElseThrow());
+            var interlaced = TextureLoader.readFile(mapRes2File("/png_tests/interlaced/basi" + format + ".png").orElseThrow());
+
+            assertEquals(progressive.width(), interlaced.width(), "Width mismatch: " + format);
+            assertEquals(progressive.height(), interlaced.height(), "Height mismatch: " + format);
+            assertEquals(progressive.format(), interlaced.format(), "Format mismatch: " + format);
+
+            switch (progressive) {
+                case StaticImage8 image -> assertArrayEquals(image.data(), ((StaticImage8) interlaced).data(), "Pixel mismatch: " + format);
+                case StaticImage16 image -> assertArrayEquals(image.data(), ((StaticImage16) interlaced).data(), "Pixel mismatch: " + format);
+                default -> fail("Unexpected resource type: " + progressive);
+            }
+        }
+    }
+
+    @Test
+    void regionMatchesFullDecode() {
+        // Odd offsets start regions in the middle of a byte for the sub byte depths
+        var regions = List.of(new Region(0, 0, 32, 32), new Region(3, 5, 17, 9), new Region(31, 31, 1, 1), new Region(0, 0, 32, 1));
+
+        for (var format : FORMAT_NAMES) {
+            for (var prefix : List.of("basic_formats/basn", "interlaced/basi")) {
+                var file = mapRes2File("/png_tests/" + prefix + format + ".png").orElseThrow();
+                var full = (StaticImage) TextureLoader.readFile(file);
+
+                for (var region : regions) {
+                    var partial = TextureLoader.readRegion(file, region);
+                    var expected = RegionRowSink.crop(full, region);
+
+                    assertEquals(region.width(), partial.width(), "Width mismatch: " + prefix + format);
+                    assertEquals(region.height(), partial.height(), "Height mismatch: " + prefix + format);
+                    assertEquals(full.format(), partial.format(), "Format mismatch: " + prefix + format);
+
+                    switch (expected) {
+                        case StaticImage8 image -> assertArrayEquals(image.data(), ((StaticImage8) partial).data(), "Pixel mismatch: " + prefix + format + " " + region);
+                        case StaticImage16 image -> assertArrayEquals(image.data(), ((StaticImage16) partial).data(), "Pixel mismatch: " + prefix + format + " " + region);
+                        default -> fail("Unexpected resource type: " + expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void regionOutsideImageIsRejected() {
+        var file = mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow();
+
+        assertThrows(IllegalArgumentException.class, () -> TextureLoader.readRegion(file, new Region(16, 0, 17, 1)));
+    }
+
+    @Test
+    void scaledMatchesReference() {
+        for (var format : FORMAT_NAMES) {
+            for (var prefix : List.of("basic_formats/basn", "interlaced/basi")) {
+                var file = mapRes2File("/png_tests/" + prefix + format + ".png").orElseThrow();
+                var full = (StaticImage) TextureLoader.readFile(file);
+
+                for (var factor : new int[]{2, 4, 8}) {
+                    for (var filter : Downscale.Filter.values()) {
+                        var scale = new Downscale(factor, filter);
+                        var scaled = TextureLoader.readScaled(file, scale);
+                        var message = "Mismatch: " + prefix + format + " " + scale;
+
+                        assertEquals(32 / factor, scaled.width(), message);
+                        assertEquals(32 / factor, scaled.height(), message);
+
+                        switch (full) {
+                            case StaticImage8 image -> assertArrayEquals(toBytes(downscale(image.data(), i -> image.data()[i] & 0xFF, scale)), ((StaticImage8) scaled).data(), message);
+                            case StaticImage16 image -> assertArrayEquals(toShorts(downscale(image.data(), i -> image.data()[i] & 0xFFFF, scale)), ((StaticImage16) scaled).data(), message);
+                            default -> fail("Unexpected resource type: " + full);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Straightforward reference of both filters for the 32x32 test images
+    private static int[] downscale(Object data, java.util.function.IntUnaryOperator sample, Downscale scale) {
+        var size = 32 / scale.factor();
+        var out = new int[size * size * 4];
+
+        for (var y = 0; y < size; y++) {
+            for (var x = 0; x < size; x++) {
+                for (var channel = 0; channel < 4; channel++) {
+                    var index = (y * size + x) * 4 + channel;
+
+                    if (scale.filter() == Downscale.Filter.POINT) {
+                        out[index] = sample.applyAsInt(((y * scale.factor()) * 32 + x * scale.factor()) * 4 + channel);
+                        continue;
+                    }
+
+                    var sum = 0;
+                    for (var sy = 0; sy < scale.factor(); sy++)
+                        for (var sx = 0; sx < scale.factor(); sx++)
+                            sum += sample.applyAsInt(((y * scale.factor() + sy) * 32 + x * scale.factor() + sx) * 4 + channel);
+
+                    var count = scale.factor() * scale.factor();
+                    out[index] = (sum + count / 2) / count;
+                }
+            }
+        }
+
+        return out;
+    }
+
+    private static byte[] toBytes(int[] samples) {
+        var bytes = new byte[samples.length];
+        for (var i = 0; i < samples.length; i++)
+            bytes[i] = (byte) samples[i];
+        return bytes;
+    }
+
+    private static short[] toShorts(int[] samples) {
+        var shorts = new short[samples.length];
+        for (var i = 0; i < samples.length; i++)
+            shorts[i] = (short) samples[i];
+        return shorts;
+    }
+
+    @Test
+    void indexedExpandsToRegularDecode() {
+        for (var format : List.of("3p01", "3p02", "3p04", "3p08")) {
+            for (var prefix : List.of("basic_formats/basn", "interlaced/basi")) {
+                var file = mapRes2File("/png_tests/" + prefix + format + ".png").orElseThrow();
+                var expected = (StaticImage8) TextureLoader.readFile(file);
+                var indexed = TextureLoader.readIndexed(file);
+
+                assertEquals(Integer.parseInt(format.substring(2)), indexed.bitDepth(), "Bit depth mismatch: " + prefix + format);
+                assertEquals(indexed.rowStride() * indexed.height(), indexed.indices().length, "Indices aren't packed: " + prefix + format);
+                assertArrayEquals(expected.data(), indexed.expand().data(), "Pixel mismatch: " + prefix + format);
+
+                for (var y = 0; y < indexed.height(); y += 7)
+                    for (var x = 0; x < indexed.width(); x += 5)
+                        assertEquals(expected.getARGB(x, y), indexed.getARGB(x, y), "Color mismatch: " + prefix + format);
+            }
+        }
+    }
+
+    @Test
+    void indexedRejectsOtherColorTypes() {
+        var file = mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow();
+
+        assertThrows(IllegalArgumentException.class, () -> TextureLoader.readIndexed(file));
+    }
+
+    @Test
+    void compactMatchesRegularDecode() {
+        var channels = Map.of("0g", 1, "2c", 3, "3p", 4, "4a", 2, "6a", 4);
+
+        for (var format : FORMAT_NAMES) {
+            for (var prefix : List.of("basic_formats/basn", "interlaced/basi")) {
+                var file = mapRes2File("/png_tests/" + prefix + format + ".png").orElseThrow();
+                var expected = TextureLoader.readFile(file).asStatic().flattenTo8Bit();
+                var compact = TextureLoader.readCompact(file);
+
+                assertEquals(channels.get(format.substring(0, 2)), compact.format().channels(), "Channel mismatch: " + prefix + format);
+                assertEquals(format.endsWith("16") ? 2 : 1, compact.format().sampleSize(), "Sample size mismatch: " + prefix + format);
+
+                var length = switch (compact) {
+                    case StaticImage8 image -> image.data().length;
+                    case StaticImage16 image -> image.data().length;
+                    default -> fail("Unexpected resource type: " + compact);
+                };
+                assertEquals(compact.width() * compact.height() * compact.format().channels(), length, "Layout isn't compact: " + prefix + format);
+
+                var flattened = compact.flattenTo8Bit();
+                for (var y = 0; y < flattened.height(); y++)
+                    for (var x = 0; x < flattened.width(); x++)
+                        assertEquals(expected.getARGB(x, y), flattened.getARGB(x, y), "Color mismatch: " + prefix + format + " at " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void compactGrayIsViewableAsGrayscale() {
+        var image = (StaticImage8) TextureLoader.readCompact(mapRes2File("/png_tests/basic_formats/basn0g08.png").orElseThrow());
+        var grayscale = image.asGrayscale();
+
+        assertSame(image.data(), grayscale.data());
+        assertEquals(image.getRed(7, 3) / 255f, grayscale.getLuminance(7, 3));
+        assertThrows(IllegalStateException.class, () -> ((StaticImage8) TextureLoader.readCompact(
+                mapRes2File("/png_tests/basic_formats/basn2c08.png").orElseThrow())).asGrayscale());
+    }
+
+    @Test
+    void destinationMatchesRegularDecode() {
+        // One destination and one set of resources shared by every decode, sized for the largest image
+        var destination = new byte[32 * 32 * 4 * Short.BYTES];
+
+        try (var resources = new ParserResources()) {
+            for (var format : FORMAT_NAMES) {
+                for (var prefix : List.of("basic_formats/basn", "interlaced/basi")) {
+                    var file = mapRes2File("/png_tests/" + prefix + format + ".png").orElseThrow();
+                    var expected = TextureLoader.readFile(file);
+                    var info = TextureLoader.readFile(file, destination, resources);
+
+                    assertEquals(expected.format(), info.format(), "Format mismatch: " + prefix + format);
+
+                    switch (expected) {
+                        case StaticImage8 image -> assertArrayEquals(image.data(),
+                                Arrays.copyOf(destination, image.data().length), "Pixel mismatch: " + prefix + format);
+                        case StaticImage16 image -> {
+                            var written = new short[image.data().length];
+                            ByteBuffer.wrap(destination).order(ByteOrder.nativeOrder()).asShortBuffer().get(written);
+                            assertArrayEquals(image.data(), written, "Pixel mismatch: " + prefix + format);
+                        }
+                        default -> fail("Unexpected resource type: " + expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void destinationTooSmallIsRejected() {
+        var file = mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow();
+
+        try (var resources = new ParserResources()) {
+            assertThrows(IllegalArgumentException.class, () -> TextureLoader.readFile(file, new byte[32 * 32 * 4 - 1], resources));
+            assertNotNull(TextureLoader.readFile(file, new byte[32 * 32 * 4], resources));
+        }
+    }
+
+    @Test
+    void probeRejectsNegativeChunkLengths() throws Exception {
+        var bytes = Files.readAllBytes(mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow().toPath());
+
+        // The chunk after IHDR claims to be 12 bytes long, which used to jump back onto its own header
+        ByteBuffer.wrap(bytes).putInt(33, -12);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThrows(IllegalStateException.class, () -> PNGParser.probe(ByteBuffer.wrap(bytes))));
+    }
+
+    @Test
+    void probeRejectsOtherSignatures() throws Exception {
+        var bytes = Files.readAllBytes(mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow().toPath());
+        bytes[1] = 'J';
+
+        assertThrows(IllegalStateException.class, () -> PNGParser.probe(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void probeAsksForMoreOfTruncatedHeaders() throws Exception {
+        var bytes = Files.readAllBytes(mapRes2File("/png_tests/basic_formats/basn6a08.png").orElseThrow().toPath());
+
+        // Signature, IHDR and the header of the next chunk take 41 bytes
+        for (var length = 0; length < 41; length++)
+            assertNull(PNGParser.probe(ByteBuffer.wrap(bytes, 0, length)), "length " + length);
+
+        assertNotNull(PNGParser.probe(ByteBuffer.wrap(bytes)));
+    }
 }
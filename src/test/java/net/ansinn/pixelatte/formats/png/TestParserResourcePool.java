@@ -0,0 +1,67 @@
+package net.ansinn.pixelatte.formats.png;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestParserResourcePool {
+
+    @Test
+    void checkout_reusesReleasedResources() {
+        var pool = new ParserResourcePool(2);
+
+        var first = pool.checkout();
+        pool.release(first);
+        var second = pool.checkout();
+
+        assertSame(first, second);
+        assertEquals(new ParserResourcePool.Stats(1, 1, 0, 0), pool.stats());
+    }
+
+    @Test
+    void release_endsInflaterWhenFull() {
+        var pool = new ParserResourcePool(1);
+
+        var first = pool.checkout();
+        var second = pool.checkout();
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(new ParserResourcePool.Stats(0, 2, 1, 1), pool.stats());
+
+        // An ended inflater refuses any further work
+        assertThrows(NullPointerException.class, () -> second.inflater.inflate(new byte[1]));
+    }
+
+    @Test
+    void parse_releasesResourcesOfMalformedInput() {
+        var before = PNGParser.resourceStats();
+
+        assertThrows(BufferUnderflowException.class, () -> PNGParser.parse(ByteBuffer.allocate(3)));
+        assertThrows(IllegalStateException.class, () -> PNGParser.parse(ByteBuffer.allocate(8)));
+
+        try (var arena = Arena.ofConfined()) {
+            assertThrows(BufferUnderflowException.class, () -> PNGParser.parseDirect(ByteBuffer.allocate(3), arena));
+        }
+
+        var after = PNGParser.resourceStats();
+
+        // Every checkout made it back, either into the pool or closed because the pool was full
+        assertEquals(before.pooled() + after.misses() - before.misses() - (after.discarded() - before.discarded()), after.pooled());
+    }
+
+    @Test
+    void scanlineBuffers_areZeroedOnReuse() {
+        var resources = new ParserResources();
+
+        var row = resources.previousRow(16);
+        row[3] = 42;
+
+        assertSame(row, resources.previousRow(8));
+        assertEquals(0, row[3]);
+    }
+}
@@ -0,0 +1,167 @@
+package net.ansinn.pixelatte.formats.png;
+
+import net.ansinn.pixelatte.formats.png.layout.Chunk;
+import net.ansinn.pixelatte.formats.png.layout.chunks.IHDR;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPipelinedDecoder {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 40;
+
+    private final IHDR header = new IHDR(WIDTH, HEIGHT, (byte) 8, Chunk.ColorType.Grayscale, (byte) 0, (byte) 0, (byte) 0);
+
+    /**
+     * Random grayscale rows alternating between the None and Up filters, so every row depends on the one above.
+     */
+    private static byte[] filteredData(Random random) {
+        var data = new byte[HEIGHT * (WIDTH + 1)];
+        random.nextBytes(data);
+
+        for (var y = 0; y < HEIGHT; y++)
+            data[y * (WIDTH + 1)] = (byte) (y % 2 == 0 ? 0 : 2);
+
+        return data;
+    }
+
+    private static byte[][] expectedRows(byte[] filtered) {
+        var rows = new byte[HEIGHT][WIDTH];
+
+        for (var y = 0; y < HEIGHT; y++) {
+            for (var x = 0; x < WIDTH; x++) {
+                var raw = filtered[y * (WIDTH + 1) + 1 + x];
+                rows[y][x] = (byte) (y % 2 == 0 ? raw : raw + rows[y - 1][x]);
+            }
+        }
+
+        return rows;
+    }
+
+    private static ByteBuffer deflate(byte[] data) {
+        var deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+
+        var compressed = new byte[data.length * 2 + 64];
+        var length = deflater.deflate(compressed);
+        deflater.end();
+
+        return ByteBuffer.wrap(compressed, 0, length).slice();
+    }
+
+    @Test
+    void rowsMatchSerialReconstruction() {
+        var filtered = filteredData(new Random(42));
+        var expected = expectedRows(filtered);
+        var compressed = deflate(filtered);
+
+        try (var executor = Executors.newFixedThreadPool(3)) {
+            for (var bandRows : new int[]{1, 3, 16, HEIGHT}) {
+                var rows = new byte[HEIGHT][];
+                var resources = new ParserResources();
+
+                var decoder = new PipelinedDecoder(header, resources, (y, scanline) ->
+                        rows[y] = Arrays.copyOfRange(scanline, 1, WIDTH + 1), bandRows, executor);
+
+                // Feed the data in small pieces, like it would arrive from several IDAT chunks
+                var input = compressed.duplicate();
+                while (input.hasRemaining())
+                    decoder.inflate(input, Math.min(5, input.remaining()));
+
+                assertTrue(decoder.isComplete());
+                decoder.await();
+
+                assertArrayEquals(expected, rows, "Mismatch with bands of " + bandRows + " rows");
+                resources.close();
+            }
+        }
+    }
+
+    @Test
+    void decodesFromInsideTheCommonPool() throws Exception {
+        decodeOnEveryWorker(ForkJoinPool.commonPool());
+
+        // CompletableFuture hands tasks for a common pool of parallelism 1 to threads of their own, a pool of our own
+        // shows the same on machines that small
+        var pool = new ForkJoinPool(2);
+
+        // Not closed, a deadlocked decode would keep closing from ever returning
+        try {
+            decodeOnEveryWorker(pool);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Every worker of the pool inflates at once, so the bands they wait on only run on workers added in their place
+    private void decodeOnEveryWorker(ForkJoinPool pool) throws Exception {
+        var filtered = filteredData(new Random(11));
+        var expected = expectedRows(filtered);
+        var compressed = deflate(filtered);
+
+        var parallelism = pool.getParallelism();
+        var running = new CountDownLatch(parallelism);
+
+        var decodes = IntStream.range(0, parallelism).mapToObj(_ -> pool.submit(() -> {
+            running.countDown();
+            running.await();
+
+            var rows = new byte[HEIGHT][];
+
+            try (var resources = new ParserResources()) {
+                // Single row bands fill the ring long before the image is inflated
+                var decoder = new PipelinedDecoder(header, resources, (y, scanline) ->
+                        rows[y] = Arrays.copyOfRange(scanline, 1, WIDTH + 1), 1, pool);
+
+                decoder.inflate(compressed.duplicate(), compressed.remaining());
+                decoder.await();
+            }
+
+            return rows;
+        })).toList();
+
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        for (var decode : decodes)
+            assertArrayEquals(expected, decode.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failingSinkStopsTheDecode() {
+        var compressed = deflate(filteredData(new Random(7)));
+
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            var resources = new ParserResources();
+
+            var decoder = new PipelinedDecoder(header, resources, (y, _) -> {
+                if (y == 5)
+                    throw new IllegalArgumentException("Sink failed");
+            }, 1, executor);
+
+            // Depending on timing the failure surfaces while inflating or once waiting for the stages
+            var error = assertThrows(IllegalStateException.class, () -> {
+                decoder.inflate(compressed.duplicate(), compressed.remaining());
+                decoder.await();
+            });
+
+            var cause = error.getCause();
+            while (cause != null && !(cause instanceof IllegalArgumentException))
+                cause = cause.getCause();
+
+            assertNotNull(cause, "Sink failure should be the cause");
+            resources.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package net.ansinn.pixelatte.output.safe;
+
+import net.ansinn.pixelatte.formats.png.layout.ChunkMap;
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL.BlendOp;
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL.DisposeOp;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameCompositorTest {
+
+    private static final ChunkMap CHUNKS = new ChunkMap();
+
+    @Test
+    void disposeOpsRestoreTheCanvas() {
+        var background = solid(4, 4, 10, 20, 30, 255);
+
+        var animation = animation(
+                frame(background, 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(2, 2, 200, 0, 0, 255), 1, 1, DisposeOp.APNG_DISPOSE_OP_PREVIOUS, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(1, 1, 0, 200, 0, 255), 3, 3, DisposeOp.APNG_DISPOSE_OP_BACKGROUND, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(1, 1, 0, 0, 200, 128), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_OVER)
+        );
+
+        var compositor = animation.compositor();
+
+        assertEquals(0xFF0A141E, compositor.seek(0).getARGB(1, 1));
+        assertEquals(0xFFC80000, compositor.seek(1).getARGB(2, 2));
+
+        // The second frame disposes to previous, so the third frame lands on the background again
+        var third = compositor.seek(2);
+        assertEquals(0xFF0A141E, third.getARGB(2, 2));
+        assertEquals(0xFF00C800, third.getARGB(3, 3));
+
+        // Disposed to background, then blended over the rest of the canvas
+        var fourth = compositor.advance();
+        assertEquals(0x00000000, fourth.getARGB(3, 3));
+        assertEquals(0xFF050A73, fourth.getARGB(0, 0));
+
+        // Wrapping around starts over with a blank canvas
+        assertEquals(0xFF0A141E, compositor.advance().getARGB(3, 3));
+        assertEquals(0, compositor.index());
+    }
+
+    @Test
+    void overMatchesTheSpecFormula() {
+        // Wide enough to run through the vector loop as well as the scalar tail
+        var width = 37;
+        var below = new byte[width * 4];
+        var above = new byte[width * 4];
+        var random = new java.util.Random(3);
+
+        random.nextBytes(below);
+        random.nextBytes(above);
+
+        var animation = animation(
+                frame(new StaticImage8(width, 1, below, PixelResource.Format.RGBA8, CHUNKS), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(new StaticImage8(width, 1, above, PixelResource.Format.RGBA8, CHUNKS), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_OVER)
+        );
+
+        var canvas = animation.compositor().seek(1);
+
+        for (var x = 0; x < width; x++) {
+            var i = x * 4;
+            var srcAlpha = above[i + 3] & 0xFF;
+            var dstWeight = (below[i + 3] & 0xFF) * (255 - srcAlpha) / 255.0;
+            var alpha = srcAlpha + dstWeight;
+
+            if (srcAlpha == 0) {
+                assertEquals(animation.frames().getFirst().image().getARGB(x, 0), canvas.getARGB(x, 0));
+                continue;
+            }
+
+            assertEquals(Math.round(alpha), canvas.getAlpha(x, 0), 1);
+            assertEquals(Math.round(((above[i] & 0xFF) * srcAlpha + (below[i] & 0xFF) * dstWeight) / alpha), canvas.getRed(x, 0), 1);
+        }
+    }
+
+    @Test
+    void playbackDoesntAllocateNewCanvases() {
+        var animation = animation(
+                frame(solid(2, 2, 1, 2, 3, 255), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(1, 1, 4, 5, 6, 255), 1, 1, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_OVER)
+        );
+
+        var compositor = animation.compositor();
+        var canvas = compositor.canvas();
+
+        for (var i = 0; i < 10; i++)
+            assertSame(canvas, compositor.advance());
+    }
+
+    @Test
+    void getFrameComposesIndependentCopies() {
+        var animation = animation(
+                frame(solid(2, 2, 1, 2, 3, 255), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(1, 1, 4, 5, 6, 255), 1, 1, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE)
+        );
+
+        var first = animation.getFrame(0);
+        var second = animation.getFrame(1);
+
+        assertEquals(0xFF010203, first.image().getARGB(1, 1));
+        assertEquals(0xFF040506, second.image().getARGB(1, 1));
+        assertEquals(2, second.image().width());
+        assertEquals(Duration.ofMillis(100), animation.totalDuration().dividedBy(2));
+        assertSame(animation.frames().get(1).delay(), animation.getFrameAt(Duration.ofMillis(150)).delay());
+    }
+
+    @Test
+    void framesOutsideTheCanvasAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> animation(
+                frame(solid(2, 2, 0, 0, 0, 255), 0, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE),
+                frame(solid(2, 2, 0, 0, 0, 255), 1, 0, DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE)
+        ).compositor());
+    }
+
+    @SafeVarargs
+    private static AnimatedImage8 animation(Frame<StaticImage8>... frames) {
+        var first = frames[0].image();
+
+        return new AnimatedImage8(0, first.width(), first.height(), PixelResource.Format.RGBA8, CHUNKS,
+                first, List.of(frames));
+    }
+
+    private static Frame<StaticImage8> frame(StaticImage8 image, int x, int y, DisposeOp dispose, BlendOp blend) {
+        return new Frame<>(image, Duration.ofMillis(100), x, y, dispose, blend);
+    }
+
+    private static StaticImage8 solid(int width, int height, int red, int green, int blue, int alpha) {
+        var data = new byte[width * height * 4];
+
+        for (var i = 0; i < data.length; i += 4) {
+            data[i] = (byte) red;
+            data[i + 1] = (byte) green;
+            data[i + 2] = (byte) blue;
+            data[i + 3] = (byte) alpha;
+        }
+
+        return new StaticImage8(width, height, data, PixelResource.Format.RGBA8, CHUNKS);
+    }
+}
@@ -0,0 +1,57 @@
+package net.ansinn.pixelatte.output.safe;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedImage8Test {
+
+    @Test
+    void expandIndicesMatchesThePaletteForEveryShape() {
+        var random = new Random(15);
+        var palette = new int[256];
+        var row = new byte[75];
+
+        for (var i = 0; i < palette.length; i++)
+            palette[i] = random.nextInt();
+
+        random.nextBytes(row);
+
+        // 128 bit ints, as on hardware without wider vectors, widen a 64 bit byte vector in two parts
+        for (var species : List.of(IntVector.SPECIES_128, IntVector.SPECIES_256, IntVector.SPECIES_512,
+                IntVector.SPECIES_PREFERRED)) {
+            // Rows of every length up to past a few vectors, so both the vector loop and the tail are covered
+            for (var width = 0; width < row.length - 3; width++) {
+                var out = new byte[width * 4];
+
+                IndexedImage8.expandIndices(row, 3, width, palette, out, 0, new int[species.length()], species,
+                        IndexedImage8.indexSpecies(species));
+
+                for (var x = 0; x < width; x++)
+                    assertEquals(palette[row[3 + x] & 0xFF], rgba(out, x * 4),
+                            species + ", width " + width + ", x " + x);
+            }
+        }
+    }
+
+    @Test
+    void indexSpeciesAlwaysExists() {
+        for (var species : List.<VectorSpecies<Integer>>of(IntVector.SPECIES_64, IntVector.SPECIES_128,
+                IntVector.SPECIES_256, IntVector.SPECIES_512)) {
+            var indices = IndexedImage8.indexSpecies(species);
+
+            assertTrue(indices.length() >= species.length());
+            assertEquals(0, indices.length() % species.length());
+        }
+    }
+
+    private static int rgba(byte[] pixels, int offset) {
+        return (pixels[offset] & 0xFF) | (pixels[offset + 1] & 0xFF) << 8 | (pixels[offset + 2] & 0xFF) << 16
+                | (pixels[offset + 3] & 0xFF) << 24;
+    }
+}
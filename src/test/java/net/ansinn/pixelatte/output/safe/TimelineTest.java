@@ -0,0 +1,84 @@
+package net.ansinn.pixelatte.output.safe;
+
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL.BlendOp;
+import net.ansinn.pixelatte.formats.png.layout.chunks.fcTL.DisposeOp;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimelineTest {
+
+    @Test
+    void frameAtMatchesSteppingThroughDelays() {
+        var random = new Random(5);
+        var delays = new long[97];
+
+        // Frames without a delay are mixed in, they're skipped over
+        for (var i = 0; i < delays.length; i++)
+            delays[i] = i % 9 == 4 ? 0 : 1 + random.nextInt(50_000_000);
+
+        var timeline = Timeline.of(infos(delays));
+        var total = 0L;
+
+        for (var delay : delays)
+            total += delay;
+
+        assertEquals(total, timeline.totalNanos());
+        assertEquals(Duration.ofNanos(total), timeline.totalDuration());
+
+        for (var i = 0; i < 2_000; i++) {
+            var time = (long) (random.nextDouble() * total * 3);
+            assertEquals(linearFrameAt(delays, time % total), timeline.frameAt(time, 0), "time " + time);
+        }
+
+        for (var i = 0; i < delays.length; i++)
+            if (delays[i] != 0)
+                assertEquals(i, timeline.frameAt(timeline.startNanos(i), 0));
+    }
+
+    @Test
+    void finiteLoopsHoldTheLastFrame() {
+        var timeline = Timeline.of(infos(10, 20, 30));
+
+        assertEquals(1, timeline.frameAt(15, 2));
+        assertEquals(0, timeline.frameAt(60, 2));
+        assertEquals(2, timeline.frameAt(119, 2));
+        assertEquals(2, timeline.frameAt(120, 2));
+        assertEquals(2, timeline.frameAt(10_000, 2));
+        assertEquals(0, timeline.frameAt(10_020, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> timeline.frameAt(-1, 0));
+    }
+
+    @Test
+    void framesWithoutDelayStayOnTheFirst() {
+        var timeline = Timeline.of(infos(0, 0, 0));
+
+        assertEquals(0, timeline.totalNanos());
+        assertEquals(0, timeline.frameAt(1_000, 0));
+    }
+
+    private static int linearFrameAt(long[] delays, long time) {
+        for (var i = 0; i < delays.length; i++) {
+            time -= delays[i];
+
+            if (time < 0)
+                return i;
+        }
+
+        return delays.length - 1;
+    }
+
+    private static FrameInfo[] infos(long... delays) {
+        var infos = new FrameInfo[delays.length];
+
+        for (var i = 0; i < delays.length; i++)
+            infos[i] = new FrameInfo(1, 1, 0, 0, Duration.ofNanos(delays[i]),
+                    DisposeOp.APNG_DISPOSE_OP_NONE, BlendOp.APNG_BLEND_OP_SOURCE);
+
+        return infos;
+    }
+}